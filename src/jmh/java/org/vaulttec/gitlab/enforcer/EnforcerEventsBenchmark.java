@@ -0,0 +1,75 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.InMemoryAuditEventRepository;
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher.OverflowPolicy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Creation and publishing of the audit event written for every enforced
+ * project. A buffer size of 0 publishes the events synchronously.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EnforcerEventsBenchmark {
+
+  @Param({ "0", "8192" })
+  private int bufferSize;
+
+  private EnforcerEventPublisher eventPublisher;
+  private AuditEvent event;
+
+  @Setup
+  public void setUp() {
+    eventPublisher = new EnforcerEventPublisher(new InMemoryAuditEventRepository(), Fixtures.objectMapper(), null,
+        bufferSize, 256, Duration.ofSeconds(1), OverflowPolicy.BLOCK, new SimpleMeterRegistry());
+    event = createProjectEvent();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    eventPublisher.destroy();
+  }
+
+  @Benchmark
+  public AuditEvent createProjectEvent() {
+    return EnforcerEvents.createProjectEvent(EnforcerExecution.SCHEDULED, "PROTECTED_BRANCH", "projectId=4711",
+        "projectPath=commerce/platform/order-service", "branch=master");
+  }
+
+  @Benchmark
+  public void publishEvent() {
+    eventPublisher.publishEvent(event);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.StringJoiner;
+import java.util.function.IntFunction;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Payloads recorded from the GitLab API used by the benchmarks.
+ */
+public final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  /**
+   * Returns an object mapper configured like the one used by the REST client.
+   */
+  public static ObjectMapper objectMapper() {
+    return Jackson2ObjectMapperBuilder.json().build();
+  }
+
+  public static String load(String name) {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+      if (in == null) {
+        throw new IllegalStateException("Missing fixture '" + name + "'");
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns a JSON array with the given number of copies of the given fixture.
+   * In every copy the first occurrence of the given text is replaced with the
+   * text created for the index of the copy.
+   */
+  public static byte[] page(String name, int size, String text, IntFunction<String> replacement) {
+    String fixture = load(name);
+    int index = fixture.indexOf(text);
+    if (index == -1) {
+      throw new IllegalStateException("Missing '" + text + "' in fixture '" + name + "'");
+    }
+    StringJoiner page = new StringJoiner(",", "[", "]");
+    for (int i = 0; i < size; i++) {
+      page.add(fixture.substring(0, index) + replacement.apply(i) + fixture.substring(index + text.length()));
+    }
+    return page.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client.model;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.vaulttec.gitlab.enforcer.Fixtures;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Deserialization of API response pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PageDeserializationBenchmark {
+
+  private static final TypeReference<List<Project>> PROJECTS_TYPE = new TypeReference<>() {
+  };
+  private static final TypeReference<List<ProtectedBranch>> PROTECTED_BRANCHES_TYPE = new TypeReference<>() {
+  };
+
+  @Param({ "20", "100" })
+  private int pageSize;
+
+  private ObjectMapper objectMapper;
+  private byte[] projects;
+  private byte[] protectedBranches;
+
+  @Setup
+  public void setUp() throws IOException {
+    objectMapper = Fixtures.objectMapper();
+    projects = Fixtures.page("project.json", pageSize, "\"id\": 4711", i -> "\"id\": " + (4711 + i));
+    protectedBranches = Fixtures.page("protected_branch.json", pageSize, "\"name\": \"master\"",
+        i -> "\"name\": \"release/" + i + "\"");
+  }
+
+  @Benchmark
+  public List<Project> deserializeProjects() throws IOException {
+    return objectMapper.readValue(projects, PROJECTS_TYPE);
+  }
+
+  @Benchmark
+  public List<ProtectedBranch> deserializeProtectedBranches() throws IOException {
+    return objectMapper.readValue(protectedBranches, PROTECTED_BRANCHES_TYPE);
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.vaulttec.gitlab.enforcer.Fixtures;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PushRulesBenchmark {
+
+  private static final String[] SETTINGS = new String[] { "commit_message_regex",
+      "^(feat|fix|docs|refactor|test|chore)(\\([a-z-]+\\))?: .+", "branch_name_regex",
+      "^(master|develop|(feature|bugfix|release)/[a-z0-9._-]+)$", "member_check", "true", "prevent_secrets", "true",
+      "max_file_size", "20", "commit_committer_check", "true", "reject_unsigned_commits", "false" };
+
+  private ObjectMapper objectMapper;
+  private byte[] json;
+  private PushRules pushRules;
+
+  @Setup
+  public void setUp() throws IOException {
+    objectMapper = Fixtures.objectMapper();
+    json = Fixtures.load("push_rule.json").getBytes(StandardCharsets.UTF_8);
+    pushRules = objectMapper.readValue(json, PushRules.class);
+    if (!pushRules.isActiveSettings(SETTINGS)) {
+      throw new IllegalStateException("Push rules fixture doesn't match the settings");
+    }
+  }
+
+  @Benchmark
+  public PushRules deserialize() throws IOException {
+    return objectMapper.readValue(json, PushRules.class);
+  }
+
+  @Benchmark
+  public boolean isActiveSettings() {
+    return pushRules.isActiveSettings(SETTINGS);
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.vaulttec.gitlab.enforcer.Fixtures;
+import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
+import org.vaulttec.gitlab.enforcer.rule.Rule.Use;
+
+/**
+ * Verification of an existing protected branch (as returned by the API)
+ * against the enforced access levels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtectedBranchRuleBenchmark {
+
+  private static final String[] SETTINGS = new String[] { "push_access_level", "30", "merge_access_level", "30",
+      "unprotect_access_level", "60" };
+
+  private ProtectedBranchRule rule;
+  private ProtectedBranch branch;
+
+  @Setup
+  public void setUp() throws Exception {
+    Map<String, String> config = new LinkedHashMap<>();
+    config.put("name", "master");
+    config.put("keepStricterAccessLevel", "true");
+    for (int i = 0; i < SETTINGS.length; i += 2) {
+      config.put(SETTINGS[i], SETTINGS[i + 1]);
+    }
+    rule = new ProtectedBranchRule();
+    rule.init(Use.ALWAYS, null, null, config);
+    // The fixture has a stricter push access level and an additional group
+    // merge access level
+    branch = Fixtures.objectMapper().readValue(Fixtures.load("protected_branch.json"), ProtectedBranch.class);
+  }
+
+  @Benchmark
+  public boolean hasRequiredAccessLevels() {
+    return rule.hasRequiredAccessLevels(branch);
+  }
+
+  @Benchmark
+  public boolean hasStricterSettings() {
+    // Like the rule does for every project
+    List<String> enforcedSettings = new ArrayList<>(Arrays.asList(SETTINGS));
+    return rule.hasStricterSettings(branch, enforcedSettings);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.HttpHeaders;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LinkHeaderBenchmark {
+
+  private static final String OFFSET_LINKS = "<https://gitlab.example.com/api/v4/projects?membership=false"
+      + "&order_by=created_at&owned=false&page=1&per_page=100&simple=false&sort=desc&statistics=false>; "
+      + "rel=\"prev\", <https://gitlab.example.com/api/v4/projects?membership=false&order_by=created_at&owned=false"
+      + "&page=3&per_page=100&simple=false&sort=desc&statistics=false>; rel=\"next\", "
+      + "<https://gitlab.example.com/api/v4/projects?membership=false&order_by=created_at&owned=false&page=1"
+      + "&per_page=100&simple=false&sort=desc&statistics=false>; rel=\"first\", "
+      + "<https://gitlab.example.com/api/v4/projects?membership=false&order_by=created_at&owned=false&page=87"
+      + "&per_page=100&simple=false&sort=desc&statistics=false>; rel=\"last\"";
+  private static final String KEYSET_LINKS = "<https://gitlab.example.com/api/v4/projects?id_after=4711"
+      + "&last_activity_after=2023-11-01T00%3A00%3A00Z&order_by=id&pagination=keyset&per_page=100&sort=asc>; "
+      + "rel=\"next\"";
+
+  @Param({ "offset", "keyset" })
+  private String pagination;
+
+  private HttpHeaders headers;
+
+  @Setup
+  public void setUp() {
+    headers = new HttpHeaders();
+    headers.set(HttpHeaders.LINK, "offset".equals(pagination) ? OFFSET_LINKS : KEYSET_LINKS);
+  }
+
+  @Benchmark
+  public LinkHeader parse() {
+    return LinkHeader.parse(headers);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import org.vaulttec.gitlab.enforcer.rule.Rule.Outcome;
+
+/**
+ * Time and combined outcome of the last enforcement of a GitLab object as
+ * persisted in the state store.
+ */
+public class EnforcementResult {
+
+  private final Instant time;
+  private final Outcome outcome;
+
+  public EnforcementResult(Instant time, Outcome outcome) {
+    this.time = time;
+    this.outcome = outcome;
+  }
+
+  public Instant getTime() {
+    return time;
+  }
+
+  public Outcome getOutcome() {
+    return outcome;
+  }
+
+  /**
+   * Returns the result stored as <code>"&lt;time&gt; &lt;outcome&gt;"</code>
+   * or <code>null</code> if the given value is missing or invalid.
+   */
+  public static EnforcementResult parse(String value) {
+    if (value != null) {
+      String[] parts = value.split(" ");
+      if (parts.length == 2) {
+        try {
+          return new EnforcementResult(Instant.parse(parts[0]), Outcome.valueOf(parts[1]));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+          // Ignore invalid value
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return time + " " + outcome;
+  }
+}
@@ -18,32 +18,99 @@
 package org.vaulttec.gitlab.enforcer;
 
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.vaulttec.gitlab.enforcer.client.EntityCache;
 import org.vaulttec.gitlab.enforcer.client.GitLabClient;
-import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace.Kind;
 import org.vaulttec.gitlab.enforcer.client.model.Project;
 import org.vaulttec.gitlab.enforcer.rule.Rule;
+import org.vaulttec.gitlab.enforcer.rule.Rule.Outcome;
+import org.vaulttec.gitlab.enforcer.rule.Rule.Resource;
+import org.vaulttec.gitlab.enforcer.state.StateStore;
 import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
 import org.vaulttec.gitlab.enforcer.systemhook.SystemEventBuilder;
 import org.vaulttec.gitlab.enforcer.systemhook.SystemEventName;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 @Service
 public class EnforcerClient {
 
   private static final Logger LOG = LoggerFactory.getLogger(EnforcerClient.class);
 
+  static final String LAST_SWEEP_CHECKPOINT = "sweep.last";
+  static final String LAST_FULL_SWEEP_CHECKPOINT = "sweep.lastFull";
+  static final String LAST_ENFORCE = "enforce.last";
+  static final String SWEEP_CURSOR = "sweep.cursor";
+  static final String RESULT_PREFIX = "result.";
+
+  /**
+   * Retrieval of the projects by sweeps: all projects via the global project
+   * list or the projects of every top-level group tree.
+   */
+  public enum SweepStrategy {
+    GLOBAL, GROUP_TREE
+  }
+
   private GitLabClient client;
   private List<Rule> rules;
-  private Instant lastEnforceTime;
+  private TaskExecutor sweepExecutor;
+  private TaskExecutor groupSweepExecutor;
+  private TaskExecutor prefetchExecutor;
+  private EnforcerConfig config;
+  private StateStore stateStore;
+  private EventCoalescer coalescer;
+  private MeterRegistry meterRegistry;
+  private Counter sweptGroups;
+  private Counter sweptProjects;
+  private volatile double sweepThroughput;
+  private volatile Instant lastCursorSave = Instant.EPOCH;
 
-  public EnforcerClient(GitLabClient client, List<Rule> rules) {
+  public EnforcerClient(GitLabClient client, List<Rule> rules,
+      @Qualifier("sweepTaskExecutor") TaskExecutor sweepExecutor,
+      @Qualifier("groupSweepTaskExecutor") TaskExecutor groupSweepExecutor,
+      @Qualifier("entityPrefetchTaskExecutor") TaskExecutor prefetchExecutor,
+      @Qualifier("hookTaskExecutor") TaskExecutor hookExecutor, EnforcerConfig config, StateStore stateStore,
+      MeterRegistry meterRegistry) {
     this.client = client;
     this.rules = rules;
+    this.sweepExecutor = sweepExecutor;
+    this.groupSweepExecutor = groupSweepExecutor;
+    this.prefetchExecutor = prefetchExecutor;
+    this.config = config;
+    this.stateStore = stateStore;
+    // Deferred hook events are enforced like the other hook events
+    this.coalescer = new EventCoalescer(config.getCoalesceWindow(), hookExecutor);
+    this.meterRegistry = meterRegistry;
+    this.sweptGroups = Counter.builder("enforcer.sweep.objects").description("GitLab objects enforced by sweeps")
+        .tag("kind", "group").register(meterRegistry);
+    this.sweptProjects = Counter.builder("enforcer.sweep.objects").description("GitLab objects enforced by sweeps")
+        .tag("kind", "project").register(meterRegistry);
+    Gauge.builder("enforcer.sweep.throughput", this, enforcer -> enforcer.sweepThroughput)
+        .description("GitLab objects per second enforced by the last sweep").register(meterRegistry);
   }
 
   public List<String> getRulesInfo() {
@@ -55,36 +122,352 @@ public class EnforcerClient {
   }
 
   public Instant getLastEnforceTime() {
-    return lastEnforceTime;
+    return getCheckpoint(LAST_ENFORCE);
+  }
+
+  /**
+   * Returns the time and outcome of the last enforcement of the GitLab object
+   * referenced by the given event, or <code>null</code> if not enforced yet.
+   */
+  public EnforcementResult getLastResult(SystemEvent event) {
+    String key = getResultKey(event);
+    return key != null ? EnforcementResult.parse(stateStore.get(key)) : null;
   }
 
   public void enforce(EnforcerExecution execution) {
-    LOG.info("Enforcing rules for all GitLab groups and projects ({})", execution);
-    List<Group> groups = client.getGroups(null);
-    if (groups != null) {
-      groups.forEach(group -> {
-        SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.GROUP_CREATE).id(group.getId())
-            .object(group).name(group.getName()).path(group.getPath()).build();
-        enforce(execution, event);
+    long start = System.nanoTime();
+    // Counted per sweep, because concurrent sweeps share the global counters
+    LongAdder sweptObjects = new LongAdder();
+    Instant sweepStart = Instant.now();
+    Instant lastActivityAfter = getIncrementalSweepStart(execution, sweepStart);
+    SweepCursor cursor = getSweepCursor(lastActivityAfter);
+    if (cursor != null) {
+      LOG.info("Resuming interrupted sweep started at {} with {} after ID {} ({})", cursor.getSweepStart(),
+          cursor.getPhase(), cursor.getIdAfter(), execution);
+      sweepStart = cursor.getSweepStart();
+    } else {
+      cursor = new SweepCursor(sweepStart, lastActivityAfter);
+      if (lastActivityAfter == null) {
+        LOG.info("Enforcing rules for all GitLab groups and projects ({})", execution);
+      } else {
+        LOG.info("Enforcing rules for all GitLab groups and projects with activity after {} ({})",
+            lastActivityAfter, execution);
+      }
+    }
+    // All groups have to be enforced before the first project is touched.
+    // The entities are streamed page by page, so enforcement starts with the
+    // first page and only a single page is kept in memory.
+    // GitLab provides no filter for changed groups, so these are always
+    // enforced completely.
+    boolean groupTree = config.getSweepStrategy() == SweepStrategy.GROUP_TREE;
+    boolean completed = true;
+    if (cursor.getPhase() == SweepCursor.Phase.GROUPS) {
+      completed = enforceAll(execution, cursor, sweptObjects, client.streamGroups(null, cursor.getIdAfter())
+          .map(group -> new SystemEventBuilder().eventName(SystemEventName.GROUP_CREATE).id(group.getId())
+              .object(group).name(group.getName()).path(group.getPath()).build()));
+      if (completed) {
+        cursor.startPhase(groupTree ? SweepCursor.Phase.GROUP_PROJECTS : SweepCursor.Phase.PROJECTS);
+        saveSweepCursor(cursor, true);
+      }
+    }
+    // Projects are enforced even if the groups are incomplete, but the progress
+    // is only tracked for the phase the cursor is in
+    if (!groupTree) {
+      completed &= enforceAll(execution, completed ? cursor : null, sweptObjects,
+          client.streamProjects(null, lastActivityAfter, completed ? cursor.getIdAfter() : null)
+              .filter(project -> config.isSweepUserProjects() || project.getKind() != Kind.USER)
+              .map(EnforcerClient::createProjectEvent));
+    } else {
+      // Projects in user namespaces aren't part of any group tree, so this
+      // strategy requires these to be skipped (checked at startup)
+      completed &= enforceGroupTrees(execution, completed ? cursor : null, sweptObjects, lastActivityAfter);
+    }
+    if (completed) {
+      // Use the start time as checkpoint to catch changes made while sweeping
+      stateStore.put(LAST_SWEEP_CHECKPOINT, sweepStart.toString());
+      if (lastActivityAfter == null) {
+        stateStore.put(LAST_FULL_SWEEP_CHECKPOINT, sweepStart.toString());
+      }
+      stateStore.remove(SWEEP_CURSOR);
+    } else {
+      LOG.warn("Enforcing rules incomplete - checkpoint of last sweep not updated ({})", execution);
+      saveSweepCursor(cursor, true);
+    }
+    stateStore.put(LAST_ENFORCE, Instant.now().toString());
+    stateStore.flush();
+    long duration = System.nanoTime() - start;
+    Timer.builder("enforcer.sweep").description("Duration of sweeps over all GitLab groups and projects")
+        .tag("execution", execution.name().toLowerCase(Locale.ROOT))
+        .tag("result", completed ? "completed" : "incomplete").register(meterRegistry)
+        .record(duration, TimeUnit.NANOSECONDS);
+    sweepThroughput = sweptObjects.doubleValue() * TimeUnit.SECONDS.toNanos(1) / Math.max(duration, 1);
+  }
+
+  /**
+   * Returns the cursor of an interrupted sweep if it can be resumed by a sweep
+   * with the given activity filter, otherwise <code>null</code>.
+   */
+  private SweepCursor getSweepCursor(Instant lastActivityAfter) {
+    if (config.getSweepCursorInterval().isZero()) {
+      return null;
+    }
+    SweepCursor cursor = SweepCursor.parse(stateStore.get(SWEEP_CURSOR));
+    if (cursor != null && !Objects.equals(cursor.getLastActivityAfter(), lastActivityAfter)) {
+      LOG.info("Discarding cursor of interrupted sweep with different activity filter");
+      return null;
+    }
+    boolean groupTreePhase = cursor != null && cursor.getPhase() == SweepCursor.Phase.GROUP_PROJECTS;
+    if (cursor != null && cursor.getPhase() != SweepCursor.Phase.GROUPS
+        && groupTreePhase != (config.getSweepStrategy() == SweepStrategy.GROUP_TREE)) {
+      LOG.info("Discarding cursor of interrupted sweep with different sweep strategy");
+      return null;
+    }
+    return cursor;
+  }
+
+  /**
+   * Persists the given sweep cursor if forced or the configured interval has
+   * passed since the cursor was saved last.
+   */
+  private void saveSweepCursor(SweepCursor cursor, boolean force) {
+    if (config.getSweepCursorInterval().isZero()) {
+      return;
+    }
+    synchronized (cursor) {
+      Instant now = Instant.now();
+      if (force || lastCursorSave.plus(config.getSweepCursorInterval()).isBefore(now)) {
+        stateStore.put(SWEEP_CURSOR, cursor.toString());
+        stateStore.flush();
+        lastCursorSave = now;
+      }
+    }
+  }
+
+  /**
+   * Returns the start time of the last sweep if the given execution can be
+   * limited to projects with activity since then, otherwise <code>null</code>.
+   * A full sweep is required if incremental sweeps are disabled, after the
+   * configured interval or if no checkpoint is available. Only scheduled sweeps
+   * run incrementally.
+   */
+  private Instant getIncrementalSweepStart(EnforcerExecution execution, Instant now) {
+    if (!config.isIncrementalSweep() || execution != EnforcerExecution.SCHEDULED) {
+      return null;
+    }
+    Instant lastSweep = getCheckpoint(LAST_SWEEP_CHECKPOINT);
+    Instant lastFullSweep = getCheckpoint(LAST_FULL_SWEEP_CHECKPOINT);
+    if (lastSweep == null || lastFullSweep == null
+        || lastFullSweep.plus(config.getFullSweepInterval()).isBefore(now)) {
+      return null;
+    }
+    return lastSweep;
+  }
+
+  private Instant getCheckpoint(String key) {
+    String value = stateStore.get(key);
+    try {
+      return value != null ? Instant.parse(value) : null;
+    } catch (DateTimeParseException e) {
+      LOG.warn("Ignoring invalid checkpoint {}={}", key, value);
+    }
+    return null;
+  }
+
+  /**
+   * Enforces the projects of all top-level group trees. The projects of
+   * multiple group trees are retrieved concurrently and enforced by the sweep
+   * executor. A top-level group is only completed in the given cursor (if any)
+   * when all its projects are done.
+   */
+  private boolean enforceGroupTrees(EnforcerExecution execution, SweepCursor cursor, LongAdder sweptObjects,
+      Instant lastActivityAfter) {
+    Phaser phaser = new Phaser(1);
+    AtomicBoolean completed = new AtomicBoolean(true);
+    try {
+      client.streamTopLevelGroups(cursor != null ? cursor.getIdAfter() : null).forEach(group -> {
+        phaser.register();
+        if (cursor != null) {
+          cursor.submitted(group.getId());
+        }
+        try {
+          groupSweepExecutor.execute(() -> {
+            try {
+              LOG.debug("Enforcing rules for projects of group tree '{}' ({})", group.getPath(), execution);
+              if (enforceAll(execution, null, sweptObjects,
+                  client.streamProjectsForGroupTree(group.getId(), lastActivityAfter)
+                      .map(EnforcerClient::createProjectEvent))) {
+                if (cursor != null) {
+                  cursor.completed(group.getId());
+                  saveSweepCursor(cursor, false);
+                }
+              } else {
+                completed.set(false);
+              }
+            } finally {
+              phaser.arriveAndDeregister();
+            }
+          });
+        } catch (RuntimeException e) {
+          phaser.arriveAndDeregister();
+          throw e;
+        }
       });
+    } catch (RestClientException e) {
+      // Already logged by the GitLab client
+      completed.set(false);
+    } finally {
+      phaser.arriveAndAwaitAdvance();
     }
-    List<Project> projects = client.getProjects(null);
-    if (projects != null) {
-      projects.forEach(project -> {
-        SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id(project.getId())
-            .object(project).name(project.getName()).path(project.getPath())
-            .pathWithNamespace(project.getPathWithNamespace()).build();
-        enforce(execution, event);
+    return completed.get();
+  }
+
+  private static SystemEvent createProjectEvent(Project project) {
+    return new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id(project.getId()).object(project)
+        .name(project.getName()).path(project.getPath()).pathWithNamespace(project.getPathWithNamespace()).build();
+  }
+
+  private boolean enforceAll(EnforcerExecution execution, SweepCursor cursor, LongAdder sweptObjects,
+      Stream<SystemEvent> events) {
+    Phaser phaser = new Phaser(1);
+    try {
+      events.forEach(event -> submit(phaser, execution, cursor, sweptObjects, event));
+      return true;
+    } catch (RestClientException e) {
+      // Already logged by the GitLab client
+      return false;
+    } finally {
+      phaser.arriveAndAwaitAdvance();
+    }
+  }
+
+  private void submit(Phaser phaser, EnforcerExecution execution, SweepCursor cursor, LongAdder sweptObjects,
+      SystemEvent event) {
+    phaser.register();
+    if (cursor != null) {
+      cursor.submitted(event.getId());
+    }
+    try {
+      sweepExecutor.execute(() -> {
+        try {
+          enforce(execution, event);
+        } catch (RuntimeException e) {
+          LOG.error("Enforcing rules for {} failed", event, e);
+        } finally {
+          (event.getEventName() == SystemEventName.GROUP_CREATE ? sweptGroups : sweptProjects).increment();
+          sweptObjects.increment();
+          if (cursor != null) {
+            cursor.completed(event.getId());
+            saveSweepCursor(cursor, false);
+          }
+          phaser.arriveAndDeregister();
+        }
       });
+    } catch (RuntimeException e) {
+      phaser.arriveAndDeregister();
+      throw e;
     }
-    lastEnforceTime = Instant.now();
   }
 
+  /**
+   * Enforces the rules for the given event unless it's collapsed with an
+   * in-flight or recent event for the same GitLab object.
+   */
   public void enforce(EnforcerExecution execution, SystemEvent event) {
-    rules.forEach(rule -> {
+    coalescer.process(execution, event, this::enforceRules);
+  }
+
+  /**
+   * Enforces the rules with a separate entity cache, so entities requested by
+   * multiple rules are retrieved only once per event. The entity provided by a
+   * sweep is used as is. The resources required by the rules are prefetched.
+   * The combined outcome of all rules is recorded in the state store.
+   */
+  private void enforceRules(EnforcerExecution execution, SystemEvent event) {
+    EntityCache cache = new EntityCache();
+    if (event.getObject() instanceof Project) {
+      cache.putProject((Project) event.getObject());
+    }
+    Outcome[] outcome = { Outcome.SKIPPED };
+    try {
+      cache.run(() -> {
+        prefetch(execution, event, cache);
+        rules.forEach(rule -> {
+          if (rule.supports(event)) {
+            outcome[0] = combine(outcome[0], rule.handle(execution, event));
+          }
+        });
+      });
+    } catch (RuntimeException e) {
+      outcome[0] = Outcome.FAILED;
+      throw e;
+    } finally {
+      String key = getResultKey(event);
+      if (key != null) {
+        stateStore.put(key, new EnforcementResult(Instant.now(), outcome[0]).toString());
+      }
+    }
+  }
+
+  /**
+   * Returns the more significant of the given outcomes: a failure outweighs an
+   * enforcement which outweighs compliance.
+   */
+  private static Outcome combine(Outcome current, Outcome outcome) {
+    if (outcome == null || outcome == Outcome.SKIPPED) {
+      return current;
+    }
+    if (current == Outcome.SKIPPED || outcome.ordinal() > current.ordinal()) {
+      return outcome;
+    }
+    return current;
+  }
+
+  private static String getResultKey(SystemEvent event) {
+    if (event.getId() != null) {
+      if (event.getEventName() == SystemEventName.PROJECT_CREATE) {
+        return RESULT_PREFIX + "project." + event.getId();
+      } else if (event.getEventName() == SystemEventName.GROUP_CREATE) {
+        return RESULT_PREFIX + "group." + event.getId();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Retrieves the union of the resources required by the rules concurrently
+   * into the given cache. A single resource is left to the rule requiring it.
+   */
+  private void prefetch(EnforcerExecution execution, SystemEvent event, EntityCache cache) {
+    Set<Resource> resources = EnumSet.noneOf(Resource.class);
+    for (Rule rule : rules) {
       if (rule.supports(event)) {
-        rule.handle(execution, event);
+        resources.addAll(rule.getRequiredResources(execution, event));
       }
-    });
+    }
+    if (resources.size() < 2) {
+      return;
+    }
+    LOG.debug("Prefetching {} for {}", resources, event);
+    CompletableFuture<?>[] futures = resources.stream()
+        .map(resource -> CompletableFuture.runAsync(() -> cache.run(() -> prefetch(resource, event.getId())),
+            prefetchExecutor))
+        .toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.allOf(futures).join();
+    } catch (CompletionException e) {
+      // The rules will retrieve the resource again
+      LOG.warn("Prefetching {} for {} failed", resources, event, e.getCause());
+    }
+  }
+
+  private void prefetch(Resource resource, String projectId) {
+    switch (resource) {
+    case PROTECTED_BRANCHES:
+      client.getProtectedBranchesForProject(projectId);
+      break;
+    case PUSH_RULES:
+      client.getPushRules(projectId);
+      break;
+    }
   }
 }
@@ -17,20 +17,82 @@
  */
 package org.vaulttec.gitlab.enforcer;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.PostConstruct;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.audit.AuditEventRepository;
 import org.springframework.boot.actuate.audit.InMemoryAuditEventRepository;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.vaulttec.gitlab.enforcer.EnforcerClient.SweepStrategy;
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher.OverflowPolicy;
+import org.vaulttec.gitlab.enforcer.audit.SegmentedAuditEventRepository;
+import org.vaulttec.gitlab.enforcer.client.GitLabClientConfig;
+import org.vaulttec.gitlab.enforcer.state.FileStateStore;
+import org.vaulttec.gitlab.enforcer.state.InMemoryStateStore;
+import org.vaulttec.gitlab.enforcer.state.LogStateStore;
+import org.vaulttec.gitlab.enforcer.state.StateStore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @Configuration
 @ConfigurationProperties(prefix = "enforcer")
 public class EnforcerConfig {
+  private static final Logger LOG = LoggerFactory.getLogger(EnforcerConfig.class);
+
   private int auditEventRepositoryCapacity;
+  @Min(0)
+  private int auditBufferSize = 8192;
+  @Min(1)
+  private int auditBatchSize = 256;
+  private Duration auditFlushInterval = Duration.ofSeconds(1);
+  private OverflowPolicy auditOverflowPolicy = OverflowPolicy.BLOCK;
+  private String auditDirectory;
+  private DataSize auditSegmentSize = DataSize.ofMegabytes(16);
+  private Duration auditRetention = Duration.ofDays(90);
+  private String auditLogFile;
+  private DataSize auditLogMaxFileSize = DataSize.ofMegabytes(500);
   @NotEmpty
   private String systemHookToken;
+  @Min(1)
+  private int sweepWorkers = 1;
+  private SweepStrategy sweepStrategy = SweepStrategy.GLOBAL;
+  @Min(1)
+  private int sweepGroupConcurrency = 4;
+  private boolean sweepUserProjects = true;
+  @Min(1)
+  private int hookWorkers = 2;
+  @Min(1)
+  private int hookQueueCapacity = 100;
+  private boolean virtualThreads;
+  @Min(0)
+  private int virtualThreadConcurrency;
+  private Duration coalesceWindow = Duration.ofSeconds(5);
+  private boolean incrementalSweep;
+  private Duration fullSweepInterval = Duration.ofDays(1);
+  private Duration sweepCursorInterval = Duration.ofSeconds(30);
+  private String stateFile;
+  private String stateDirectory;
+  private DataSize stateCompactionSize = DataSize.ofMegabytes(1);
+  private boolean fingerprints;
+  private Duration fingerprintMaxAge = Duration.ofDays(1);
+
+  @Autowired
+  private GitLabClientConfig gitLabClientConfig;
+  private Semaphore virtualThreadPermits;
 
   public int getAuditEventRepositoryCapacity() {
     return auditEventRepositoryCapacity;
@@ -40,6 +102,78 @@ public class EnforcerConfig {
     this.auditEventRepositoryCapacity = auditEventRepositoryCapacity;
   }
 
+  public int getAuditBufferSize() {
+    return auditBufferSize;
+  }
+
+  public void setAuditBufferSize(int auditBufferSize) {
+    this.auditBufferSize = auditBufferSize;
+  }
+
+  public int getAuditBatchSize() {
+    return auditBatchSize;
+  }
+
+  public void setAuditBatchSize(int auditBatchSize) {
+    this.auditBatchSize = auditBatchSize;
+  }
+
+  public Duration getAuditFlushInterval() {
+    return auditFlushInterval;
+  }
+
+  public void setAuditFlushInterval(Duration auditFlushInterval) {
+    this.auditFlushInterval = auditFlushInterval;
+  }
+
+  public OverflowPolicy getAuditOverflowPolicy() {
+    return auditOverflowPolicy;
+  }
+
+  public void setAuditOverflowPolicy(OverflowPolicy auditOverflowPolicy) {
+    this.auditOverflowPolicy = auditOverflowPolicy;
+  }
+
+  public String getAuditDirectory() {
+    return auditDirectory;
+  }
+
+  public void setAuditDirectory(String auditDirectory) {
+    this.auditDirectory = auditDirectory;
+  }
+
+  public DataSize getAuditSegmentSize() {
+    return auditSegmentSize;
+  }
+
+  public void setAuditSegmentSize(DataSize auditSegmentSize) {
+    this.auditSegmentSize = auditSegmentSize;
+  }
+
+  public Duration getAuditRetention() {
+    return auditRetention;
+  }
+
+  public void setAuditRetention(Duration auditRetention) {
+    this.auditRetention = auditRetention;
+  }
+
+  public String getAuditLogFile() {
+    return auditLogFile;
+  }
+
+  public void setAuditLogFile(String auditLogFile) {
+    this.auditLogFile = auditLogFile;
+  }
+
+  public DataSize getAuditLogMaxFileSize() {
+    return auditLogMaxFileSize;
+  }
+
+  public void setAuditLogMaxFileSize(DataSize auditLogMaxFileSize) {
+    this.auditLogMaxFileSize = auditLogMaxFileSize;
+  }
+
   public String getSystemHookToken() {
     return systemHookToken;
   }
@@ -48,8 +182,261 @@ public class EnforcerConfig {
     this.systemHookToken = systemHookToken;
   }
 
+  public int getSweepWorkers() {
+    return sweepWorkers;
+  }
+
+  public void setSweepWorkers(int sweepWorkers) {
+    this.sweepWorkers = sweepWorkers;
+  }
+
+  public SweepStrategy getSweepStrategy() {
+    return sweepStrategy;
+  }
+
+  public void setSweepStrategy(SweepStrategy sweepStrategy) {
+    this.sweepStrategy = sweepStrategy;
+  }
+
+  public int getSweepGroupConcurrency() {
+    return sweepGroupConcurrency;
+  }
+
+  public void setSweepGroupConcurrency(int sweepGroupConcurrency) {
+    this.sweepGroupConcurrency = sweepGroupConcurrency;
+  }
+
+  public boolean isSweepUserProjects() {
+    return sweepUserProjects;
+  }
+
+  public void setSweepUserProjects(boolean sweepUserProjects) {
+    this.sweepUserProjects = sweepUserProjects;
+  }
+
+  public int getHookWorkers() {
+    return hookWorkers;
+  }
+
+  public void setHookWorkers(int hookWorkers) {
+    this.hookWorkers = hookWorkers;
+  }
+
+  public int getHookQueueCapacity() {
+    return hookQueueCapacity;
+  }
+
+  public void setHookQueueCapacity(int hookQueueCapacity) {
+    this.hookQueueCapacity = hookQueueCapacity;
+  }
+
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public void setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  public int getVirtualThreadConcurrency() {
+    return virtualThreadConcurrency;
+  }
+
+  public void setVirtualThreadConcurrency(int virtualThreadConcurrency) {
+    this.virtualThreadConcurrency = virtualThreadConcurrency;
+  }
+
+  public Duration getCoalesceWindow() {
+    return coalesceWindow;
+  }
+
+  public void setCoalesceWindow(Duration coalesceWindow) {
+    this.coalesceWindow = coalesceWindow;
+  }
+
+  public boolean isIncrementalSweep() {
+    return incrementalSweep;
+  }
+
+  public void setIncrementalSweep(boolean incrementalSweep) {
+    this.incrementalSweep = incrementalSweep;
+  }
+
+  public Duration getFullSweepInterval() {
+    return fullSweepInterval;
+  }
+
+  public void setFullSweepInterval(Duration fullSweepInterval) {
+    this.fullSweepInterval = fullSweepInterval;
+  }
+
+  public Duration getSweepCursorInterval() {
+    return sweepCursorInterval;
+  }
+
+  public void setSweepCursorInterval(Duration sweepCursorInterval) {
+    this.sweepCursorInterval = sweepCursorInterval;
+  }
+
+  public String getStateFile() {
+    return stateFile;
+  }
+
+  public void setStateFile(String stateFile) {
+    this.stateFile = stateFile;
+  }
+
+  public String getStateDirectory() {
+    return stateDirectory;
+  }
+
+  public void setStateDirectory(String stateDirectory) {
+    this.stateDirectory = stateDirectory;
+  }
+
+  public DataSize getStateCompactionSize() {
+    return stateCompactionSize;
+  }
+
+  public void setStateCompactionSize(DataSize stateCompactionSize) {
+    this.stateCompactionSize = stateCompactionSize;
+  }
+
+  public boolean isFingerprints() {
+    return fingerprints;
+  }
+
+  public void setFingerprints(boolean fingerprints) {
+    this.fingerprints = fingerprints;
+  }
+
+  public Duration getFingerprintMaxAge() {
+    return fingerprintMaxAge;
+  }
+
+  public void setFingerprintMaxAge(Duration fingerprintMaxAge) {
+    this.fingerprintMaxAge = fingerprintMaxAge;
+  }
+
+  @PostConstruct
+  public void validate() throws Exception {
+    if (sweepStrategy == SweepStrategy.GROUP_TREE && sweepUserProjects) {
+      throw new IllegalStateException("If sweepStrategy is group-tree then sweepUserProjects has to be disabled");
+    }
+  }
+
+  @Bean
+  public StateStore stateStore() {
+    if (StringUtils.hasText(getStateDirectory())) {
+      return new LogStateStore(Paths.get(getStateDirectory()), getStateCompactionSize().toBytes());
+    }
+    if (StringUtils.hasText(getStateFile())) {
+      return new FileStateStore(Paths.get(getStateFile()));
+    }
+    return new InMemoryStateStore();
+  }
+
   @Bean
-  public AuditEventRepository auditEventRepository() throws Exception {
+  public AuditEventRepository auditEventRepository(ObjectMapper objectMapper) throws Exception {
+    if (StringUtils.hasText(getAuditDirectory())) {
+      return new SegmentedAuditEventRepository(Paths.get(getAuditDirectory()), getAuditSegmentSize().toBytes(),
+          getAuditRetention(), getAuditEventRepositoryCapacity(), objectMapper);
+    }
     return new InMemoryAuditEventRepository(getAuditEventRepositoryCapacity());
   }
-}
\ No newline at end of file
+
+  @Bean
+  public TaskExecutor sweepTaskExecutor() {
+    if (useVirtualThreads()) {
+      // Sweeps wait for a permit instead of spawning a thread for every object
+      return new VirtualThreadTaskExecutor("enforcer-sweep-", getVirtualThreadPermits(),
+          getEffectiveVirtualThreadConcurrency(), true);
+    }
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setThreadNamePrefix("enforcer-sweep-");
+    executor.setCorePoolSize(getSweepWorkers());
+    executor.setMaxPoolSize(getSweepWorkers());
+    // Keep the queue short so the sweep is throttled by the workers instead of
+    // buffering all groups and projects - the caller runs overflowing tasks itself
+    // (even after shutdown, otherwise a running sweep would wait forever)
+    executor.setQueueCapacity(getSweepWorkers() * 2);
+    executor.setRejectedExecutionHandler((task, threadPoolExecutor) -> task.run());
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    return executor;
+  }
+
+  @Bean
+  public TaskExecutor groupSweepTaskExecutor() {
+    if (useVirtualThreads()) {
+      return new VirtualThreadTaskExecutor("enforcer-group-sweep-", new Semaphore(getSweepGroupConcurrency()),
+          Integer.MAX_VALUE, true);
+    }
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setThreadNamePrefix("enforcer-group-sweep-");
+    // Lists the projects of the top-level groups of a group tree sweep - the
+    // projects are enforced by the sweep executor
+    executor.setCorePoolSize(getSweepGroupConcurrency());
+    executor.setMaxPoolSize(getSweepGroupConcurrency());
+    executor.setAllowCoreThreadTimeOut(true);
+    executor.setRejectedExecutionHandler((task, threadPoolExecutor) -> task.run());
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    return executor;
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor entityPrefetchTaskExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setThreadNamePrefix("enforcer-prefetch-");
+    // Threads are only created on demand and tasks are never queued - if all
+    // threads are busy then the caller retrieves the resource itself
+    executor.setCorePoolSize(0);
+    executor.setMaxPoolSize(getSweepWorkers() + getHookWorkers());
+    executor.setQueueCapacity(0);
+    executor.setRejectedExecutionHandler((task, threadPoolExecutor) -> task.run());
+    return executor;
+  }
+
+  @Bean
+  public TaskExecutor hookTaskExecutor() {
+    if (useVirtualThreads()) {
+      return new VirtualThreadTaskExecutor("enforcer-hook-", getVirtualThreadPermits(), getHookQueueCapacity(),
+          false);
+    }
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setThreadNamePrefix("enforcer-hook-");
+    executor.setCorePoolSize(getHookWorkers());
+    executor.setMaxPoolSize(getHookWorkers());
+    // Hooks exceeding the queue capacity are rejected with a TaskRejectedException
+    executor.setQueueCapacity(getHookQueueCapacity());
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    return executor;
+  }
+
+  private boolean useVirtualThreads() {
+    if (isVirtualThreads() && !VirtualThreadTaskExecutor.isSupported()) {
+      LOG.warn("Virtual threads not supported by Java {} - using platform threads", Runtime.version());
+      return false;
+    }
+    return isVirtualThreads();
+  }
+
+  /**
+   * Returns the permits shared by the sweep and hook executors to limit the
+   * objects enforced concurrently on virtual threads.
+   */
+  private synchronized Semaphore getVirtualThreadPermits() {
+    if (virtualThreadPermits == null) {
+      virtualThreadPermits = new Semaphore(getEffectiveVirtualThreadConcurrency());
+    }
+    return virtualThreadPermits;
+  }
+
+  /**
+   * Returns the configured concurrency or, if not configured, the maximum
+   * number of concurrent GitLab API requests.
+   */
+  private int getEffectiveVirtualThreadConcurrency() {
+    return getVirtualThreadConcurrency() > 0 ? getVirtualThreadConcurrency()
+        : gitLabClientConfig.getMaxConcurrentRequests();
+  }
+}
@@ -17,35 +17,304 @@
  */
 package org.vaulttec.gitlab.enforcer;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.boot.actuate.audit.AuditEventRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.vaulttec.gitlab.enforcer.audit.BinaryAuditLogWriter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Writes audit events to the audit log and adds them to the audit event
+ * repository. If created with a buffer size then events are queued in a ring
+ * buffer and written in batches by a separate thread, so the enforcing threads
+ * aren't slowed down by serialization and I/O. A batch is written as soon as
+ * it's full or the flush interval has passed. Events published while or after
+ * the publisher is destroyed are written by the publishing thread, to the JSON
+ * audit log once the binary audit log is closed.
+ */
 @Service
-public class EnforcerEventPublisher {
+public class EnforcerEventPublisher implements DisposableBean {
+  private static final Logger LOG = LoggerFactory.getLogger(EnforcerEventPublisher.class);
   private static final Logger AUDIT_LOG = LoggerFactory.getLogger("AUDIT_LOG");
-  
+  private static final long MIN_FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
   private final AuditEventRepository eventRepository;
   private final ObjectMapper objectMapper;
+  private final BinaryAuditLogWriter binaryAuditLog;
+  private final RingBuffer<AuditEvent> buffer;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+  private final OverflowPolicy overflowPolicy;
+  private final Counter droppedCounter;
+  private final Thread writer;
+  private final Object writeLock = new Object();
+  private volatile boolean running = true;
+  // Guarded by the write lock
+  private long written;
+  private boolean closed;
 
+  /**
+   * Creates a publisher which writes the events synchronously.
+   */
   public EnforcerEventPublisher(AuditEventRepository eventRepository, ObjectMapper objectMapper) {
+    this(eventRepository, objectMapper, null, 0, 0, Duration.ZERO, null, null);
+  }
+
+  @Autowired
+  public EnforcerEventPublisher(AuditEventRepository eventRepository, ObjectMapper objectMapper,
+      EnforcerConfig config, MeterRegistry meterRegistry) throws IOException {
+    this(eventRepository, objectMapper,
+        StringUtils.hasText(config.getAuditLogFile())
+            ? new BinaryAuditLogWriter(Paths.get(config.getAuditLogFile()), config.getAuditLogMaxFileSize().toBytes())
+            : null,
+        config.getAuditBufferSize(), config.getAuditBatchSize(),
+        config.getAuditFlushInterval(), config.getAuditOverflowPolicy(), meterRegistry);
+  }
+
+  /**
+   * @param binaryAuditLog replaces the JSON audit log if not <code>null</code>
+   */
+  public EnforcerEventPublisher(AuditEventRepository eventRepository, ObjectMapper objectMapper,
+      BinaryAuditLogWriter binaryAuditLog, int bufferSize, int batchSize, Duration flushInterval,
+      OverflowPolicy overflowPolicy, MeterRegistry meterRegistry) {
     this.eventRepository = eventRepository;
     this.objectMapper = objectMapper;
+    this.binaryAuditLog = binaryAuditLog;
+    if (bufferSize > 0) {
+      this.buffer = new RingBuffer<>(bufferSize);
+      this.batchSize = Math.max(batchSize, 1);
+      // A zero or negative interval would let the writer thread spin
+      this.flushIntervalNanos = Math.max(flushInterval != null ? flushInterval.toNanos() : 0,
+          MIN_FLUSH_INTERVAL_NANOS);
+      this.overflowPolicy = overflowPolicy;
+      this.droppedCounter = Counter.builder("enforcer.audit.dropped")
+          .description("Audit events dropped because the buffer was full").register(meterRegistry);
+      Gauge.builder("enforcer.audit.buffered", buffer, RingBuffer::size)
+          .description("Audit events waiting to be written").register(meterRegistry);
+      this.writer = new Thread(this::writeBatches, "enforcer-audit");
+      this.writer.setDaemon(true);
+      this.writer.start();
+    } else {
+      this.buffer = null;
+      this.batchSize = 0;
+      this.flushIntervalNanos = 0;
+      this.overflowPolicy = null;
+      this.droppedCounter = null;
+      this.writer = null;
+    }
   }
 
   public void publishEvent(AuditEvent event) {
+    if (buffer == null || !running) {
+      write(event);
+    } else if (buffer.offer(event) || handleOverflow(event)) {
+      if (!running) {
+        // The event may have been missed by the final drain of the buffer
+        drain(new ArrayList<>(), this::write);
+      } else if (buffer.size() >= batchSize) {
+        LockSupport.unpark(writer);
+      }
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the given event was added to the buffer.
+   */
+  private boolean handleOverflow(AuditEvent event) {
+    switch (overflowPolicy) {
+    case BLOCK:
+      while (!buffer.offer(event)) {
+        if (!running) {
+          write(event);
+          return false;
+        }
+        LockSupport.unpark(writer);
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+      return true;
+    case DROP:
+      droppedCounter.increment();
+      LOG.debug("Audit event buffer full - dropping event: {}", event);
+      return false;
+    default:
+      write(event);
+      return false;
+    }
+  }
+
+  /**
+   * Waits until all events buffered so far are written.
+   */
+  public void flush() {
+    if (buffer != null) {
+      long offered = buffer.offered();
+      LockSupport.unpark(writer);
+      synchronized (writeLock) {
+        while (written < offered && writer.isAlive()) {
+          try {
+            writeLock.wait(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the writer thread, writes the remaining events and closes the binary
+   * audit log.
+   */
+  @Override
+  public void destroy() throws InterruptedException, IOException {
+    if (writer != null) {
+      running = false;
+      LockSupport.unpark(writer);
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+      drain(new ArrayList<>(), this::write);
+    }
+    if (binaryAuditLog != null) {
+      synchronized (writeLock) {
+        closed = true;
+        binaryAuditLog.close();
+      }
+    }
+  }
+
+  private void writeBatches() {
+    StringWriter json = new StringWriter();
+    JsonGenerator generator;
+    try {
+      generator = objectMapper.getFactory().createGenerator(json);
+      generator.setRootValueSeparator(null);
+    } catch (IOException e) {
+      LOG.error("Creating JSON generator for audit events failed", e);
+      return;
+    }
+    List<AuditEvent> batch = new ArrayList<>(batchSize);
+    while (true) {
+      boolean stopping = !running;
+      drain(batch, event -> {
+        if (binaryAuditLog != null && !closed) {
+          writeBinary(event);
+        } else {
+          write(event, generator, json);
+        }
+      });
+      if (stopping) {
+        return;
+      }
+      LockSupport.parkNanos(flushIntervalNanos);
+    }
+  }
+
+  /**
+   * Writes the buffered events in batches with the given action. The writer
+   * thread and the threads writing the events left at shutdown take turns via
+   * the write lock.
+   */
+  private void drain(List<AuditEvent> batch, Consumer<AuditEvent> action) {
+    synchronized (writeLock) {
+      int count;
+      while ((count = buffer.drainTo(batch, batchSize)) > 0) {
+        batch.forEach(action);
+        batch.clear();
+        written += count;
+      }
+      flushBinary();
+      writeLock.notifyAll();
+    }
+  }
+
+  /**
+   * Serializes the given event with the writer thread's generator. The
+   * generator's buffer is reused for all events.
+   */
+  private void write(AuditEvent event, JsonGenerator generator, StringWriter json) {
+    try {
+      objectMapper.writeValue(generator, event);
+      generator.flush();
+      AUDIT_LOG.trace(json.toString());
+    } catch (IOException e) {
+      AUDIT_LOG.error("Error serializing audit event: {}", event, e);
+    } finally {
+      json.getBuffer().setLength(0);
+    }
+    addToRepository(event);
+  }
+
+  private void write(AuditEvent event) {
+    if (binaryAuditLog != null) {
+      synchronized (writeLock) {
+        if (!closed) {
+          writeBinary(event);
+          flushBinary();
+          return;
+        }
+      }
+    }
     try {
       AUDIT_LOG.trace(objectMapper.writeValueAsString(event));
     } catch (JsonProcessingException e) {
       AUDIT_LOG.error("Error serializing audit event: {}", event, e);
     }
+    addToRepository(event);
+  }
+
+  private void writeBinary(AuditEvent event) {
+    try {
+      binaryAuditLog.write(event);
+    } catch (IOException e) {
+      LOG.error("Error writing audit event to binary audit log: {}", event, e);
+    }
+    addToRepository(event);
+  }
+
+  private void flushBinary() {
+    if (binaryAuditLog != null && !closed) {
+      try {
+        binaryAuditLog.flush();
+      } catch (IOException e) {
+        LOG.error("Error flushing binary audit log", e);
+      }
+    }
+  }
+
+  private void addToRepository(AuditEvent event) {
     if (eventRepository != null) {
       eventRepository.add(event);
     }
   }
-}
\ No newline at end of file
+
+  public enum OverflowPolicy {
+    /** The publishing thread waits until the buffer has space */
+    BLOCK,
+    /** The event is discarded (counted by metric "enforcer.audit.dropped") */
+    DROP,
+    /** The event is written by the publishing thread, bypassing the buffer */
+    SPILL
+  }
+}
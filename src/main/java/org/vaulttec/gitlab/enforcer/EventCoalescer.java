@@ -0,0 +1,221 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+
+/**
+ * Collapses events for the same GitLab object (identified by event name and
+ * id) to a single enforcement.
+ * <ul>
+ * <li>Events arriving while the object is in flight are not processed
+ * concurrently. Instead the in-flight enforcement is repeated once with the
+ * latest hook event after it has finished, so changes made meanwhile are not
+ * lost. Duplicates from scheduled sweeps are dropped.</li>
+ * <li>Hook events arriving within the configured window after the last
+ * enforcement of the object has finished are deferred until the window has
+ * passed. Multiple deferred events are collapsed to the latest one. Duplicates
+ * from scheduled sweeps are dropped and explicit commands are never
+ * deferred.</li>
+ * </ul>
+ */
+class EventCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EventCoalescer.class);
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final long windowNanos;
+  private final Executor deferredExecutor;
+  private final AtomicLong lastPurgeNanos = new AtomicLong(System.nanoTime());
+
+  EventCoalescer(Duration window, Executor deferredExecutor) {
+    this.windowNanos = window != null ? window.toNanos() : 0;
+    this.deferredExecutor = deferredExecutor;
+  }
+
+  /**
+   * Calls the given handler for the event unless it's collapsed with an
+   * in-flight or a recent event for the same object. Deferred events are
+   * handled via the deferred executor.
+   *
+   * @return <code>true</code> if the handler was called immediately for the
+   *         given event
+   */
+  boolean process(EnforcerExecution execution, SystemEvent event,
+      BiConsumer<EnforcerExecution, SystemEvent> handler) {
+    String key = getKey(event);
+    if (key == null) {
+      handler.accept(execution, event);
+      return true;
+    }
+    long now = System.nanoTime();
+    Entry entry = new Entry();
+    boolean[] deferred = new boolean[1];
+    Entry current = entries.compute(key, (k, existing) -> {
+      if (existing == null || isExpired(existing, execution, now)) {
+        return entry;
+      }
+      if (execution != EnforcerExecution.SCHEDULED) {
+        // A finished entry without pending event has no deferred run yet
+        deferred[0] = !existing.inFlight && existing.pending == null;
+        existing.pending = new Pending(execution, event);
+      }
+      return existing;
+    });
+    if (current != entry) {
+      if (deferred[0]) {
+        LOG.debug("Deferred {} after recent enforcement of same object", event);
+        defer(key, current, handler, windowNanos - (now - current.finishedNanos));
+      } else {
+        LOG.debug("Collapsed {} with {} enforcement of same object", event, current.inFlight ? "in-flight" : "recent");
+      }
+      return false;
+    }
+    handle(key, new Pending(execution, event), handler);
+    purgeExpired(now);
+    return true;
+  }
+
+  /**
+   * Handles the pending event of the given finished entry after the given
+   * delay. Nothing is done if the entry was replaced meanwhile, e.g. by a
+   * command or by an event arriving after the window.
+   */
+  private void defer(String key, Entry entry, BiConsumer<EnforcerExecution, SystemEvent> handler, long delayNanos) {
+    Executor executor = CompletableFuture.delayedExecutor(Math.max(delayNanos, 0), TimeUnit.NANOSECONDS, task -> {
+      try {
+        deferredExecutor.execute(task);
+      } catch (TaskRejectedException e) {
+        LOG.warn("Queue full - dropping deferred {}", entry.pending != null ? entry.pending.event : key);
+        takePending(key, entry, false);
+      }
+    });
+    executor.execute(() -> {
+      Pending next = takePending(key, entry, true);
+      if (next != null) {
+        try {
+          handle(key, next, handler);
+        } catch (RuntimeException e) {
+          LOG.error("Enforcing deferred {} failed", next.event, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Removes the pending event from the given finished entry unless the entry
+   * was replaced meanwhile. If the pending event is handled then the entry is
+   * marked as in-flight again.
+   */
+  private Pending takePending(String key, Entry entry, boolean handle) {
+    Pending[] next = new Pending[1];
+    entries.computeIfPresent(key, (k, existing) -> {
+      if (existing == entry && !existing.inFlight) {
+        next[0] = existing.pending;
+        existing.pending = null;
+        existing.inFlight = handle && next[0] != null;
+      }
+      return existing;
+    });
+    return next[0];
+  }
+
+  private void handle(String key, Pending first, BiConsumer<EnforcerExecution, SystemEvent> handler) {
+    Pending next = first;
+    while (next != null) {
+      boolean failed = true;
+      try {
+        handler.accept(next.execution, next.event);
+        failed = false;
+      } finally {
+        next = complete(key, failed);
+      }
+    }
+  }
+
+  /**
+   * Returns the pending event to be processed next or marks the object's entry
+   * as finished. A failed enforcement discards the pending event.
+   */
+  private Pending complete(String key, boolean failed) {
+    Pending[] next = new Pending[1];
+    entries.computeIfPresent(key, (k, existing) -> {
+      next[0] = failed ? null : existing.pending;
+      existing.pending = null;
+      if (next[0] == null) {
+        existing.inFlight = false;
+        existing.finishedNanos = System.nanoTime();
+      }
+      return existing;
+    });
+    return next[0];
+  }
+
+  private boolean isExpired(Entry entry, EnforcerExecution execution, long now) {
+    return !entry.inFlight && (execution == EnforcerExecution.COMMAND || now - entry.finishedNanos >= windowNanos);
+  }
+
+  /**
+   * Removes finished entries outside of the window - at most once per window to
+   * keep the overhead low during sweeps.
+   */
+  private void purgeExpired(long now) {
+    long last = lastPurgeNanos.get();
+    if (now - last < windowNanos || !lastPurgeNanos.compareAndSet(last, now)) {
+      return;
+    }
+    entries.values()
+        .removeIf(entry -> !entry.inFlight && entry.pending == null && now - entry.finishedNanos >= windowNanos);
+  }
+
+  private static String getKey(SystemEvent event) {
+    if (event.getId() == null || event.getEventName() == null) {
+      return null;
+    }
+    return event.getEventName() + ":" + event.getId();
+  }
+
+  private static class Entry {
+    // Modified within the map's compute() on the entry's key only
+    private volatile boolean inFlight = true;
+    private volatile long finishedNanos;
+    private volatile Pending pending;
+  }
+
+  private static class Pending {
+    private final EnforcerExecution execution;
+    private final SystemEvent event;
+
+    private Pending(EnforcerExecution execution, SystemEvent event) {
+      this.execution = execution;
+      this.event = event;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for multiple producers and a single consumer.
+ * Producers claim a slot by advancing the tail via CAS and publish the element
+ * into the slot afterwards. The consumer stops at the first slot which is
+ * claimed but not yet published.
+ */
+class RingBuffer<E> {
+
+  private final AtomicReferenceArray<E> slots;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * @param capacity rounded up to the next power of two
+   */
+  RingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  int capacity() {
+    return slots.length();
+  }
+
+  int size() {
+    return (int) Math.max(tail.get() - head.get(), 0);
+  }
+
+  /**
+   * Returns the number of elements added so far. The elements are drained in
+   * this order.
+   */
+  long offered() {
+    return tail.get();
+  }
+
+  /**
+   * Adds the given element if the buffer isn't full. The element is published
+   * with a volatile write, so a following volatile read by the producer can't
+   * be reordered before it.
+   */
+  boolean offer(E element) {
+    while (true) {
+      long current = tail.get();
+      if (current - head.get() >= slots.length()) {
+        return false;
+      }
+      if (tail.compareAndSet(current, current + 1)) {
+        slots.set((int) current & mask, element);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Moves up to the given number of published elements into the given list.
+   * Must not be called concurrently.
+   */
+  int drainTo(List<E> elements, int maxElements) {
+    long current = head.get();
+    int count = 0;
+    while (count < maxElements) {
+      int index = (int) current & mask;
+      E element = slots.get(index);
+      if (element == null) {
+        break;
+      }
+      // Clear the slot before releasing it to the producers
+      slots.lazySet(index, null);
+      head.lazySet(++current);
+      elements.add(element);
+      count++;
+    }
+    return count;
+  }
+}
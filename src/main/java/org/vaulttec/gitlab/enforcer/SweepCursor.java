@@ -0,0 +1,127 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Progress of a sweep which is persisted periodically, so an interrupted sweep
+ * resumes with the phase and entity where it stopped. The entities of a phase
+ * are submitted in ascending ID order but completed in any order, therefore the
+ * cursor is the low watermark: all entities up to this ID are done.
+ */
+class SweepCursor {
+
+  /**
+   * The phases of a sweep. A group tree sweep tracks the top-level groups whose
+   * projects are done instead of the projects themselves.
+   */
+  enum Phase {
+    GROUPS, PROJECTS, GROUP_PROJECTS
+  }
+
+  private final Instant sweepStart;
+  private final Instant lastActivityAfter;
+  private final NavigableSet<Long> inFlight = new ConcurrentSkipListSet<>();
+  private volatile Phase phase;
+  private volatile long lastSubmitted;
+
+  SweepCursor(Instant sweepStart, Instant lastActivityAfter) {
+    this(sweepStart, lastActivityAfter, Phase.GROUPS, 0);
+  }
+
+  private SweepCursor(Instant sweepStart, Instant lastActivityAfter, Phase phase, long idAfter) {
+    this.sweepStart = sweepStart;
+    this.lastActivityAfter = lastActivityAfter;
+    this.phase = phase;
+    this.lastSubmitted = idAfter;
+  }
+
+  Instant getSweepStart() {
+    return sweepStart;
+  }
+
+  Instant getLastActivityAfter() {
+    return lastActivityAfter;
+  }
+
+  Phase getPhase() {
+    return phase;
+  }
+
+  /**
+   * Returns the ID all entities of the current phase up to which are done, or
+   * <code>null</code> if the phase has to start from the beginning.
+   */
+  Long getIdAfter() {
+    // Read the last submitted ID first - all smaller IDs not in flight anymore
+    // are completed
+    long idAfter = lastSubmitted;
+    Long first = inFlight.isEmpty() ? null : inFlight.first();
+    if (first != null) {
+      idAfter = Math.min(idAfter, first - 1);
+    }
+    return idAfter > 0 ? idAfter : null;
+  }
+
+  void startPhase(Phase phase) {
+    inFlight.clear();
+    this.lastSubmitted = 0;
+    this.phase = phase;
+  }
+
+  void submitted(String id) {
+    long value = Long.parseLong(id);
+    inFlight.add(value);
+    lastSubmitted = value;
+  }
+
+  void completed(String id) {
+    inFlight.remove(Long.parseLong(id));
+  }
+
+  /**
+   * Returns the cursor stored as
+   * <code>"&lt;phase&gt; &lt;idAfter&gt; &lt;sweepStart&gt; &lt;lastActivityAfter&gt;"</code>
+   * or <code>null</code> if the given value is missing or invalid.
+   */
+  static SweepCursor parse(String value) {
+    if (value != null) {
+      String[] parts = value.split(" ");
+      if (parts.length == 4) {
+        try {
+          return new SweepCursor(Instant.parse(parts[2]), "-".equals(parts[3]) ? null : Instant.parse(parts[3]),
+              Phase.valueOf(parts[0]), Long.parseLong(parts[1]));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+          // Ignore invalid value
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    Long idAfter = getIdAfter();
+    return phase + " " + (idAfter != null ? idAfter : 0) + " " + sweepStart + " "
+        + (lastActivityAfter != null ? lastActivityAfter : "-");
+  }
+}
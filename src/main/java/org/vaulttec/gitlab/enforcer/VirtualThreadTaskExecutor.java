@@ -0,0 +1,194 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Runs every task on a new virtual thread (Java 21+). The number of tasks
+ * running concurrently is limited by the given permits (shared by multiple
+ * executors to limit the concurrent GitLab API calls) and the number of tasks
+ * waiting for a permit by the given queue capacity. If the queue is full then
+ * the caller either waits (and runs the task itself after shutdown) or the
+ * task is rejected with a {@link TaskRejectedException} - like the
+ * corresponding {@link org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor}.
+ * On shutdown the executor waits for the tasks to complete.
+ */
+public class VirtualThreadTaskExecutor implements TaskExecutor, DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadTaskExecutor.class);
+
+  private final ThreadFactory threadFactory;
+  private final Semaphore permits;
+  private final Semaphore queue;
+  private final boolean blockWhenFull;
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final Object termination = new Object();
+  private int running;
+  private volatile boolean shutdown;
+
+  /**
+   * @throws IllegalStateException if virtual threads are not supported by the
+   *                               JVM
+   */
+  public VirtualThreadTaskExecutor(String threadNamePrefix, Semaphore permits, int queueCapacity,
+      boolean blockWhenFull) {
+    this(createVirtualThreadFactory(threadNamePrefix), permits, queueCapacity, blockWhenFull);
+  }
+
+  VirtualThreadTaskExecutor(ThreadFactory threadFactory, Semaphore permits, int queueCapacity,
+      boolean blockWhenFull) {
+    this.threadFactory = threadFactory;
+    this.permits = permits;
+    this.queue = new Semaphore(queueCapacity);
+    this.blockWhenFull = blockWhenFull;
+  }
+
+  /**
+   * Returns <code>true</code> if the JVM supports virtual threads.
+   */
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Creates the factory via reflection, so the enforcer still runs on Java 17.
+   */
+  private static ThreadFactory createVirtualThreadFactory(String threadNamePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+      Method factory = builderClass.getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Virtual threads not supported by Java " + Runtime.version(), e);
+    }
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    if (shutdown) {
+      reject(task);
+      return;
+    }
+    if (blockWhenFull) {
+      try {
+        queue.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new TaskRejectedException("Interrupted while waiting to execute " + task, e);
+      }
+    } else if (!queue.tryAcquire()) {
+      throw new TaskRejectedException("Queue full - rejecting " + task);
+    }
+    queued.incrementAndGet();
+    synchronized (termination) {
+      running++;
+    }
+    try {
+      threadFactory.newThread(() -> run(task)).start();
+    } catch (RuntimeException e) {
+      queued.decrementAndGet();
+      queue.release();
+      completed();
+      throw new TaskRejectedException("Failed to start thread for " + task, e);
+    }
+  }
+
+  private void run(Runnable task) {
+    boolean acquired = false;
+    try {
+      permits.acquire();
+      acquired = true;
+      queued.decrementAndGet();
+      queue.release();
+      active.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        active.decrementAndGet();
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting to execute {}", task);
+      queued.decrementAndGet();
+      queue.release();
+    } finally {
+      if (acquired) {
+        permits.release();
+      }
+      completed();
+    }
+  }
+
+  private void reject(Runnable task) {
+    if (blockWhenFull) {
+      // Otherwise a running sweep would wait forever
+      task.run();
+    } else {
+      throw new TaskRejectedException("Executor shut down - rejecting " + task);
+    }
+  }
+
+  private void completed() {
+    synchronized (termination) {
+      if (--running == 0) {
+        termination.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tasks currently running.
+   */
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  /**
+   * Returns the number of tasks waiting for a permit.
+   */
+  public int getQueueSize() {
+    return queued.get();
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    shutdown = true;
+    synchronized (termination) {
+      while (running > 0) {
+        termination.wait();
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Reads audit events written by {@link BinaryAuditLogWriter} one by one. An
+ * incomplete record at the end of the stream (e.g. a file which is still
+ * written) is ignored.
+ * <p>
+ * The {@link #main(String[])} method converts the given files into JSON lines
+ * written to standard output.
+ */
+public class BinaryAuditLogReader implements Closeable {
+
+  private static final int NANOS_PER_SECOND = 1_000_000_000;
+
+  private final DataInputStream in;
+  private final List<String> dictionary = new ArrayList<>();
+  private long lastTimestamp;
+
+  public BinaryAuditLogReader(InputStream in) throws IOException {
+    this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+    byte[] magic = new byte[BinaryAuditLogWriter.MAGIC.length];
+    this.in.readFully(magic);
+    int version = this.in.read();
+    if (!Arrays.equals(magic, BinaryAuditLogWriter.MAGIC) || version != BinaryAuditLogWriter.VERSION) {
+      throw new IOException("Unsupported audit log format");
+    }
+  }
+
+  /**
+   * Returns the next event or <code>null</code> at the end of the stream.
+   */
+  public AuditEvent read() throws IOException {
+    try {
+      while (true) {
+        int type = in.read();
+        if (type < 0) {
+          return null;
+        }
+        byte[] payload = new byte[(int) readVarLong(in)];
+        in.readFully(payload);
+        if (type == BinaryAuditLogWriter.DICTIONARY_ENTRY) {
+          dictionary.add(new String(payload, StandardCharsets.UTF_8));
+        } else if (type == BinaryAuditLogWriter.EVENT) {
+          return decodeEvent(new DataInputStream(new ByteArrayInputStream(payload)));
+        } else {
+          throw new IOException("Unknown audit log record type " + type);
+        }
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private AuditEvent decodeEvent(DataInputStream payload) throws IOException {
+    long delta = readVarLong(payload);
+    long timestamp = lastTimestamp + ((delta >>> 1) ^ -(delta & 1));
+    lastTimestamp = timestamp;
+    String principal = lookup(payload);
+    String type = lookup(payload);
+    int count = (int) readVarLong(payload);
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      String key = lookup(payload);
+      int valueType = payload.read();
+      if (valueType == BinaryAuditLogWriter.DICTIONARY_VALUE) {
+        data.put(key, lookup(payload));
+      } else if (valueType == BinaryAuditLogWriter.LITERAL_VALUE) {
+        byte[] bytes = new byte[(int) readVarLong(payload)];
+        payload.readFully(bytes);
+        data.put(key, new String(bytes, StandardCharsets.UTF_8));
+      } else {
+        data.put(key, null);
+      }
+    }
+    Instant instant = Instant.ofEpochSecond(Math.floorDiv(timestamp, NANOS_PER_SECOND),
+        Math.floorMod(timestamp, NANOS_PER_SECOND));
+    return new AuditEvent(instant, principal, type, data);
+  }
+
+  private String lookup(DataInputStream payload) throws IOException {
+    int id = (int) readVarLong(payload);
+    if (id >= dictionary.size()) {
+      throw new IOException("Unknown audit log dictionary entry " + id);
+    }
+    return dictionary.get(id);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid variable-length number in audit log");
+  }
+
+  /**
+   * Writes the events of the given stream as JSON lines in the format of the
+   * JSON audit log.
+   */
+  public static long toJsonLines(InputStream in, Writer out, ObjectMapper objectMapper) throws IOException {
+    long count = 0;
+    try (BinaryAuditLogReader reader = new BinaryAuditLogReader(in)) {
+      AuditEvent event;
+      while ((event = reader.read()) != null) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timestamp", event.getTimestamp().toString());
+        json.put("principal", event.getPrincipal());
+        json.put("type", event.getType());
+        json.put("data", event.getData());
+        out.write(objectMapper.writeValueAsString(json));
+        out.write('\n');
+        count++;
+      }
+    }
+    out.flush();
+    return count;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: BinaryAuditLogReader <file>...");
+      System.exit(1);
+    }
+    ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.INDENT_OUTPUT);
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    for (String file : args) {
+      toJsonLines(Files.newInputStream(Paths.get(file)), out, objectMapper);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+/**
+ * Writes audit events in a compact binary format. Every record is prefixed
+ * with its type and length. Principals, types, data keys and the values of
+ * {@link #DICTIONARY_KEYS} are replaced by the ID of a dictionary entry which
+ * is written the first time the string is used. Timestamps are stored as the
+ * difference to the previous event. Each file starts with an empty dictionary,
+ * so the files can be read independently. An existing file and files
+ * exceeding the given size are renamed by appending the current time.
+ *
+ * @see BinaryAuditLogReader
+ */
+public class BinaryAuditLogWriter implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BinaryAuditLogWriter.class);
+
+  static final byte[] MAGIC = { 'G', 'L', 'E', 'A' };
+  static final int VERSION = 1;
+  static final int DICTIONARY_ENTRY = 1;
+  static final int EVENT = 2;
+  static final int NULL_VALUE = 0;
+  static final int DICTIONARY_VALUE = 1;
+  static final int LITERAL_VALUE = 2;
+
+  static final Set<String> DICTIONARY_KEYS = Set.of("rule", "execution");
+
+  private final Path file;
+  private final long maxFileSize;
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+  private OutputStream out;
+  private long size;
+  private long lastTimestamp;
+
+  public BinaryAuditLogWriter(Path file, long maxFileSize) throws IOException {
+    this.file = file;
+    this.maxFileSize = maxFileSize;
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    open();
+  }
+
+  public synchronized void write(AuditEvent event) throws IOException {
+    if (size >= maxFileSize) {
+      out.close();
+      open();
+    }
+    long timestamp = ChronoUnit.NANOS.between(Instant.EPOCH, event.getTimestamp());
+    // Dictionary entries are written while the event record is encoded
+    ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+    writeVarLong(payload, zigZag(timestamp - lastTimestamp));
+    writeVarLong(payload, lookup(event.getPrincipal()));
+    writeVarLong(payload, lookup(event.getType()));
+    writeVarLong(payload, event.getData().size());
+    for (Map.Entry<String, Object> entry : event.getData().entrySet()) {
+      writeVarLong(payload, lookup(entry.getKey()));
+      Object value = entry.getValue();
+      if (value == null) {
+        payload.write(NULL_VALUE);
+      } else if (DICTIONARY_KEYS.contains(entry.getKey())) {
+        payload.write(DICTIONARY_VALUE);
+        writeVarLong(payload, lookup(value.toString()));
+      } else {
+        payload.write(LITERAL_VALUE);
+        writeString(payload, value.toString());
+      }
+    }
+    writeRecord(EVENT, payload.toByteArray());
+    lastTimestamp = timestamp;
+  }
+
+  public synchronized void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  private void open() throws IOException {
+    if (Files.exists(file) && Files.size(file) > 0) {
+      String prefix = file.getFileName() + "." + System.currentTimeMillis();
+      Path rolledFile = file.resolveSibling(prefix);
+      for (int i = 1; Files.exists(rolledFile); i++) {
+        rolledFile = file.resolveSibling(prefix + "-" + i);
+      }
+      Files.move(file, rolledFile);
+      LOG.info("Rolled audit log '{}' to '{}'", file, rolledFile);
+    }
+    out = new BufferedOutputStream(Files.newOutputStream(file));
+    out.write(MAGIC);
+    out.write(VERSION);
+    size = MAGIC.length + 1;
+    dictionary.clear();
+    lastTimestamp = 0;
+  }
+
+  private int lookup(String value) throws IOException {
+    Integer id = dictionary.get(value);
+    if (id == null) {
+      id = dictionary.size();
+      dictionary.put(value, id);
+      writeRecord(DICTIONARY_ENTRY, value.getBytes(StandardCharsets.UTF_8));
+    }
+    return id;
+  }
+
+  private void writeRecord(int type, byte[] payload) throws IOException {
+    record.reset();
+    record.write(type);
+    writeVarLong(record, payload.length);
+    record.write(payload);
+    record.writeTo(out);
+    size += record.size();
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+}
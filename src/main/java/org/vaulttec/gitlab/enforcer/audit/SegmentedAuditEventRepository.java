@@ -0,0 +1,428 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Audit event repository which appends the events as JSON lines to segment
+ * files of limited size. Each segment is divided into blocks of
+ * {@value #BLOCK_SIZE} events. For every block only the offset, the latest
+ * timestamp and the set of types, principals and rules is kept in memory, so
+ * queries skip blocks without matching events and the events themselves are
+ * never held in memory. Segments are read via memory mapping. The block index
+ * of a completed segment is written to an index file next to it. Segments
+ * older than the retention period are deleted on startup, when a new segment
+ * is started and when events are added (at most once per
+ * {@link #RETENTION_CHECK_INTERVAL}), except for the active segment. Queries
+ * return the latest matching events up to the given maximum.
+ */
+public class SegmentedAuditEventRepository implements AuditEventRepository, DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentedAuditEventRepository.class);
+
+  static final String SEGMENT_SUFFIX = ".segment";
+  static final String INDEX_SUFFIX = ".index";
+  static final int BLOCK_SIZE = 128;
+  static final Duration RETENTION_CHECK_INTERVAL = Duration.ofMinutes(1);
+
+  private static final TypeReference<Map<String, Object>> DATA_TYPE = new TypeReference<>() {
+  };
+
+  private final Path directory;
+  private final long maxSegmentSize;
+  private final Duration retention;
+  private final ObjectMapper objectMapper;
+  private final ObjectWriter objectWriter;
+  private final int maxResults;
+  private final long retentionCheckNanos;
+  private final List<Segment> segments = new ArrayList<>();
+  private OutputStream out;
+  private long lastRetentionCheck;
+
+  /**
+   * @param maxResults maximum number of events returned by a query (0 =
+   *                   unlimited)
+   */
+  public SegmentedAuditEventRepository(Path directory, long maxSegmentSize, Duration retention, int maxResults,
+      ObjectMapper objectMapper) {
+    this.directory = directory;
+    this.maxResults = maxResults;
+    this.maxSegmentSize = maxSegmentSize;
+    this.retention = retention;
+    this.retentionCheckNanos = Math.min(retention.toNanos(), RETENTION_CHECK_INTERVAL.toNanos());
+    this.objectMapper = objectMapper;
+    this.objectWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    try {
+      Files.createDirectories(directory);
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+            .collect(Collectors.toList())) {
+          segments.add(loadSegment(file));
+        }
+      }
+      deleteExpiredSegments();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Opening audit directory '" + directory + "' failed", e);
+    }
+    LOG.info("Loaded {} audit event segments from '{}'", segments.size(), directory);
+  }
+
+  @Override
+  public synchronized void add(AuditEvent event) {
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put("timestamp", event.getTimestamp().toString());
+    record.put("principal", event.getPrincipal());
+    record.put("type", event.getType());
+    record.put("data", event.getData());
+    try {
+      byte[] line = objectWriter.writeValueAsBytes(record);
+      if (System.nanoTime() - lastRetentionCheck >= retentionCheckNanos) {
+        deleteExpiredSegments();
+      }
+      Segment segment = getActiveSegment();
+      out.write(line);
+      out.write('\n');
+      segment.append(event.getTimestamp().toEpochMilli(), getKeys(event), line.length + 1);
+    } catch (IOException e) {
+      LOG.error("Writing audit event to '{}' failed: {}", directory, event, e);
+    }
+  }
+
+  @Override
+  public List<AuditEvent> find(String principal, Instant after, String type) {
+    return find(principal, after, type, null);
+  }
+
+  /**
+   * Returns the latest events (at most the given maximum) matching the given
+   * criteria (each optional) in the order they were added. The matching blocks
+   * are determined while holding the lock, but they're read without blocking
+   * the writers.
+   */
+  public List<AuditEvent> find(String principal, Instant after, String type, String rule) {
+    Set<String> keys = new HashSet<>();
+    if (principal != null) {
+      keys.add(principalKey(principal));
+    }
+    if (type != null) {
+      keys.add(typeKey(type));
+    }
+    if (rule != null) {
+      keys.add(ruleKey(rule));
+    }
+    long afterMillis = after != null ? after.toEpochMilli() : Long.MIN_VALUE;
+    Deque<AuditEvent> events = new ArrayDeque<>();
+    for (SegmentRange range : getMatchingRanges(keys, afterMillis)) {
+      try (FileChannel channel = FileChannel.open(range.file, StandardOpenOption.READ)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, range.size);
+        for (long[] block : range.blocks) {
+          byte[] bytes = new byte[(int) (block[1] - block[0])];
+          buffer.get((int) block[0], bytes);
+          forEachLine(bytes, bytes.length, (offset, length) -> {
+            AuditEvent event = decode(bytes, offset, length);
+            if (event != null && isMatch(event, principal, after, type, rule)) {
+              events.addLast(event);
+              if (maxResults > 0 && events.size() > maxResults) {
+                events.removeFirst();
+              }
+            }
+          });
+        }
+      } catch (NoSuchFileException e) {
+        LOG.debug("Skipping audit event segment '{}' deleted meanwhile", range.file);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Reading audit events from '" + directory + "' failed", e);
+      }
+    }
+    return new ArrayList<>(events);
+  }
+
+  /**
+   * Returns the offsets of the blocks which may contain matching events.
+   */
+  private synchronized List<SegmentRange> getMatchingRanges(Set<String> keys, long afterMillis) {
+    List<SegmentRange> ranges = new ArrayList<>();
+    try {
+      if (out != null) {
+        out.flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Writing audit events to '" + directory + "' failed", e);
+    }
+    for (Segment segment : segments) {
+      if (segment.size == 0 || segment.getMaxTime() < afterMillis) {
+        continue;
+      }
+      SegmentRange range = new SegmentRange(segment.file, segment.size);
+      for (int i = 0; i < segment.blocks.size(); i++) {
+        Block block = segment.blocks.get(i);
+        if (block.maxTime >= afterMillis && block.keys.containsAll(keys)) {
+          long end = i + 1 < segment.blocks.size() ? segment.blocks.get(i + 1).offset : segment.size;
+          range.blocks.add(new long[] { block.offset, end });
+        }
+      }
+      if (!range.blocks.isEmpty()) {
+        ranges.add(range);
+      }
+    }
+    return ranges;
+  }
+
+  @Override
+  public synchronized void destroy() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+      saveIndex(segments.get(segments.size() - 1));
+    }
+  }
+
+  private Segment getActiveSegment() throws IOException {
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (segment != null && segment.size < maxSegmentSize) {
+      if (out == null) {
+        out = new BufferedOutputStream(Files.newOutputStream(segment.file, StandardOpenOption.APPEND));
+      }
+      return segment;
+    }
+    if (out != null) {
+      out.close();
+      out = null;
+      saveIndex(segment);
+    }
+    deleteExpiredSegments();
+    long sequence = segment != null ? getSequence(segment.file) + 1 : 1;
+    segment = new Segment(directory.resolve(String.format("audit-%010d%s", sequence, SEGMENT_SUFFIX)));
+    segments.add(segment);
+    out = new BufferedOutputStream(Files.newOutputStream(segment.file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE));
+    return segment;
+  }
+
+  /**
+   * Deletes the segments with expired events only. The active segment (if
+   * open) is kept.
+   */
+  private void deleteExpiredSegments() throws IOException {
+    lastRetentionCheck = System.nanoTime();
+    long expiryTime = Instant.now().minus(retention).toEpochMilli();
+    int keep = out != null ? 1 : 0;
+    while (segments.size() > keep && segments.get(0).getMaxTime() < expiryTime) {
+      Segment segment = segments.remove(0);
+      Files.deleteIfExists(segment.file);
+      Files.deleteIfExists(getIndexFile(segment.file));
+      LOG.info("Deleted expired audit event segment '{}'", segment.file);
+    }
+  }
+
+  /**
+   * Loads the block index of the given segment from its index file. The
+   * index is rebuilt if it's missing or outdated, e.g. for the segment which
+   * was written when the enforcer stopped. An incomplete last line is removed.
+   */
+  private Segment loadSegment(Path file) throws IOException {
+    Path indexFile = getIndexFile(file);
+    long size = Files.size(file);
+    if (Files.exists(indexFile)) {
+      Segment segment = objectMapper.readValue(indexFile.toFile(), Segment.class);
+      if (segment.size == size) {
+        segment.file = file;
+        return segment;
+      }
+    }
+    Segment segment = new Segment(file);
+    byte[] bytes = Files.readAllBytes(file);
+    long validSize = forEachLine(bytes, bytes.length, (offset, length) -> {
+      AuditEvent event = decode(bytes, offset, length);
+      if (event != null) {
+        segment.append(event.getTimestamp().toEpochMilli(), getKeys(event), length + 1);
+      } else {
+        segment.size += length + 1;
+      }
+    });
+    if (validSize < bytes.length) {
+      LOG.warn("Discarding incomplete audit event at the end of '{}'", file);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        channel.truncate(validSize);
+      }
+    }
+    return segment;
+  }
+
+  private void saveIndex(Segment segment) throws IOException {
+    objectMapper.writeValue(getIndexFile(segment.file).toFile(), segment);
+  }
+
+  private AuditEvent decode(byte[] bytes, int offset, int length) {
+    try {
+      JsonNode node = objectMapper.readTree(bytes, offset, length);
+      return new AuditEvent(Instant.parse(node.path("timestamp").asText()), node.path("principal").asText(),
+          node.path("type").asText(), objectMapper.convertValue(node.path("data"), DATA_TYPE));
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Skipping invalid audit event in '{}'", directory, e);
+    }
+    return null;
+  }
+
+  private static boolean isMatch(AuditEvent event, String principal, Instant after, String type, String rule) {
+    return (principal == null || principal.equals(event.getPrincipal()))
+        && (after == null || event.getTimestamp().isAfter(after))
+        && (type == null || type.equals(event.getType()))
+        && (rule == null || rule.equals(String.valueOf(event.getData().get("rule"))));
+  }
+
+  private static Set<String> getKeys(AuditEvent event) {
+    Set<String> keys = new HashSet<>();
+    keys.add(principalKey(event.getPrincipal()));
+    keys.add(typeKey(event.getType()));
+    Object rule = event.getData().get("rule");
+    if (rule != null) {
+      keys.add(ruleKey(rule.toString()));
+    }
+    return keys;
+  }
+
+  private static String principalKey(String principal) {
+    return "principal=" + principal;
+  }
+
+  private static String typeKey(String type) {
+    return "type=" + type;
+  }
+
+  private static String ruleKey(String rule) {
+    return "rule=" + rule;
+  }
+
+  /**
+   * Calls the given consumer for every complete line and returns the number
+   * of bytes consumed.
+   */
+  private static long forEachLine(byte[] bytes, int length, LineConsumer consumer) {
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] == '\n') {
+        consumer.accept(start, i - start);
+        start = i + 1;
+      }
+    }
+    return start;
+  }
+
+  private static Path getIndexFile(Path segmentFile) {
+    String name = segmentFile.getFileName().toString();
+    return segmentFile.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+  }
+
+  private static long getSequence(Path segmentFile) {
+    String name = segmentFile.getFileName().toString();
+    return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Snapshot of the blocks of a segment to be read by a query.
+   */
+  private static class SegmentRange {
+    private final Path file;
+    private final long size;
+    private final List<long[]> blocks = new ArrayList<>();
+
+    private SegmentRange(Path file, long size) {
+      this.file = file;
+      this.size = size;
+    }
+  }
+
+  @FunctionalInterface
+  private interface LineConsumer {
+    void accept(int offset, int length);
+  }
+
+  static class Segment {
+    @JsonIgnore
+    Path file;
+    public long size;
+    public List<Block> blocks = new ArrayList<>();
+
+    Segment() {
+    }
+
+    Segment(Path file) {
+      this.file = file;
+    }
+
+    void append(long time, Set<String> keys, int length) {
+      Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+      if (block == null || block.count == BLOCK_SIZE) {
+        block = new Block();
+        block.offset = size;
+        blocks.add(block);
+      }
+      block.count++;
+      block.maxTime = Math.max(block.maxTime, time);
+      block.keys.addAll(keys);
+      size += length;
+    }
+
+    long getMaxTime() {
+      return blocks.stream().mapToLong(block -> block.maxTime).max().orElse(Long.MIN_VALUE);
+    }
+  }
+
+  static class Block {
+    public long offset;
+    public long maxTime = Long.MIN_VALUE;
+    public int count;
+    public Set<String> keys = new HashSet<>();
+  }
+}
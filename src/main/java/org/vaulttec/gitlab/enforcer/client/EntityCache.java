@@ -0,0 +1,167 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Short-lived cache of GitLab entities retrieved by {@link GitLabClient} while
+ * the cache is bound to the current thread via {@link #run(Runnable)}. Each
+ * project, protected branch list and push rules object is retrieved at most
+ * once, even if requested by multiple threads sharing the same cache. Failed
+ * requests (<code>null</code>) are not cached, so the next request retries
+ * them. Entities are evicted when they're modified via the client.
+ */
+public class EntityCache {
+
+  static final String PROJECT = "project";
+  static final String PROTECTED_BRANCHES = "protectedBranches";
+  static final String PUSH_RULES = "pushRules";
+
+  private static final ThreadLocal<EntityCache> CURRENT = new ThreadLocal<>();
+
+  // Entities being retrieved are represented by an incomplete future
+  private final Map<String, CompletableFuture<Object>> entities = new ConcurrentHashMap<>();
+
+  public void putProject(Project project) {
+    if (project != null && project.getId() != null) {
+      entities.put(getKey(PROJECT, project.getId()), CompletableFuture.completedFuture(project));
+    }
+  }
+
+  /**
+   * Runs the given action with this cache bound to the current thread.
+   */
+  public void run(Runnable action) {
+    EntityCache previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      action.run();
+    } finally {
+      if (previous != null) {
+        CURRENT.set(previous);
+      } else {
+        CURRENT.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the cache bound to the current thread or <code>null</code>.
+   */
+  static EntityCache current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns the entity cached by the current cache or retrieves it via the
+   * given loader (if no cache is active). Counts cache hits and misses.
+   */
+  static <T> T cached(String type, String id, Supplier<T> loader, Counter hits, Counter misses) {
+    EntityCache cache = current();
+    if (cache == null) {
+      return loader.get();
+    }
+    boolean[] loaded = new boolean[1];
+    T entity = cache.get(type, id, () -> {
+      loaded[0] = true;
+      return loader.get();
+    });
+    (loaded[0] ? misses : hits).increment();
+    return entity;
+  }
+
+  /**
+   * Evicts the given modified entity from the current cache (if any).
+   */
+  static void evictCached(String type, String id) {
+    EntityCache cache = current();
+    if (cache != null) {
+      cache.evict(type, id);
+    }
+  }
+
+  static Counter createHitCounter(MeterRegistry meterRegistry) {
+    return Counter.builder("gitlab.entity.cache").tag("result", "hit")
+        .description("GitLab entities served from the entity cache").register(meterRegistry);
+  }
+
+  static Counter createMissCounter(MeterRegistry meterRegistry) {
+    return Counter.builder("gitlab.entity.cache").tag("result", "miss")
+        .description("GitLab entities retrieved while an entity cache was active").register(meterRegistry);
+  }
+
+  /**
+   * Returns the cached entity or retrieves it via the given loader. The loader
+   * is called outside of the map, so retrieving different entities concurrently
+   * never blocks each other. Threads requesting an entity currently retrieved
+   * wait for it - if the retrieval fails then they retry it themselves.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T get(String type, String id, Supplier<T> loader) {
+    String key = getKey(type, id);
+    while (true) {
+      CompletableFuture<Object> future = new CompletableFuture<>();
+      CompletableFuture<Object> existing = entities.putIfAbsent(key, future);
+      if (existing == null) {
+        return load(key, future, loader);
+      }
+      try {
+        Object entity = existing.join();
+        if (entity != null) {
+          return (T) entity;
+        }
+      } catch (CompletionException e) {
+        // Retry the failed retrieval
+      }
+      entities.remove(key, existing);
+    }
+  }
+
+  private <T> T load(String key, CompletableFuture<Object> future, Supplier<T> loader) {
+    try {
+      T entity = loader.get();
+      if (entity == null) {
+        entities.remove(key, future);
+      }
+      future.complete(entity);
+      return entity;
+    } catch (RuntimeException e) {
+      entities.remove(key, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  void evict(String type, String id) {
+    entities.remove(getKey(type, id));
+  }
+
+  private static String getKey(String type, String id) {
+    return type + ":" + id;
+  }
+}
@@ -17,266 +17,87 @@
  */
 package org.vaulttec.gitlab.enforcer.client;
 
-import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.time.Instant;
 import java.util.List;
-import java.util.Map;
+import java.util.stream.Stream;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
-import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestClientException;
 import org.vaulttec.gitlab.enforcer.client.model.Branch;
 import org.vaulttec.gitlab.enforcer.client.model.Group;
 import org.vaulttec.gitlab.enforcer.client.model.Namespace;
 import org.vaulttec.gitlab.enforcer.client.model.Project;
 import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
 import org.vaulttec.gitlab.enforcer.client.model.PushRules;
-import org.vaulttec.http.client.AbstractRestClient;
-import org.vaulttec.http.client.LinkHeader;
 
-@Service
-public class GitLabClient extends AbstractRestClient {
+/**
+ * Blocking access to the GitLab API used by the enforcer and the rules. Failed
+ * API calls return <code>null</code> or <code>false</code>, and failed streams
+ * throw a {@link org.springframework.web.client.RestClientException} from their
+ * terminal operation. Projects, protected branches and push rules are cached by
+ * the current {@link EntityCache} (if any).
+ */
+public interface GitLabClient {
 
-  private static final Logger LOG = LoggerFactory.getLogger(GitLabClient.class);
+  List<Group> getGroups(String search);
 
-  protected static final ParameterizedTypeReference<Group> RESPONSE_TYPE_GROUP = new ParameterizedTypeReference<Group>() {
-  };
-  protected static final ParameterizedTypeReference<List<Group>> RESPONSE_TYPE_GROUPS = new ParameterizedTypeReference<List<Group>>() {
-  };
-  protected static final ParameterizedTypeReference<List<Project>> RESPONSE_TYPE_PROJECTS = new ParameterizedTypeReference<List<Project>>() {
-  };
-  protected static final ParameterizedTypeReference<Project> RESPONSE_TYPE_PROJECT = new ParameterizedTypeReference<Project>() {
-  };
-  protected static final ParameterizedTypeReference<List<Branch>> RESPONSE_TYPE_BRANCHES = new ParameterizedTypeReference<List<Branch>>() {
-  };
-  protected static final ParameterizedTypeReference<ProtectedBranch> RESPONSE_TYPE_PROTECTED_BRANCH = new ParameterizedTypeReference<ProtectedBranch>() {
-  };
-  protected static final ParameterizedTypeReference<List<ProtectedBranch>> RESPONSE_TYPE_PROTECTED_BRANCHES = new ParameterizedTypeReference<List<ProtectedBranch>>() {
-  };
-  protected static final ParameterizedTypeReference<List<Namespace>> RESPONSE_TYPE_NAMESPACES = new ParameterizedTypeReference<List<Namespace>>() {
-  };
-  protected static final ParameterizedTypeReference<PushRules> RESPONSE_TYPE_PUSH_RULES = new ParameterizedTypeReference<PushRules>() {
-  };
+  /**
+   * Streams the groups ordered by ID, optionally only the groups with an ID
+   * greater than the given one.
+   */
+  Stream<Group> streamGroups(String search, Long idAfter);
 
-  GitLabClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder) {
-    super(config, restTemplateBuilder);
-    prepareAuthenticationEntity("PRIVATE-TOKEN", config.getPersonalAccessToken());
-  }
+  /**
+   * Streams the top-level groups ordered by ID, optionally only the groups with
+   * an ID greater than the given one.
+   */
+  Stream<Group> streamTopLevelGroups(Long idAfter);
 
-  public List<Group> getGroups(String search) {
-    LOG.debug("Retrieving groups: search={}", search);
-    String apiCall = "/groups";
-    Map<String, String> uriVariables = createUriVariables();
-    if (StringUtils.hasText(search)) {
-      apiCall += "?search={search}";
-      uriVariables.put("search", search);
-    }
-    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
-  }
+  Group updateGroup(String groupId, String... settings);
 
-  public Group updateGroup(String groupId, String... settings) {
-    if (!StringUtils.hasText(groupId)) {
-      throw new IllegalStateException("GitLab group ID required");
-    }
-    if (settings.length % 2 != 0) {
-      throw new IllegalStateException("Key-value required - uneven number of settings");
-    }
-    String apiCall = "/groups/{groupId}";
-    Map<String, String> uriVariables = new HashMap<>();
-    for (int i = 0; i < settings.length; i += 2) {
-      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
-      uriVariables.put(settings[i], settings[i + 1]);
-    }
-    LOG.debug("Updating group '{}': {}", groupId, uriVariables);
-    uriVariables.put("groupId", groupId);
-    return makeReadApiCall(apiCall, HttpMethod.PUT, RESPONSE_TYPE_GROUP, uriVariables);
-  }
+  List<Project> getProjects(String search);
 
-  public List<Project> getProjects(String search) {
-    LOG.debug("Retrieving projects: search={}", search);
-    String apiCall = "/projects";
-    Map<String, String> uriVariables = createUriVariables();
-    if (StringUtils.hasText(search)) {
-      apiCall += "?search={search}";
-      uriVariables.put("search", search);
-    }
-    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+  default Stream<Project> streamProjects(String search) {
+    return streamProjects(search, null);
   }
 
-  public Project getProject(String projectId) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    LOG.debug("Retrieve project '{}'", projectId);
-    String apiCall = "/projects/{projectId}";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
-    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECT, uriVariables);
+  default Stream<Project> streamProjects(String search, Instant lastActivityAfter) {
+    return streamProjects(search, lastActivityAfter, null);
   }
 
-  public List<Project> getProjectsForGroup(String groupId, String search) {
-    if (!StringUtils.hasText(groupId)) {
-      throw new IllegalStateException("GitLab group ID required");
-    }
-    LOG.debug("Retrieving projects for group '{}': search={}", groupId, search);
-    String apiCall = "/groups/{groupId}/projects";
-    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
-    if (StringUtils.hasText(search)) {
-      apiCall += "?search={search}";
-      uriVariables.put("search", search);
-    }
-    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
-  }
+  /**
+   * Streams the projects ordered by ID, optionally limited to the projects with
+   * activity after the given time and with an ID greater than the given one.
+   */
+  Stream<Project> streamProjects(String search, Instant lastActivityAfter, Long idAfter);
 
-  public List<Branch> getBranchesForProject(String projectId, String search) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    LOG.debug("Retrieving branches for project '{}': search={}", projectId, search);
-    String apiCall = "/projects/{projectId}/repository/branches";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
-    if (StringUtils.hasText(search)) {
-      apiCall += "?search={search}";
-      uriVariables.put("search", search);
-    }
-    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_BRANCHES, uriVariables);
-  }
+  Project getProject(String projectId);
 
-  public ProtectedBranch getProtectedBranchForProject(String projectId, String name) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    LOG.debug("Retrieving protected branches for project '{}'", projectId);
-    String apiCall = "/projects/{projectId}/protected_branches/{name}";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
-    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROTECTED_BRANCH, uriVariables);
-  }
+  List<Project> getProjectsForGroup(String groupId, String search);
 
-  public List<ProtectedBranch> getProtectedBranchesForProject(String projectId) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    LOG.debug("Retrieving protected branches for project '{}'", projectId);
-    String apiCall = "/projects/{projectId}/protected_branches";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
-    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROTECTED_BRANCHES, uriVariables);
-  }
+  /**
+   * Streams the projects of the given group and all its subgroups (without the
+   * projects shared with them) ordered by ID, optionally limited to the projects
+   * with activity after the given time. GitLab provides no activity filter for
+   * the projects of a group, so all projects are retrieved and the inactive
+   * ones are skipped locally.
+   */
+  Stream<Project> streamProjectsForGroupTree(String groupId, Instant lastActivityAfter);
 
-  public ProtectedBranch protectBranchForProject(String projectId, String name, String... settings) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    if (!StringUtils.hasText(name)) {
-      throw new IllegalStateException("Branch name required");
-    }
-    if (settings.length % 2 != 0) {
-      throw new IllegalStateException("Key-value required - uneven number of settings");
-    }
-    LOG.debug("Protecting branch '{}' for project '{}'", name, projectId);
-    String apiCall = "/projects/{projectId}/protected_branches?name={name}";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
-    for (int i = 0; i < settings.length; i += 2) {
-      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
-      uriVariables.put(settings[i], settings[i + 1]);
-    }
-    return makeReadApiCall(apiCall, HttpMethod.POST, RESPONSE_TYPE_PROTECTED_BRANCH, uriVariables);
-  }
+  List<Branch> getBranchesForProject(String projectId, String search);
 
-  public boolean unprotectBranchForProject(String projectId, String name) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    if (!StringUtils.hasText(name)) {
-      throw new IllegalStateException("Branch name required");
-    }
-    LOG.debug("Unprotecting branch '{}' for project '{}'", name, projectId);
-    String apiCall = "/projects/{projectId}/protected_branches/{name}";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
-    return makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
-  }
+  ProtectedBranch getProtectedBranchForProject(String projectId, String name);
 
-  public boolean unshareWithGroup(String projectId, String groupId) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    if (!StringUtils.hasText(groupId)) {
-      throw new IllegalStateException("GitLab group ID required");
-    }
-    LOG.debug("Unsharing project '{}' with group '{}'", projectId, groupId);
-    String apiCall = "/projects/{projectId}/share/{groupId}";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "groupId", groupId);
-    return makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
-  }
+  List<ProtectedBranch> getProtectedBranchesForProject(String projectId);
 
-  @Override
-  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method,
-      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables) {
-    String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
-    uriVariables.put("perPage", perPageAsString());
-    try {
-      List<T> entities;
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
-      LinkHeader linkHeader = LinkHeader.parse(response.getHeaders());
-      if (linkHeader == null || !linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
-        entities = response.getBody();
-      } else {
-        entities = new ArrayList<>(response.getBody());
-        do {
-          URI nextResourceUri = linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
-          response = restTemplate.exchange(nextResourceUri, method, authenticationEntity, typeReference);
-          entities.addAll(response.getBody());
-          linkHeader = LinkHeader.parse(response.getHeaders());
-        } while (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT));
-      }
-      return entities;
-    } catch (RestClientException e) {
-      LOG.error("API call {} '{}' {} failed", method.name(), url, uriVariables, e);
-    }
-    return null;
-  }
+  ProtectedBranch protectBranchForProject(String projectId, String name, String... settings);
 
-  public List<Namespace> getNamespaces(String search) {
-    LOG.debug("Retrieving namespaces: search={}", search);
-    String apiCall = "/namespaces";
-    Map<String, String> uriVariables = createUriVariables();
-    if (StringUtils.hasText(search)) {
-      apiCall += "?search={search}";
-      uriVariables.put("search", search);
-    }
-    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_NAMESPACES, uriVariables);
-  }
+  boolean unprotectBranchForProject(String projectId, String name);
 
-  public PushRules getPushRules(String projectId) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    LOG.debug("Retrieving push rules for project '{}'", projectId);
-    String apiCall = "/projects/{projectId}/push_rule";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
-    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PUSH_RULES, uriVariables);
-  }
+  boolean unshareWithGroup(String projectId, String groupId);
 
-  public PushRules writePushRules(HttpMethod method, String projectId, String... settings) {
-    if (!StringUtils.hasText(projectId)) {
-      throw new IllegalStateException("GitLab project ID required");
-    }
-    if (settings.length % 2 != 0) {
-      throw new IllegalStateException("Key-value required - uneven number of settings");
-    }
-    LOG.debug("Updating push rules for project '{}'", projectId);
-    String apiCall = "/projects/{projectId}/push_rule?";
-    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
-    for (int i = 0; i < settings.length; i += 2) {
-      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
-      uriVariables.put(settings[i], settings[i + 1]);
-    }
-    return makeReadApiCall(apiCall, method, RESPONSE_TYPE_PUSH_RULES, uriVariables);
-  }
+  List<Namespace> getNamespaces(String search);
+
+  PushRules getPushRules(String projectId);
+
+  PushRules writePushRules(HttpMethod method, String projectId, String... settings);
 }
@@ -19,6 +19,7 @@ package org.vaulttec.gitlab.enforcer.client;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.time.Duration;
 
 import javax.annotation.PostConstruct;
 import javax.validation.constraints.Max;
@@ -26,10 +27,14 @@ import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.vaulttec.http.client.RestClientConfig;
+import org.vaulttec.http.client.Transport;
 
 @Configuration
 @ConfigurationProperties(prefix = "gitlab")
@@ -42,6 +47,29 @@ public class GitLabClientConfig implements RestClientConfig {
   private int perPage = 100;
   @NotEmpty
   private String personalAccessToken;
+  @Min(0)
+  private int prefetchPages = 2;
+  private boolean keysetPagination = true;
+  private Transport transport = Transport.POOLED;
+  @Min(1)
+  private int maxConnections = 20;
+  @Min(1)
+  private int maxConnectionsPerRoute = 20;
+  private Duration keepAlive = Duration.ofSeconds(30);
+  @Min(0)
+  private double requestsPerSecond;
+  @Min(1)
+  private int maxConcurrentRequests = 20;
+  @Min(0)
+  private int rateLimitRetries = 3;
+  @Min(0)
+  private int maxRetries = 3;
+  private Duration retryBackoff = Duration.ofMillis(500);
+  private Duration maxRetryBackoff = Duration.ofSeconds(10);
+  private DataSize responseCacheSize = DataSize.ofBytes(0);
+  private String responseCacheSpillDirectory;
+  private DataSize responseCacheSpillSize = DataSize.ofMegabytes(100);
+  private boolean reactive;
 
   GitLabClientConfig(Environment env) {
     this.env = env;
@@ -78,6 +106,144 @@ public class GitLabClientConfig implements RestClientConfig {
     this.personalAccessToken = personalAccessToken;
   }
 
+  public int getPrefetchPages() {
+    return prefetchPages;
+  }
+
+  public void setPrefetchPages(int prefetchPages) {
+    this.prefetchPages = prefetchPages;
+  }
+
+  public boolean isKeysetPagination() {
+    return keysetPagination;
+  }
+
+  public void setKeysetPagination(boolean keysetPagination) {
+    this.keysetPagination = keysetPagination;
+  }
+
+  @Override
+  public Transport getTransport() {
+    return transport;
+  }
+
+  public void setTransport(Transport transport) {
+    this.transport = transport;
+  }
+
+  @Override
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  @Override
+  public int getMaxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+  }
+
+  @Override
+  public Duration getKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(Duration keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  @Override
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  public void setRequestsPerSecond(double requestsPerSecond) {
+    this.requestsPerSecond = requestsPerSecond;
+  }
+
+  @Override
+  public int getMaxConcurrentRequests() {
+    return maxConcurrentRequests;
+  }
+
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  @Override
+  public int getRateLimitRetries() {
+    return rateLimitRetries;
+  }
+
+  public void setRateLimitRetries(int rateLimitRetries) {
+    this.rateLimitRetries = rateLimitRetries;
+  }
+
+  @Override
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  @Override
+  public Duration getRetryBackoff() {
+    return retryBackoff;
+  }
+
+  public void setRetryBackoff(Duration retryBackoff) {
+    this.retryBackoff = retryBackoff;
+  }
+
+  @Override
+  public Duration getMaxRetryBackoff() {
+    return maxRetryBackoff;
+  }
+
+  public void setMaxRetryBackoff(Duration maxRetryBackoff) {
+    this.maxRetryBackoff = maxRetryBackoff;
+  }
+
+  public DataSize getResponseCacheSize() {
+    return responseCacheSize;
+  }
+
+  public void setResponseCacheSize(DataSize responseCacheSize) {
+    this.responseCacheSize = responseCacheSize;
+  }
+
+  public String getResponseCacheSpillDirectory() {
+    return responseCacheSpillDirectory;
+  }
+
+  public void setResponseCacheSpillDirectory(String responseCacheSpillDirectory) {
+    this.responseCacheSpillDirectory = responseCacheSpillDirectory;
+  }
+
+  public DataSize getResponseCacheSpillSize() {
+    return responseCacheSpillSize;
+  }
+
+  public void setResponseCacheSpillSize(DataSize responseCacheSpillSize) {
+    this.responseCacheSpillSize = responseCacheSpillSize;
+  }
+
+  public boolean isReactive() {
+    return reactive;
+  }
+
+  public void setReactive(boolean reactive) {
+    this.reactive = reactive;
+  }
+
   @Override
   public Proxy getProxy() {
     if (StringUtils.hasText(env.getProperty("proxy.host"))) {
@@ -93,4 +259,14 @@ public class GitLabClientConfig implements RestClientConfig {
       throw new IllegalStateException("If proxyHost is defined then proxyPort is required");
     }
   }
+
+  @Bean
+  public ThreadPoolTaskExecutor pagePrefetchTaskExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setThreadNamePrefix("gitlab-prefetch-");
+    executor.setCorePoolSize(Math.max(getPrefetchPages(), 1));
+    executor.setMaxPoolSize(Math.max(getPrefetchPages(), 1));
+    executor.setAllowCoreThreadTimeOut(true);
+    return executor;
+  }
 }
@@ -0,0 +1,327 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.enforcer.client.model.Branch;
+import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
+import org.vaulttec.gitlab.enforcer.client.model.PushRules;
+import org.vaulttec.http.client.AbstractReactiveRestClient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variant of the {@link GitLabClient}. Lists are returned as a
+ * lazy {@link Flux} of the entities of all pages and single objects as
+ * {@link Mono}. The rules use this client via the
+ * {@link ReactiveGitLabClientAdapter}.
+ */
+@Service
+@ConditionalOnProperty(prefix = "gitlab", name = "reactive", havingValue = "true")
+public class ReactiveGitLabClient extends AbstractReactiveRestClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReactiveGitLabClient.class);
+
+  protected static final ParameterizedTypeReference<Group> RESPONSE_TYPE_GROUP = new ParameterizedTypeReference<Group>() {
+  };
+  protected static final ParameterizedTypeReference<List<Group>> RESPONSE_TYPE_GROUPS = new ParameterizedTypeReference<List<Group>>() {
+  };
+  protected static final ParameterizedTypeReference<List<Project>> RESPONSE_TYPE_PROJECTS = new ParameterizedTypeReference<List<Project>>() {
+  };
+  protected static final ParameterizedTypeReference<Project> RESPONSE_TYPE_PROJECT = new ParameterizedTypeReference<Project>() {
+  };
+  protected static final ParameterizedTypeReference<List<Branch>> RESPONSE_TYPE_BRANCHES = new ParameterizedTypeReference<List<Branch>>() {
+  };
+  protected static final ParameterizedTypeReference<ProtectedBranch> RESPONSE_TYPE_PROTECTED_BRANCH = new ParameterizedTypeReference<ProtectedBranch>() {
+  };
+  protected static final ParameterizedTypeReference<List<ProtectedBranch>> RESPONSE_TYPE_PROTECTED_BRANCHES = new ParameterizedTypeReference<List<ProtectedBranch>>() {
+  };
+  protected static final ParameterizedTypeReference<List<Namespace>> RESPONSE_TYPE_NAMESPACES = new ParameterizedTypeReference<List<Namespace>>() {
+  };
+  protected static final ParameterizedTypeReference<PushRules> RESPONSE_TYPE_PUSH_RULES = new ParameterizedTypeReference<PushRules>() {
+  };
+
+  private final boolean keysetPagination;
+
+  ReactiveGitLabClient(GitLabClientConfig config, WebClient.Builder webClientBuilder, MeterRegistry meterRegistry) {
+    super(config, webClientBuilder, config.getPrefetchPages(), meterRegistry, "gitlab");
+    this.keysetPagination = config.isKeysetPagination();
+    prepareAuthenticationHeader("PRIVATE-TOKEN", config.getPersonalAccessToken());
+  }
+
+  public Flux<Group> getGroups(String search) {
+    LOG.debug("Retrieving groups: search={}", search);
+    String apiCall = "/groups";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
+  }
+
+  /**
+   * Returns the groups ordered by ID. GitLab provides no filter for groups by
+   * ID, so the groups up to the given ID (if any) are skipped locally.
+   */
+  public Flux<Group> getGroups(String search, Long idAfter) {
+    LOG.debug("Retrieving groups: search={}, idAfter={}", search, idAfter);
+    String apiCall = "/groups?order_by=id&sort=asc";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "&search={search}";
+      uriVariables.put("search", search);
+    }
+    Flux<Group> groups = makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
+    return idAfter != null ? groups.filter(group -> Long.parseLong(group.getId()) > idAfter) : groups;
+  }
+
+  /**
+   * Returns the top-level groups ordered by ID, optionally only the groups with
+   * an ID greater than the given one (skipped locally).
+   */
+  public Flux<Group> getTopLevelGroups(Long idAfter) {
+    LOG.debug("Retrieving top-level groups: idAfter={}", idAfter);
+    String apiCall = "/groups?top_level_only=true&order_by=id&sort=asc";
+    Flux<Group> groups = makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, createUriVariables());
+    return idAfter != null ? groups.filter(group -> Long.parseLong(group.getId()) > idAfter) : groups;
+  }
+
+  public Mono<Group> updateGroup(String groupId, String... settings) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    String apiCall = "/groups/{groupId}";
+    Map<String, String> uriVariables = new HashMap<>();
+    for (int i = 0; i < settings.length; i += 2) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
+      uriVariables.put(settings[i], settings[i + 1]);
+    }
+    LOG.debug("Updating group '{}': {}", groupId, uriVariables);
+    uriVariables.put("groupId", groupId);
+    return makeReadApiCall(apiCall, HttpMethod.PUT, RESPONSE_TYPE_GROUP, uriVariables);
+  }
+
+  /**
+   * Returns the projects ordered by ID, optionally limited to the projects with
+   * activity after the given time and with an ID greater than the given one.
+   */
+  public Flux<Project> getProjects(String search, Instant lastActivityAfter, Long idAfter) {
+    LOG.debug("Retrieving projects: search={}, lastActivityAfter={}, idAfter={}", search, lastActivityAfter,
+        idAfter);
+    String apiCall = "/projects";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    if (lastActivityAfter != null) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "last_activity_after={lastActivityAfter}";
+      uriVariables.put("lastActivityAfter", lastActivityAfter.toString());
+    }
+    if (idAfter != null) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "id_after={idAfter}";
+      uriVariables.put("idAfter", idAfter.toString());
+    }
+    if (keysetPagination) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "pagination=keyset&order_by=id&sort=asc";
+    } else {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "order_by=id&sort=asc";
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+  }
+
+  public Mono<Project> getProject(String projectId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieve project '{}'", projectId);
+    String apiCall = "/projects/{projectId}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECT, uriVariables);
+  }
+
+  public Flux<Project> getProjectsForGroup(String groupId, String search) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Retrieving projects for group '{}': search={}", groupId, search);
+    String apiCall = "/groups/{groupId}/projects";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+  }
+
+  /**
+   * Returns the projects of the given group and all its subgroups (without the
+   * projects shared with them) ordered by ID, optionally limited to the projects
+   * with activity after the given time (skipped locally).
+   */
+  public Flux<Project> getProjectsForGroupTree(String groupId, Instant lastActivityAfter) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Retrieving projects for group tree '{}': lastActivityAfter={}", groupId, lastActivityAfter);
+    String apiCall = "/groups/{groupId}/projects?include_subgroups=true&with_shared=false&order_by=id&sort=asc";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    Flux<Project> projects = makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+    return lastActivityAfter != null ? projects.filter(project -> project.getLastActivityAt() == null
+        || project.getLastActivityAt().isAfter(lastActivityAfter)) : projects;
+  }
+
+  public Flux<Branch> getBranchesForProject(String projectId, String search) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving branches for project '{}': search={}", projectId, search);
+    String apiCall = "/projects/{projectId}/repository/branches";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_BRANCHES, uriVariables);
+  }
+
+  public Mono<ProtectedBranch> getProtectedBranchForProject(String projectId, String name) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving protected branches for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/protected_branches/{name}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROTECTED_BRANCH, uriVariables);
+  }
+
+  public Flux<ProtectedBranch> getProtectedBranchesForProject(String projectId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving protected branches for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/protected_branches";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROTECTED_BRANCHES, uriVariables);
+  }
+
+  public Mono<ProtectedBranch> protectBranchForProject(String projectId, String name, String... settings) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (!StringUtils.hasText(name)) {
+      throw new IllegalStateException("Branch name required");
+    }
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    LOG.debug("Protecting branch '{}' for project '{}'", name, projectId);
+    String apiCall = "/projects/{projectId}/protected_branches?name={name}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
+    for (int i = 0; i < settings.length; i += 2) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
+      uriVariables.put(settings[i], settings[i + 1]);
+    }
+    return makeReadApiCall(apiCall, HttpMethod.POST, RESPONSE_TYPE_PROTECTED_BRANCH, uriVariables);
+  }
+
+  public Mono<Void> unprotectBranchForProject(String projectId, String name) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (!StringUtils.hasText(name)) {
+      throw new IllegalStateException("Branch name required");
+    }
+    LOG.debug("Unprotecting branch '{}' for project '{}'", name, projectId);
+    String apiCall = "/projects/{projectId}/protected_branches/{name}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
+    return makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
+  }
+
+  public Mono<Void> unshareWithGroup(String projectId, String groupId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Unsharing project '{}' with group '{}'", projectId, groupId);
+    String apiCall = "/projects/{projectId}/share/{groupId}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "groupId", groupId);
+    return makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
+  }
+
+  public Flux<Namespace> getNamespaces(String search) {
+    LOG.debug("Retrieving namespaces: search={}", search);
+    String apiCall = "/namespaces";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_NAMESPACES, uriVariables);
+  }
+
+  public Mono<PushRules> getPushRules(String projectId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving push rules for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/push_rule";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PUSH_RULES, uriVariables);
+  }
+
+  public Mono<PushRules> writePushRules(HttpMethod method, String projectId, String... settings) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    LOG.debug("Updating push rules for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/push_rule";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    for (int i = 0; i < settings.length; i += 2) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
+      uriVariables.put(settings[i], settings[i + 1]);
+    }
+    return makeReadApiCall(apiCall, method, RESPONSE_TYPE_PUSH_RULES, uriVariables);
+  }
+}
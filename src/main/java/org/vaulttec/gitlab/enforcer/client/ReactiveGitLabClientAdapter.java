@@ -0,0 +1,211 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.vaulttec.gitlab.enforcer.client.model.Branch;
+import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
+import org.vaulttec.gitlab.enforcer.client.model.PushRules;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Provides the {@link ReactiveGitLabClient} to the rules and the enforcer via
+ * the blocking {@link GitLabClient} API. Like the {@link RestGitLabClient}
+ * failed API calls return <code>null</code> or <code>false</code> and failed
+ * streams throw a {@link RestClientException} from their terminal operation.
+ * The entities are cached by the current {@link EntityCache} (if any).
+ * <p>
+ * Must not be called from a non-blocking thread, e.g. within a reactive
+ * pipeline.
+ */
+@Service
+@ConditionalOnProperty(prefix = "gitlab", name = "reactive", havingValue = "true")
+public class ReactiveGitLabClientAdapter implements GitLabClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReactiveGitLabClientAdapter.class);
+
+  private final GitLabClientConfig config;
+  private final ReactiveGitLabClient client;
+  private final Counter entityCacheHits;
+  private final Counter entityCacheMisses;
+
+  ReactiveGitLabClientAdapter(GitLabClientConfig config, MeterRegistry meterRegistry, ReactiveGitLabClient client) {
+    this.config = config;
+    this.client = client;
+    this.entityCacheHits = EntityCache.createHitCounter(meterRegistry);
+    this.entityCacheMisses = EntityCache.createMissCounter(meterRegistry);
+    if (config.getRequestsPerSecond() > 0) {
+      LOG.warn("Throttling to {} requests per second not supported by the reactive GitLab client - ignored",
+          config.getRequestsPerSecond());
+    }
+    if (config.getResponseCacheSize().toBytes() > 0) {
+      LOG.warn("Response cache not supported by the reactive GitLab client - ignored");
+    }
+  }
+
+  public ReactiveGitLabClient getReactiveClient() {
+    return client;
+  }
+
+  @Override
+  public List<Group> getGroups(String search) {
+    return collect(client.getGroups(search));
+  }
+
+  @Override
+  public Stream<Group> streamGroups(String search, Long idAfter) {
+    return stream(client.getGroups(search, idAfter));
+  }
+
+  @Override
+  public Stream<Group> streamTopLevelGroups(Long idAfter) {
+    return stream(client.getTopLevelGroups(idAfter));
+  }
+
+  @Override
+  public Group updateGroup(String groupId, String... settings) {
+    return block(client.updateGroup(groupId, settings));
+  }
+
+  @Override
+  public List<Project> getProjects(String search) {
+    return collect(client.getProjects(search, null, null));
+  }
+
+  @Override
+  public Stream<Project> streamProjects(String search, Instant lastActivityAfter, Long idAfter) {
+    return stream(client.getProjects(search, lastActivityAfter, idAfter));
+  }
+
+  @Override
+  public Project getProject(String projectId) {
+    Mono<Project> project = client.getProject(projectId);
+    return cached(EntityCache.PROJECT, projectId, () -> block(project));
+  }
+
+  @Override
+  public List<Project> getProjectsForGroup(String groupId, String search) {
+    return collect(client.getProjectsForGroup(groupId, search));
+  }
+
+  @Override
+  public Stream<Project> streamProjectsForGroupTree(String groupId, Instant lastActivityAfter) {
+    return stream(client.getProjectsForGroupTree(groupId, lastActivityAfter));
+  }
+
+  @Override
+  public List<Branch> getBranchesForProject(String projectId, String search) {
+    return collect(client.getBranchesForProject(projectId, search));
+  }
+
+  @Override
+  public ProtectedBranch getProtectedBranchForProject(String projectId, String name) {
+    return block(client.getProtectedBranchForProject(projectId, name));
+  }
+
+  @Override
+  public List<ProtectedBranch> getProtectedBranchesForProject(String projectId) {
+    Flux<ProtectedBranch> branches = client.getProtectedBranchesForProject(projectId);
+    return cached(EntityCache.PROTECTED_BRANCHES, projectId, () -> collect(branches));
+  }
+
+  @Override
+  public ProtectedBranch protectBranchForProject(String projectId, String name, String... settings) {
+    ProtectedBranch branch = block(client.protectBranchForProject(projectId, name, settings));
+    EntityCache.evictCached(EntityCache.PROTECTED_BRANCHES, projectId);
+    return branch;
+  }
+
+  @Override
+  public boolean unprotectBranchForProject(String projectId, String name) {
+    boolean unprotected = succeeded(client.unprotectBranchForProject(projectId, name));
+    EntityCache.evictCached(EntityCache.PROTECTED_BRANCHES, projectId);
+    return unprotected;
+  }
+
+  @Override
+  public boolean unshareWithGroup(String projectId, String groupId) {
+    boolean unshared = succeeded(client.unshareWithGroup(projectId, groupId));
+    EntityCache.evictCached(EntityCache.PROJECT, projectId);
+    return unshared;
+  }
+
+  @Override
+  public List<Namespace> getNamespaces(String search) {
+    return collect(client.getNamespaces(search));
+  }
+
+  @Override
+  public PushRules getPushRules(String projectId) {
+    Mono<PushRules> pushRules = client.getPushRules(projectId);
+    return cached(EntityCache.PUSH_RULES, projectId, () -> block(pushRules));
+  }
+
+  @Override
+  public PushRules writePushRules(HttpMethod method, String projectId, String... settings) {
+    PushRules pushRules = block(client.writePushRules(method, projectId, settings));
+    EntityCache.evictCached(EntityCache.PUSH_RULES, projectId);
+    return pushRules;
+  }
+
+  private <T> T cached(String type, String id, Supplier<T> loader) {
+    return EntityCache.cached(type, id, loader, entityCacheHits, entityCacheMisses);
+  }
+
+  /**
+   * Returns the result or <code>null</code> if the API call failed (already
+   * logged by the reactive client).
+   */
+  private static <T> T block(Mono<T> mono) {
+    return mono.onErrorResume(e -> Mono.empty()).block();
+  }
+
+  private static <T> List<T> collect(Flux<T> flux) {
+    return block(flux.collectList());
+  }
+
+  private static boolean succeeded(Mono<Void> mono) {
+    return Boolean.TRUE.equals(block(mono.thenReturn(Boolean.TRUE)));
+  }
+
+  /**
+   * Returns a lazy stream which requests the next page when the entities of
+   * the current page are consumed.
+   */
+  private <T> Stream<T> stream(Flux<T> flux) {
+    return flux.onErrorMap(e -> !(e instanceof RestClientException), e -> new RestClientException(e.getMessage(), e))
+        .toStream(config.getPerPage());
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientException;
+import org.vaulttec.gitlab.enforcer.client.model.Branch;
+import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
+import org.vaulttec.gitlab.enforcer.client.model.PushRules;
+import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.ETagCacheInterceptor;
+import org.vaulttec.http.client.PageIterator;
+import org.vaulttec.http.client.RateLimitInterceptor;
+import org.vaulttec.http.client.RequestMetrics;
+import org.vaulttec.http.client.RetryHandler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Service
+@ConditionalOnProperty(prefix = "gitlab", name = "reactive", havingValue = "false", matchIfMissing = true)
+public class RestGitLabClient extends AbstractRestClient implements GitLabClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RestGitLabClient.class);
+
+  protected static final ParameterizedTypeReference<Group> RESPONSE_TYPE_GROUP = new ParameterizedTypeReference<Group>() {
+  };
+  protected static final ParameterizedTypeReference<List<Group>> RESPONSE_TYPE_GROUPS = new ParameterizedTypeReference<List<Group>>() {
+  };
+  protected static final ParameterizedTypeReference<List<Project>> RESPONSE_TYPE_PROJECTS = new ParameterizedTypeReference<List<Project>>() {
+  };
+  protected static final ParameterizedTypeReference<Project> RESPONSE_TYPE_PROJECT = new ParameterizedTypeReference<Project>() {
+  };
+  protected static final ParameterizedTypeReference<List<Branch>> RESPONSE_TYPE_BRANCHES = new ParameterizedTypeReference<List<Branch>>() {
+  };
+  protected static final ParameterizedTypeReference<ProtectedBranch> RESPONSE_TYPE_PROTECTED_BRANCH = new ParameterizedTypeReference<ProtectedBranch>() {
+  };
+  protected static final ParameterizedTypeReference<List<ProtectedBranch>> RESPONSE_TYPE_PROTECTED_BRANCHES = new ParameterizedTypeReference<List<ProtectedBranch>>() {
+  };
+  protected static final ParameterizedTypeReference<List<Namespace>> RESPONSE_TYPE_NAMESPACES = new ParameterizedTypeReference<List<Namespace>>() {
+  };
+  protected static final ParameterizedTypeReference<PushRules> RESPONSE_TYPE_PUSH_RULES = new ParameterizedTypeReference<PushRules>() {
+  };
+
+  private final TaskExecutor prefetchExecutor;
+  private final int prefetchPages;
+  private final boolean keysetPagination;
+  private final MeterRegistry meterRegistry;
+  private final Counter entityCacheHits;
+  private final Counter entityCacheMisses;
+
+  RestGitLabClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder,
+      @Qualifier("pagePrefetchTaskExecutor") TaskExecutor prefetchExecutor, MeterRegistry meterRegistry) {
+    super(config, restTemplateBuilder.additionalInterceptors(createInterceptors(config, meterRegistry)),
+        new RetryHandler(config.getMaxRetries(), config.getRateLimitRetries(), config.getRetryBackoff(),
+            config.getMaxRetryBackoff(), meterRegistry, "gitlab"),
+        new RequestMetrics(meterRegistry, "gitlab"));
+    this.meterRegistry = meterRegistry;
+    this.prefetchExecutor = prefetchExecutor;
+    this.prefetchPages = config.getPrefetchPages();
+    this.keysetPagination = config.isKeysetPagination();
+    this.entityCacheHits = EntityCache.createHitCounter(meterRegistry);
+    this.entityCacheMisses = EntityCache.createMissCounter(meterRegistry);
+    prepareAuthenticationEntity("PRIVATE-TOKEN", config.getPersonalAccessToken());
+  }
+
+  /**
+   * Creates the interceptors of all API requests - unchanged responses are
+   * revalidated via ETag before the request is subject to the rate limit.
+   */
+  private static List<ClientHttpRequestInterceptor> createInterceptors(GitLabClientConfig config,
+      MeterRegistry meterRegistry) {
+    List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>();
+    if (config.getResponseCacheSize().toBytes() > 0) {
+      Path spillDirectory = StringUtils.hasText(config.getResponseCacheSpillDirectory())
+          ? Paths.get(config.getResponseCacheSpillDirectory())
+          : null;
+      interceptors.add(new ETagCacheInterceptor(config.getResponseCacheSize().toBytes(), spillDirectory,
+          config.getResponseCacheSpillSize().toBytes(), meterRegistry, "gitlab"));
+    }
+    interceptors.add(new RateLimitInterceptor(config.getRequestsPerSecond(), config.getMaxConcurrentRequests(),
+        meterRegistry, "gitlab"));
+    return interceptors;
+  }
+
+  @Override
+  public List<Group> getGroups(String search) {
+    LOG.debug("Retrieving groups: search={}", search);
+    String apiCall = "/groups";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
+  }
+
+  /**
+   * Streams the groups ordered by ID. GitLab provides no filter for groups by
+   * ID, so the groups up to the given ID (if any) are skipped locally.
+   */
+  @Override
+  public Stream<Group> streamGroups(String search, Long idAfter) {
+    LOG.debug("Streaming groups: search={}, idAfter={}", search, idAfter);
+    String apiCall = "/groups?order_by=id&sort=asc";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "&search={search}";
+      uriVariables.put("search", search);
+    }
+    Stream<Group> groups = makeReadStreamApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
+    return idAfter != null ? groups.filter(group -> Long.parseLong(group.getId()) > idAfter) : groups;
+  }
+
+  /**
+   * Streams the top-level groups ordered by ID, optionally only the groups with
+   * an ID greater than the given one (skipped locally).
+   */
+  @Override
+  public Stream<Group> streamTopLevelGroups(Long idAfter) {
+    LOG.debug("Streaming top-level groups: idAfter={}", idAfter);
+    String apiCall = "/groups?top_level_only=true&order_by=id&sort=asc";
+    Stream<Group> groups = makeReadStreamApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS,
+        createUriVariables());
+    return idAfter != null ? groups.filter(group -> Long.parseLong(group.getId()) > idAfter) : groups;
+  }
+
+  @Override
+  public Group updateGroup(String groupId, String... settings) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    String apiCall = "/groups/{groupId}";
+    Map<String, String> uriVariables = new HashMap<>();
+    for (int i = 0; i < settings.length; i += 2) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
+      uriVariables.put(settings[i], settings[i + 1]);
+    }
+    LOG.debug("Updating group '{}': {}", groupId, uriVariables);
+    uriVariables.put("groupId", groupId);
+    return makeReadApiCall(apiCall, HttpMethod.PUT, RESPONSE_TYPE_GROUP, uriVariables);
+  }
+
+  @Override
+  public List<Project> getProjects(String search) {
+    LOG.debug("Retrieving projects: search={}", search);
+    String apiCall = "/projects";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    apiCall = appendKeysetPagination(apiCall);
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+  }
+
+  /**
+   * Streams the projects ordered by ID, optionally limited to the projects with
+   * activity after the given time and with an ID greater than the given one.
+   */
+  @Override
+  public Stream<Project> streamProjects(String search, Instant lastActivityAfter, Long idAfter) {
+    LOG.debug("Streaming projects: search={}, lastActivityAfter={}, idAfter={}", search, lastActivityAfter,
+        idAfter);
+    String apiCall = "/projects";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    if (lastActivityAfter != null) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "last_activity_after={lastActivityAfter}";
+      uriVariables.put("lastActivityAfter", lastActivityAfter.toString());
+    }
+    if (idAfter != null) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "id_after={idAfter}";
+      uriVariables.put("idAfter", idAfter.toString());
+    }
+    if (keysetPagination) {
+      apiCall = appendKeysetPagination(apiCall);
+    } else {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + "order_by=id&sort=asc";
+    }
+    return makeReadStreamApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+  }
+
+  @Override
+  public Project getProject(String projectId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieve project '{}'", projectId);
+    String apiCall = "/projects/{projectId}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    return cached(EntityCache.PROJECT, projectId,
+        () -> makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECT, uriVariables));
+  }
+
+  @Override
+  public List<Project> getProjectsForGroup(String groupId, String search) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Retrieving projects for group '{}': search={}", groupId, search);
+    String apiCall = "/groups/{groupId}/projects";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+  }
+
+  /**
+   * Streams the projects of the given group and all its subgroups (without the
+   * projects shared with them) ordered by ID, optionally limited to the projects
+   * with activity after the given time. GitLab provides no activity filter for
+   * the projects of a group, so these are skipped locally.
+   */
+  @Override
+  public Stream<Project> streamProjectsForGroupTree(String groupId, Instant lastActivityAfter) {
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Streaming projects for group tree '{}': lastActivityAfter={}", groupId, lastActivityAfter);
+    String apiCall = "/groups/{groupId}/projects?include_subgroups=true&with_shared=false&order_by=id&sort=asc";
+    Map<String, String> uriVariables = createUriVariables("groupId", groupId);
+    Stream<Project> projects = makeReadStreamApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROJECTS, uriVariables);
+    return lastActivityAfter != null ? projects.filter(project -> project.getLastActivityAt() == null
+        || project.getLastActivityAt().isAfter(lastActivityAfter)) : projects;
+  }
+
+  @Override
+  public List<Branch> getBranchesForProject(String projectId, String search) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving branches for project '{}': search={}", projectId, search);
+    String apiCall = "/projects/{projectId}/repository/branches";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_BRANCHES, uriVariables);
+  }
+
+  @Override
+  public ProtectedBranch getProtectedBranchForProject(String projectId, String name) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving protected branches for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/protected_branches/{name}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROTECTED_BRANCH, uriVariables);
+  }
+
+  @Override
+  public List<ProtectedBranch> getProtectedBranchesForProject(String projectId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving protected branches for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/protected_branches";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    return cached(EntityCache.PROTECTED_BRANCHES, projectId,
+        () -> makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PROTECTED_BRANCHES, uriVariables));
+  }
+
+  @Override
+  public ProtectedBranch protectBranchForProject(String projectId, String name, String... settings) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (!StringUtils.hasText(name)) {
+      throw new IllegalStateException("Branch name required");
+    }
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    LOG.debug("Protecting branch '{}' for project '{}'", name, projectId);
+    String apiCall = "/projects/{projectId}/protected_branches?name={name}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
+    for (int i = 0; i < settings.length; i += 2) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
+      uriVariables.put(settings[i], settings[i + 1]);
+    }
+    ProtectedBranch branch = makeReadApiCall(apiCall, HttpMethod.POST, RESPONSE_TYPE_PROTECTED_BRANCH, uriVariables);
+    EntityCache.evictCached(EntityCache.PROTECTED_BRANCHES, projectId);
+    return branch;
+  }
+
+  @Override
+  public boolean unprotectBranchForProject(String projectId, String name) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (!StringUtils.hasText(name)) {
+      throw new IllegalStateException("Branch name required");
+    }
+    LOG.debug("Unprotecting branch '{}' for project '{}'", name, projectId);
+    String apiCall = "/projects/{projectId}/protected_branches/{name}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "name", name);
+    boolean unprotected = makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
+    EntityCache.evictCached(EntityCache.PROTECTED_BRANCHES, projectId);
+    return unprotected;
+  }
+
+  @Override
+  public boolean unshareWithGroup(String projectId, String groupId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (!StringUtils.hasText(groupId)) {
+      throw new IllegalStateException("GitLab group ID required");
+    }
+    LOG.debug("Unsharing project '{}' with group '{}'", projectId, groupId);
+    String apiCall = "/projects/{projectId}/share/{groupId}";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId, "groupId", groupId);
+    boolean unshared = makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
+    EntityCache.evictCached(EntityCache.PROJECT, projectId);
+    return unshared;
+  }
+
+  private <T> T cached(String type, String id, Supplier<T> loader) {
+    return EntityCache.cached(type, id, loader, entityCacheHits, entityCacheMisses);
+  }
+
+  /**
+   * Switches the given API call to keyset pagination (if enabled). Offset
+   * pagination gets slower the deeper the requested page is and is limited by
+   * GitLab for large collections. Only supported for resources ordered by ID
+   * (e.g. projects) - groups are only supported for unauthenticated requests.
+   * GitLab versions without keyset support ignore these parameters and return
+   * the usual offset-based links.
+   */
+  private String appendKeysetPagination(String apiCall) {
+    if (!keysetPagination) {
+      return apiCall;
+    }
+    return apiCall + (apiCall.contains("?") ? "&" : "?") + "pagination=keyset&order_by=id&sort=asc";
+  }
+
+  @Override
+  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method,
+      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables) {
+    String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
+    uriVariables.put("perPage", perPageAsString());
+    try {
+      List<T> entities = new ArrayList<>();
+      createPageIterator(apiCall, url, method, typeReference, uriVariables).forEachRemaining(entities::addAll);
+      return entities;
+    } catch (RestClientException e) {
+      LOG.error("API call {} '{}' {} failed", method.name(), url, uriVariables, e);
+    }
+    return null;
+  }
+
+  /**
+   * Returns a lazy stream of the entities of all pages. Only the configured
+   * number of pages is requested ahead of the page currently consumed. If a page
+   * request fails then the error is logged and the {@link RestClientException}
+   * is thrown by the stream's terminal operation.
+   */
+  protected <T> Stream<T> makeReadStreamApiCall(String apiCall, HttpMethod method,
+      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables) {
+    String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
+    uriVariables.put("perPage", perPageAsString());
+    PageIterator<T> pages = createPageIterator(apiCall, url, method, typeReference, uriVariables);
+    Iterator<List<T>> loggingPages = new Iterator<List<T>>() {
+
+      @Override
+      public boolean hasNext() {
+        try {
+          return pages.hasNext();
+        } catch (RestClientException e) {
+          LOG.error("API call {} '{}' {} failed", method.name(), url, uriVariables, e);
+          throw e;
+        }
+      }
+
+      @Override
+      public List<T> next() {
+        return pages.next();
+      }
+    };
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(loggingPages, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .flatMap(List::stream);
+  }
+
+  /**
+   * Creates a page iterator which retries each page separately, so a transient
+   * failure resumes the list with the failed page instead of starting over.
+   */
+  private <T> PageIterator<T> createPageIterator(String apiCall, String url, HttpMethod method,
+      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables) {
+    String endpoint = getEndpoint(apiCall);
+    Counter pages = Counter.builder("gitlab.api.pages").description("Pages retrieved from paginated API calls")
+        .tag("endpoint", endpoint).register(meterRegistry);
+    return new PageIterator<>(() -> {
+      pages.increment();
+      return execute(method, endpoint,
+          () -> restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables));
+    }, nextPageUri -> {
+      pages.increment();
+      return execute(method, endpoint,
+          () -> restTemplate.exchange(nextPageUri, method, authenticationEntity, typeReference));
+    }, prefetchExecutor, prefetchPages);
+  }
+
+  @Override
+  public List<Namespace> getNamespaces(String search) {
+    LOG.debug("Retrieving namespaces: search={}", search);
+    String apiCall = "/namespaces";
+    Map<String, String> uriVariables = createUriVariables();
+    if (StringUtils.hasText(search)) {
+      apiCall += "?search={search}";
+      uriVariables.put("search", search);
+    }
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_NAMESPACES, uriVariables);
+  }
+
+  @Override
+  public PushRules getPushRules(String projectId) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    LOG.debug("Retrieving push rules for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/push_rule";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    return cached(EntityCache.PUSH_RULES, projectId,
+        () -> makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_PUSH_RULES, uriVariables));
+  }
+
+  @Override
+  public PushRules writePushRules(HttpMethod method, String projectId, String... settings) {
+    if (!StringUtils.hasText(projectId)) {
+      throw new IllegalStateException("GitLab project ID required");
+    }
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    LOG.debug("Updating push rules for project '{}'", projectId);
+    String apiCall = "/projects/{projectId}/push_rule?";
+    Map<String, String> uriVariables = createUriVariables("projectId", projectId);
+    for (int i = 0; i < settings.length; i += 2) {
+      apiCall += (apiCall.contains("?") ? "&" : "?") + settings[i] + "={" + settings[i] + "}";
+      uriVariables.put(settings[i], settings[i + 1]);
+    }
+    PushRules pushRules = makeReadApiCall(apiCall, method, RESPONSE_TYPE_PUSH_RULES, uriVariables);
+    EntityCache.evictCached(EntityCache.PUSH_RULES, projectId);
+    return pushRules;
+  }
+}
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.vaulttec.gitlab.enforcer.client.model.Namespace.Kind;
 
+import java.time.Instant;
 import java.util.List;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -35,6 +36,8 @@ public class Project {
   private List<Group> sharedWithGroups;
   @JsonProperty("repository_access_level")
   private String repositoryAccessLevel = "enabled";
+  @JsonProperty("last_activity_at")
+  private Instant lastActivityAt;
 
   public Project() {
     super();
@@ -112,6 +115,14 @@ public class Project {
     this.repositoryAccessLevel = repositoryAccessLevel;
   }
 
+  public Instant getLastActivityAt() {
+    return lastActivityAt;
+  }
+
+  public void setLastActivityAt(Instant lastActivityAt) {
+    this.lastActivityAt = lastActivityAt;
+  }
+
   public boolean isRepositoryDisabled() {
     return "disabled".equalsIgnoreCase(repositoryAccessLevel);
   }
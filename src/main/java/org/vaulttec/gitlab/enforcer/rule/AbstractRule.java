@@ -17,7 +17,12 @@
  */
 package org.vaulttec.gitlab.enforcer.rule;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
 import org.vaulttec.gitlab.enforcer.EnforcerExecution;
@@ -41,19 +46,66 @@ public abstract class AbstractRule implements Rule {
   protected abstract void doInit(Map<String, String> config);
 
   @Override
-  public final void handle(EnforcerExecution execution, SystemEvent event) {
+  public final Outcome handle(EnforcerExecution execution, SystemEvent event) {
+    if (isApplicable(execution)) {
+      return doHandle(execution, event);
+    }
+    return Outcome.SKIPPED;
+  }
+
+  protected abstract Outcome doHandle(EnforcerExecution execution, SystemEvent event);
+
+  @Override
+  public final Set<Resource> getRequiredResources(EnforcerExecution execution, SystemEvent event) {
+    if (isApplicable(execution)) {
+      return doGetRequiredResources(event);
+    }
+    return Collections.emptySet();
+  }
+
+  protected Set<Resource> doGetRequiredResources(SystemEvent event) {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public final String getFingerprint(SystemEvent event) {
+    Object state = getFingerprintState(event);
+    if (state == null) {
+      return null;
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(getInfo().getBytes(StandardCharsets.UTF_8));
+      digest.update(state.toString().getBytes(StandardCharsets.UTF_8));
+      // The first 64 bits are sufficient to detect changes
+      StringBuilder fingerprint = new StringBuilder();
+      byte[] hash = digest.digest();
+      for (int i = 0; i < 8; i++) {
+        fingerprint.append(String.format("%02x", hash[i]));
+      }
+      return fingerprint.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the state of the GitLab resources verified by this rule for the
+   * given event (with a meaningful <code>toString()</code>) or
+   * <code>null</code> if fingerprints are not supported.
+   */
+  protected Object getFingerprintState(SystemEvent event) {
+    return null;
+  }
+
+  private boolean isApplicable(EnforcerExecution execution) {
     switch (execution) {
     case COMMAND:
     case HOOK:
-      doHandle(execution, event);
-      break;
+      return true;
     case SCHEDULED:
-      if (use == Use.ALWAYS) {
-        doHandle(execution, event);
-      }
-      break;
+      return use == Use.ALWAYS;
     }
+    return false;
   }
-
-  protected abstract void doHandle(EnforcerExecution execution, SystemEvent event);
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.rule;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+import org.vaulttec.gitlab.enforcer.client.GitLabClient;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+
+/**
+ * Limits the number of events concurrently handled by the wrapped rule.
+ */
+class ConcurrencyLimitedRule implements Rule {
+  private final Rule rule;
+  private final Semaphore permits;
+
+  ConcurrencyLimitedRule(Rule rule, int maxConcurrency) {
+    this.rule = rule;
+    this.permits = new Semaphore(maxConcurrency, true);
+  }
+
+  @Override
+  public String getInfo() {
+    return rule.getInfo();
+  }
+
+  @Override
+  public boolean supports(SystemEvent event) {
+    return rule.supports(event);
+  }
+
+  @Override
+  public void init(Use use, EnforcerEventPublisher eventPublisher, GitLabClient client, Map<String, String> config) {
+    rule.init(use, eventPublisher, client, config);
+  }
+
+  @Override
+  public Set<Resource> getRequiredResources(EnforcerExecution execution, SystemEvent event) {
+    return rule.getRequiredResources(execution, event);
+  }
+
+  @Override
+  public String getFingerprint(SystemEvent event) {
+    return rule.getFingerprint(event);
+  }
+
+  @Override
+  public Outcome handle(EnforcerExecution execution, SystemEvent event) {
+    permits.acquireUninterruptibly();
+    try {
+      return rule.handle(execution, event);
+    } finally {
+      permits.release();
+    }
+  }
+}
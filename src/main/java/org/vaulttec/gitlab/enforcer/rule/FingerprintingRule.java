@@ -0,0 +1,183 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.rule;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+import org.vaulttec.gitlab.enforcer.client.GitLabClient;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.state.StateStore;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+
+/**
+ * Skips the wrapped rule in scheduled sweeps for projects which haven't changed
+ * since the rule was last verified for them.
+ * <p>
+ * After the rule has been verified (or enforced) for a project the project's
+ * <code>last_activity_at</code> and the rule's fingerprint are persisted. As
+ * long as the project's activity time is unchanged the rule is skipped. After
+ * the given maximum age the fingerprint is recalculated (mostly from
+ * revalidated responses) - if it's unchanged then the project is still
+ * compliant and the rule isn't evaluated again.
+ */
+class FingerprintingRule implements Rule {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FingerprintingRule.class);
+
+  private static final String KEY_PREFIX = "fingerprint.";
+
+  private final Rule rule;
+  private final StateStore stateStore;
+  private final Duration maxAge;
+  private String keyPrefix;
+
+  FingerprintingRule(Rule rule, StateStore stateStore, Duration maxAge) {
+    this.rule = rule;
+    this.stateStore = stateStore;
+    this.maxAge = maxAge;
+  }
+
+  @Override
+  public String getInfo() {
+    return rule.getInfo();
+  }
+
+  @Override
+  public boolean supports(SystemEvent event) {
+    return rule.supports(event);
+  }
+
+  @Override
+  public void init(Use use, EnforcerEventPublisher eventPublisher, GitLabClient client, Map<String, String> config) {
+    rule.init(use, eventPublisher, client, config);
+  }
+
+  @Override
+  public Set<Resource> getRequiredResources(EnforcerExecution execution, SystemEvent event) {
+    Project project = getProject(execution, event);
+    if (project != null && isVerified(project, getState(event), Instant.now())) {
+      return Collections.emptySet();
+    }
+    return rule.getRequiredResources(execution, event);
+  }
+
+  @Override
+  public String getFingerprint(SystemEvent event) {
+    return rule.getFingerprint(event);
+  }
+
+  @Override
+  public Outcome handle(EnforcerExecution execution, SystemEvent event) {
+    Project project = getProject(execution, event);
+    if (project == null) {
+      return rule.handle(execution, event);
+    }
+    Instant now = Instant.now();
+    State state = getState(event);
+    if (isVerified(project, state, now)) {
+      LOG.debug("Skipping unchanged project '{}' for rule '{}'", event.getPathWithNamespace(), getInfo());
+      return Outcome.COMPLIANT;
+    }
+    if (state != null && project.getLastActivityAt().equals(state.lastActivityAt)
+        && state.fingerprint.equals(rule.getFingerprint(event))) {
+      LOG.debug("Fingerprint of project '{}' unchanged for rule '{}'", event.getPathWithNamespace(), getInfo());
+      putState(event, new State(project.getLastActivityAt(), now, state.fingerprint));
+      return Outcome.COMPLIANT;
+    }
+    Outcome outcome = rule.handle(execution, event);
+    String fingerprint = null;
+    if (outcome == Outcome.COMPLIANT || outcome == Outcome.ENFORCED) {
+      fingerprint = rule.getFingerprint(event);
+    }
+    if (fingerprint != null) {
+      putState(event, new State(project.getLastActivityAt(), now, fingerprint));
+    } else if (state != null) {
+      stateStore.remove(getKey(event));
+    }
+    return outcome;
+  }
+
+  /**
+   * Returns the project of the given event if fingerprints apply to it - only
+   * projects provided by scheduled sweeps (with an activity time) qualify.
+   */
+  private Project getProject(EnforcerExecution execution, SystemEvent event) {
+    if (execution != EnforcerExecution.SCHEDULED || !(event.getObject() instanceof Project)) {
+      return null;
+    }
+    Project project = (Project) event.getObject();
+    return project.getLastActivityAt() != null ? project : null;
+  }
+
+  private boolean isVerified(Project project, State state, Instant now) {
+    return state != null && project.getLastActivityAt().equals(state.lastActivityAt)
+        && state.verifiedAt.plus(maxAge).isAfter(now);
+  }
+
+  private State getState(SystemEvent event) {
+    String value = stateStore.get(getKey(event));
+    if (value != null) {
+      String[] parts = value.split(" ");
+      if (parts.length == 3) {
+        try {
+          return new State(Instant.parse(parts[0]), Instant.parse(parts[1]), parts[2]);
+        } catch (DateTimeParseException e) {
+          // ignore invalid state
+        }
+      }
+      LOG.warn("Ignoring invalid fingerprint state {}={}", getKey(event), value);
+    }
+    return null;
+  }
+
+  private void putState(SystemEvent event, State state) {
+    stateStore.put(getKey(event), state.lastActivityAt + " " + state.verifiedAt + " " + state.fingerprint);
+  }
+
+  /**
+   * Returns the state store key of the given event. Rules are identified by
+   * their info, so a modified rule configuration doesn't reuse the state.
+   */
+  private String getKey(SystemEvent event) {
+    if (keyPrefix == null) {
+      keyPrefix = KEY_PREFIX + Integer.toHexString(getInfo().hashCode()) + ".";
+    }
+    return keyPrefix + event.getId();
+  }
+
+  private static class State {
+    private final Instant lastActivityAt;
+    private final Instant verifiedAt;
+    private final String fingerprint;
+
+    private State(Instant lastActivityAt, Instant verifiedAt, String fingerprint) {
+      this.lastActivityAt = lastActivityAt;
+      this.verifiedAt = verifiedAt;
+      this.fingerprint = fingerprint;
+    }
+  }
+}
@@ -62,11 +62,13 @@ public class GroupSettingsRule extends AbstractRule {
   }
 
   @Override
-  public void doHandle(EnforcerExecution execution, SystemEvent event) {
+  public Outcome doHandle(EnforcerExecution execution, SystemEvent event) {
     LOG.info("Enforcing settings in group '{}'", event.getPath());
     if (client.updateGroup(event.getId(), settings) != null) {
       eventPublisher.publishEvent(EnforcerEvents.createGroupEvent(execution, "GROUP_SETTINGS",
           "groupId=" + event.getId(), "groupPath=" + event.getPath()));
+      return Outcome.ENFORCED;
     }
+    return Outcome.FAILED;
   }
 }
\ No newline at end of file
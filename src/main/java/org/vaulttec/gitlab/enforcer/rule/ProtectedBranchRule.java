@@ -87,7 +87,7 @@ public class ProtectedBranchRule extends AbstractRule {
   }
 
   @Override
-  public void doHandle(EnforcerExecution execution, SystemEvent event) {
+  public Outcome doHandle(EnforcerExecution execution, SystemEvent event) {
     if (!skip(event)) {
       // Create a mutable list of the initial protected branch configuration
       // This list will be modified in hasStricterSettings()!!!
@@ -101,11 +101,11 @@ public class ProtectedBranchRule extends AbstractRule {
         if (existingBranch.isPresent()) {
           // If the existing branch has already the required access levels then we are set
           if (hasRequiredAccessLevels(existingBranch.get())) {
-            return;
+            return Outcome.COMPLIANT;
           }
           // If the existing branch has stricter access levels then we are set as well
           if (keepStricterAccessLevel && hasStricterSettings(existingBranch.get(), enforcedSettings)) {
-            return;
+            return Outcome.COMPLIANT;
           }
         }
       }
@@ -119,8 +119,26 @@ public class ProtectedBranchRule extends AbstractRule {
       if (client.protectBranchForProject(event.getId(), name, enforcedSettings.toArray(new String[0])) != null) {
         eventPublisher.publishEvent(EnforcerEvents.createProjectEvent(execution, "PROTECTED_BRANCH",
             "projectId=" + event.getId(), "projectPath=" + event.getPathWithNamespace(), "branch=" + name));
+        return Outcome.ENFORCED;
       }
+      return Outcome.FAILED;
     }
+    return Outcome.SKIPPED;
+  }
+
+  @Override
+  protected Object getFingerprintState(SystemEvent event) {
+    List<ProtectedBranch> branches = client.getProtectedBranchesForProject(event.getId());
+    if (branches == null) {
+      return null;
+    }
+    return branches.stream().filter(branch -> name.equals(branch.getName())).findFirst()
+        .map(ProtectedBranch::toString).orElse("");
+  }
+
+  @Override
+  protected Set<Resource> doGetRequiredResources(SystemEvent event) {
+    return skip(event) ? Collections.emptySet() : EnumSet.of(Resource.PROTECTED_BRANCHES);
   }
 
   private boolean skip(SystemEvent event) {
@@ -131,7 +149,7 @@ public class ProtectedBranchRule extends AbstractRule {
     return skipUserProjects && project.getKind() == Kind.USER;
   }
 
-  private boolean hasRequiredAccessLevels(ProtectedBranch branch) {
+  boolean hasRequiredAccessLevels(ProtectedBranch branch) {
     for (int i = 0; i < settings.length; i += 2) {
       if (!branch.hasAccessLevel(settings[i], Permission.fromAccessLevel(settings[i + 1]))) {
         return false;
@@ -140,7 +158,7 @@ public class ProtectedBranchRule extends AbstractRule {
     return true;
   }
 
-  private boolean hasStricterSettings(ProtectedBranch branch, List<String> enforcedSettings) {
+  boolean hasStricterSettings(ProtectedBranch branch, List<String> enforcedSettings) {
     boolean hasStricterSettings = true;
     for (int i = 0; i < enforcedSettings.size(); i += 2) {
       if (!"unprotect_access_level".equals(enforcedSettings.get(i))) {
@@ -30,8 +30,11 @@ import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
 import org.vaulttec.gitlab.enforcer.systemhook.SystemEventName;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Stream;
 
 public class PushRulesRule extends AbstractRule {
@@ -73,7 +76,7 @@ public class PushRulesRule extends AbstractRule {
   }
 
   @Override
-  public void doHandle(EnforcerExecution execution, SystemEvent event) {
+  public Outcome doHandle(EnforcerExecution execution, SystemEvent event) {
     if (!skip(event)) {
       PushRules rules = client.getPushRules(event.getId());
       if (rules == null || !rules.isActiveSettings(settings)) {
@@ -82,9 +85,23 @@ public class PushRulesRule extends AbstractRule {
         if (client.writePushRules(method, event.getId(), settings) != null) {
           eventPublisher.publishEvent(EnforcerEvents.createProjectEvent(execution, "PUSH_RULES",
               "projectId=" + event.getId(), "projectPath=" + event.getPathWithNamespace()));
+          return Outcome.ENFORCED;
         }
+        return Outcome.FAILED;
       }
+      return Outcome.COMPLIANT;
     }
+    return Outcome.SKIPPED;
+  }
+
+  @Override
+  protected Object getFingerprintState(SystemEvent event) {
+    return client.getPushRules(event.getId());
+  }
+
+  @Override
+  protected Set<Resource> doGetRequiredResources(SystemEvent event) {
+    return skip(event) ? Collections.emptySet() : EnumSet.of(Resource.PUSH_RULES);
   }
 
   private boolean skip(SystemEvent event) {
@@ -17,7 +17,9 @@
  */
 package org.vaulttec.gitlab.enforcer.rule;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
 import org.vaulttec.gitlab.enforcer.EnforcerExecution;
@@ -32,7 +34,26 @@ public interface Rule {
 
   void init(Rule.Use use, EnforcerEventPublisher eventPublisher, GitLabClient client, Map<String, String> config);
 
-  void handle(EnforcerExecution execution, SystemEvent event);
+  Outcome handle(EnforcerExecution execution, SystemEvent event);
+
+  /**
+   * Returns the GitLab resources {@link #handle(EnforcerExecution, SystemEvent)}
+   * will retrieve for the given event. These are prefetched concurrently before
+   * the rules are handled.
+   */
+  default Set<Resource> getRequiredResources(EnforcerExecution execution, SystemEvent event) {
+    return Collections.emptySet();
+  }
+
+  /**
+   * Returns a compact fingerprint of the rule's configuration and the state of
+   * the GitLab resources verified by this rule for the given event, or
+   * <code>null</code> if not supported. Identical fingerprints mean nothing
+   * relevant for this rule has changed.
+   */
+  default String getFingerprint(SystemEvent event) {
+    return null;
+  }
 
   public enum Use {
     ONCE, ALWAYS;
@@ -41,4 +62,19 @@ public interface Rule {
       return valueOf(name.toUpperCase());
     }
   }
+
+  public enum Outcome {
+    /** Nothing to enforce - the GitLab object complies with the rule */
+    COMPLIANT,
+    /** The rule was enforced by modifying the GitLab object */
+    ENFORCED,
+    /** Enforcing the rule failed */
+    FAILED,
+    /** The rule doesn't apply to the GitLab object */
+    SKIPPED;
+  }
+
+  public enum Resource {
+    PROTECTED_BRANCHES, PUSH_RULES;
+  }
 }
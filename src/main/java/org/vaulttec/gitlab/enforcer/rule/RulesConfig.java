@@ -25,19 +25,30 @@ import java.util.Map;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.vaulttec.gitlab.enforcer.EnforcerConfig;
 import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
 import org.vaulttec.gitlab.enforcer.client.GitLabClient;
+import org.vaulttec.gitlab.enforcer.state.StateStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 @ConfigurationProperties
 public class RulesConfig {
   private final EnforcerEventPublisher eventPublisher;
   private final GitLabClient client;
+  private final EnforcerConfig enforcerConfig;
+  private final StateStore stateStore;
+  private final MeterRegistry meterRegistry;
   private final List<RuleConfig> rules; // same name as in config file!!!
 
-  RulesConfig(EnforcerEventPublisher eventPublisher, GitLabClient client) {
+  RulesConfig(EnforcerEventPublisher eventPublisher, GitLabClient client, EnforcerConfig enforcerConfig,
+      StateStore stateStore, MeterRegistry meterRegistry) {
     this.eventPublisher = eventPublisher;
     this.client = client;
+    this.enforcerConfig = enforcerConfig;
+    this.stateStore = stateStore;
+    this.meterRegistry = meterRegistry;
     this.rules = new ArrayList<>();
   }
 
@@ -51,6 +62,13 @@ public class RulesConfig {
     for (RuleConfig config : rules) {
       Rule rule = config.getRule().newInstance();
       rule.init(config.getUse(), eventPublisher, client, config.getConfig());
+      rule = new TimedRule(rule, meterRegistry);
+      if (config.getConcurrency() > 0) {
+        rule = new ConcurrencyLimitedRule(rule, config.getConcurrency());
+      }
+      if (enforcerConfig.isFingerprints()) {
+        rule = new FingerprintingRule(rule, stateStore, enforcerConfig.getFingerprintMaxAge());
+      }
       result.add(rule);
     }
     return result;
@@ -59,6 +77,7 @@ public class RulesConfig {
   protected static class RuleConfig {
     private Class<Rule> rule;
     private Rule.Use use = Rule.Use.ONCE;
+    private int concurrency;
     private Map<String, String> config = new HashMap<>();
 
     public Class<Rule> getRule() {
@@ -77,6 +96,14 @@ public class RulesConfig {
       this.use = use;
     }
 
+    public int getConcurrency() {
+      return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+      this.concurrency = concurrency;
+    }
+
     public Map<String, String> getConfig() {
       return config;
     }
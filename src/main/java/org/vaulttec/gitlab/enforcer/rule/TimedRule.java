@@ -0,0 +1,87 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.rule;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+import org.vaulttec.gitlab.enforcer.client.GitLabClient;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the duration and outcome of every event handled by the wrapped rule.
+ * A rule throwing an exception is recorded as {@link Outcome#FAILED}.
+ */
+class TimedRule implements Rule {
+  private final Rule rule;
+  private final MeterRegistry meterRegistry;
+  private final String ruleName;
+
+  TimedRule(Rule rule, MeterRegistry meterRegistry) {
+    this.rule = rule;
+    this.meterRegistry = meterRegistry;
+    this.ruleName = rule.getClass().getSimpleName();
+  }
+
+  @Override
+  public String getInfo() {
+    return rule.getInfo();
+  }
+
+  @Override
+  public boolean supports(SystemEvent event) {
+    return rule.supports(event);
+  }
+
+  @Override
+  public void init(Use use, EnforcerEventPublisher eventPublisher, GitLabClient client, Map<String, String> config) {
+    rule.init(use, eventPublisher, client, config);
+  }
+
+  @Override
+  public Set<Resource> getRequiredResources(EnforcerExecution execution, SystemEvent event) {
+    return rule.getRequiredResources(execution, event);
+  }
+
+  @Override
+  public String getFingerprint(SystemEvent event) {
+    return rule.getFingerprint(event);
+  }
+
+  @Override
+  public Outcome handle(EnforcerExecution execution, SystemEvent event) {
+    Outcome outcome = Outcome.FAILED;
+    long start = System.nanoTime();
+    try {
+      outcome = rule.handle(execution, event);
+      return outcome;
+    } finally {
+      Timer.builder("enforcer.rule").description("Duration of enforcing a rule for a GitLab object")
+          .tag("rule", ruleName).tag("outcome", String.valueOf(outcome).toLowerCase(Locale.ROOT))
+          .publishPercentileHistogram().register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+}
@@ -72,18 +72,37 @@ public class UserProjectSettingsRule extends AbstractRule {
   }
 
   @Override
-  public void doHandle(EnforcerExecution execution, SystemEvent event) {
+  public Outcome doHandle(EnforcerExecution execution, SystemEvent event) {
     Project project = event.getObject() != null ? (Project) event.getObject() : client.getProject(event.getId());
     if (project.getKind() == Kind.USER) {
-      if (removeSharedGroups && project.getSharedWithGroups() != null) {
+      if (removeSharedGroups && project.getSharedWithGroups() != null && !project.getSharedWithGroups().isEmpty()) {
         LOG.info("Enforcing settings in user project '{}'", project.getPathWithNamespace());
+        Outcome outcome = Outcome.ENFORCED;
         for (Group sharedWithGroup : project.getSharedWithGroups()) {
           if (client.unshareWithGroup(event.getId(), sharedWithGroup.getId())) {
             eventPublisher.publishEvent(EnforcerEvents.createProjectEvent(execution, "USER_PROJECT_SETTINGS",
                 "projectId=" + event.getId(), "projectPath=" + event.getPathWithNamespace()));
+          } else {
+            outcome = Outcome.FAILED;
           }
         }
+        return outcome;
       }
+      return Outcome.COMPLIANT;
     }
+    return Outcome.SKIPPED;
+  }
+
+  @Override
+  protected Object getFingerprintState(SystemEvent event) {
+    Project project = event.getObject() != null ? (Project) event.getObject() : client.getProject(event.getId());
+    if (project == null) {
+      return null;
+    }
+    List<String> sharedWithGroupIds = new ArrayList<>();
+    if (project.getSharedWithGroups() != null) {
+      project.getSharedWithGroups().forEach(group -> sharedWithGroupIds.add(group.getId()));
+    }
+    return project.getKind() + " " + sharedWithGroupIds;
   }
 }
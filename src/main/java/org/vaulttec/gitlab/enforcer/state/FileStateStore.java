@@ -0,0 +1,99 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.state;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the state in memory and writes it to a properties file on
+ * {@link #flush()}. The file is replaced atomically so a crash never leaves a
+ * partially written state behind.
+ * <p>
+ * Every {@link #flush()} rewrites the whole file, e.g. for each persisted sweep
+ * cursor. This doesn't scale with the number of entries (results and
+ * fingerprints of all groups and projects) - for large GitLab instances the
+ * {@link LogStateStore} should be used instead.
+ */
+public class FileStateStore extends InMemoryStateStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileStateStore.class);
+
+  private final Path file;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  public FileStateStore(Path file) {
+    this.file = file;
+    load();
+  }
+
+  @Override
+  public void put(String key, String value) {
+    super.put(key, value);
+    dirty.set(true);
+  }
+
+  @Override
+  public void remove(String key) {
+    super.remove(key);
+    dirty.set(true);
+  }
+
+  @Override
+  public synchronized void flush() {
+    if (dirty.getAndSet(false)) {
+      Properties properties = new Properties();
+      properties.putAll(state);
+      try {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+          properties.store(out, "GitLab Enforcer state");
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        dirty.set(true);
+        throw new UncheckedIOException("Writing state file '" + file + "' failed", e);
+      }
+    }
+  }
+
+  private void load() {
+    if (Files.exists(file)) {
+      Properties properties = new Properties();
+      try (InputStream in = Files.newInputStream(file)) {
+        properties.load(in);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Reading state file '" + file + "' failed", e);
+      }
+      properties.forEach((key, value) -> state.put((String) key, (String) value));
+      LOG.info("Loaded {} entries from state file '{}'", state.size(), file);
+    }
+  }
+}
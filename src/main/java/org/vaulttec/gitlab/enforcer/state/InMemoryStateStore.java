@@ -0,0 +1,44 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.state;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemoryStateStore implements StateStore {
+  protected final Map<String, String> state = new ConcurrentHashMap<>();
+
+  @Override
+  public String get(String key) {
+    return state.get(key);
+  }
+
+  @Override
+  public void put(String key, String value) {
+    state.put(key, value);
+  }
+
+  @Override
+  public void remove(String key) {
+    state.remove(key);
+  }
+
+  @Override
+  public void flush() {
+  }
+}
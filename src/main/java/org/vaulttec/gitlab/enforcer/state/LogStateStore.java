@@ -0,0 +1,247 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.state;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the state in memory and appends every change to a log file. The
+ * records are collected in a buffer which is written to the log when it's full
+ * and on {@link #flush()}, so a change costs no system call. On
+ * {@link #flush()} the log is forced to disk and, once it exceeds the given
+ * size, compacted into a snapshot file. Only the changes made since the last
+ * {@link #flush()} (at most the buffer's content) are lost by a crash of the
+ * enforcer process. Both files are read via
+ * memory mapping on startup. Records are checksummed, so a partially written
+ * record at the end of the log is detected and discarded.
+ */
+public class LogStateStore extends InMemoryStateStore implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogStateStore.class);
+
+  static final String LOG_FILE = "state.log";
+  static final String SNAPSHOT_FILE = "state.snapshot";
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  private static final int HEADER_SIZE = 2 * Integer.BYTES;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path directory;
+  private final long compactionSize;
+  private final CRC32 crc = new CRC32();
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private FileChannel log;
+
+  public LogStateStore(Path directory, long compactionSize) {
+    this.directory = directory;
+    this.compactionSize = compactionSize;
+    try {
+      Files.createDirectories(directory);
+      replay(directory.resolve(SNAPSHOT_FILE));
+      long logSize = replay(directory.resolve(LOG_FILE));
+      log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      if (logSize < log.size()) {
+        LOG.warn("Discarding {} bytes of incomplete records from state log '{}'", log.size() - logSize,
+            directory.resolve(LOG_FILE));
+        log.truncate(logSize);
+      }
+      log.position(logSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Opening state directory '" + directory + "' failed", e);
+    }
+    LOG.info("Loaded {} entries from state directory '{}'", state.size(), directory);
+  }
+
+  @Override
+  public synchronized void put(String key, String value) {
+    super.put(key, value);
+    append(encode(PUT, key, value));
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    if (state.containsKey(key)) {
+      super.remove(key);
+      append(encode(REMOVE, key, null));
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    try {
+      drain();
+      log.force(false);
+      if (log.size() > compactionSize) {
+        compact();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Writing state directory '" + directory + "' failed", e);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (log.isOpen()) {
+      flush();
+      try {
+        log.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Closing state log in '" + directory + "' failed", e);
+      }
+    }
+  }
+
+  /**
+   * Writes the current state to a new snapshot which atomically replaces the
+   * previous one, then truncates the log. A crash before the truncation only
+   * replays log records which are already contained in the snapshot.
+   */
+  private void compact() throws IOException {
+    Path tempFile = Files.createTempFile(directory, SNAPSHOT_FILE, ".tmp");
+    try (FileChannel snapshot = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+      for (Map.Entry<String, String> entry : state.entrySet()) {
+        ByteBuffer record = encode(PUT, entry.getKey(), entry.getValue());
+        while (record.hasRemaining()) {
+          snapshot.write(record);
+        }
+      }
+      snapshot.force(true);
+    }
+    Files.move(tempFile, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    long logSize = log.size();
+    log.truncate(0);
+    log.position(0);
+    log.force(true);
+    LOG.debug("Compacted {} bytes of state log into snapshot with {} entries", logSize, state.size());
+  }
+
+  /**
+   * Adds the given record to the buffer. A full buffer is written to the log
+   * first, and records exceeding the buffer's capacity are written directly.
+   */
+  private void append(ByteBuffer record) {
+    try {
+      if (record.remaining() > buffer.remaining()) {
+        drain();
+      }
+      if (record.remaining() > buffer.remaining()) {
+        write(record);
+      } else {
+        buffer.put(record);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Appending to state log in '" + directory + "' failed", e);
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    try {
+      write(buffer);
+    } finally {
+      buffer.compact();
+    }
+  }
+
+  private void write(ByteBuffer record) throws IOException {
+    while (record.hasRemaining()) {
+      log.write(record);
+    }
+  }
+
+  /**
+   * Record layout: payload length, CRC32 of payload, operation, key length,
+   * key, value length, value (the latter two for {@link #PUT} only).
+   */
+  private ByteBuffer encode(byte operation, String key, String value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] valueBytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    int payloadSize = 1 + Integer.BYTES + keyBytes.length
+        + (valueBytes != null ? Integer.BYTES + valueBytes.length : 0);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+    record.putInt(payloadSize).putInt(0).put(operation).putInt(keyBytes.length).put(keyBytes);
+    if (valueBytes != null) {
+      record.putInt(valueBytes.length).put(valueBytes);
+    }
+    crc.reset();
+    crc.update(record.array(), HEADER_SIZE, payloadSize);
+    record.putInt(Integer.BYTES, (int) crc.getValue());
+    return record.flip();
+  }
+
+  /**
+   * Applies the records of the given file to the state and returns the size of
+   * the valid part of the file.
+   */
+  private long replay(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() == 0) {
+        return 0;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      while (buffer.remaining() >= HEADER_SIZE) {
+        int start = buffer.position();
+        int payloadSize = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (payloadSize <= 0 || payloadSize > buffer.remaining() || !isValid(buffer, payloadSize, checksum)) {
+          return start;
+        }
+        byte operation = buffer.get();
+        String key = readString(buffer);
+        if (operation == PUT) {
+          state.put(key, readString(buffer));
+        } else {
+          state.remove(key);
+        }
+      }
+      return buffer.position();
+    }
+  }
+
+  private boolean isValid(ByteBuffer buffer, int payloadSize, int checksum) {
+    ByteBuffer payload = buffer.slice(buffer.position(), payloadSize);
+    crc.reset();
+    crc.update(payload);
+    return (int) crc.getValue() == checksum;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
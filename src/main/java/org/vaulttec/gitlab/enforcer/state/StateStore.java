@@ -0,0 +1,36 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.state;
+
+/**
+ * Key-value store for state which has to survive between enforcer runs, e.g.
+ * sweep checkpoints.
+ */
+public interface StateStore {
+
+  String get(String key);
+
+  void put(String key, String value);
+
+  void remove(String key);
+
+  /**
+   * Writes all pending changes to the underlying storage (if any).
+   */
+  void flush();
+}
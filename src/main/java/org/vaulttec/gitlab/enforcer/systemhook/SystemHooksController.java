@@ -17,8 +17,16 @@
  */
 package org.vaulttec.gitlab.enforcer.systemhook;
 
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -27,6 +35,12 @@ import org.springframework.web.bind.annotation.RestController;
 import org.vaulttec.gitlab.enforcer.EnforcerClient;
 import org.vaulttec.gitlab.enforcer.EnforcerConfig;
 import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+import org.vaulttec.gitlab.enforcer.VirtualThreadTaskExecutor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 @RestController
 public class SystemHooksController {
@@ -35,22 +49,66 @@ public class SystemHooksController {
 
   private final EnforcerClient client;
   private final EnforcerConfig config;
+  private final TaskExecutor hookExecutor;
+  private final Counter rejectedCounter;
+  private final Timer queueLatency;
 
-  public SystemHooksController(EnforcerClient client, EnforcerConfig config) {
+  public SystemHooksController(EnforcerClient client, EnforcerConfig config,
+      @Qualifier("hookTaskExecutor") TaskExecutor hookExecutor, MeterRegistry meterRegistry) {
     this.client = client;
     this.config = config;
+    this.hookExecutor = hookExecutor;
+    Gauge.builder("enforcer.hooks.queued", hookExecutor, SystemHooksController::getQueueSize)
+        .description("Number of system hook events waiting for processing").register(meterRegistry);
+    Gauge.builder("enforcer.hooks.active", hookExecutor, SystemHooksController::getActiveCount)
+        .description("Number of system hook events currently processed").register(meterRegistry);
+    this.rejectedCounter = Counter.builder("enforcer.hooks.rejected")
+        .description("Number of system hook events rejected because of a full queue").register(meterRegistry);
+    this.queueLatency = Timer.builder("enforcer.hooks.latency")
+        .description("Time system hook events wait in the queue before processing").publishPercentileHistogram()
+        .register(meterRegistry);
   }
 
   @PostMapping(value = "/systemhooks", consumes = "application/json")
-  public void process(@RequestHeader(name = "X-Gitlab-Event") String header,
-                      @RequestHeader(name = "X-Gitlab-Token") String token, @RequestBody SystemEvent event) {
+  public ResponseEntity<Void> process(@RequestHeader(name = "X-Gitlab-Event") String header,
+                                      @RequestHeader(name = "X-Gitlab-Token") String token, @RequestBody SystemEvent event) {
     if (StringUtils.hasText(config.getSystemHookToken()) && !config.getSystemHookToken().equals(token)) {
       LOG.warn("Unexpected token '{}' - ignoring {} event '{}'", token, header, event.getEventName());
     } else {
       if (event.getEventName() != SystemEventName.OTHER) {
-        LOG.info("Processing {} event '{}'", header, event.getEventName());
-        client.enforce(EnforcerExecution.HOOK, event);
+        long queued = System.nanoTime();
+        try {
+          hookExecutor.execute(() -> {
+            queueLatency.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+            LOG.info("Processing {} event '{}'", header, event.getEventName());
+            try {
+              client.enforce(EnforcerExecution.HOOK, event);
+            } catch (RuntimeException e) {
+              LOG.error("Processing {} event '{}' failed", header, event.getEventName(), e);
+            }
+          });
+          return ResponseEntity.accepted().build();
+        } catch (TaskRejectedException e) {
+          LOG.warn("Queue full - rejecting {} event '{}'", header, event.getEventName());
+          rejectedCounter.increment();
+          return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
       }
     }
+    return ResponseEntity.ok().build();
+  }
+
+  private static double getQueueSize(TaskExecutor executor) {
+    if (executor instanceof VirtualThreadTaskExecutor) {
+      return ((VirtualThreadTaskExecutor) executor).getQueueSize();
+    }
+    return ((ThreadPoolTaskExecutor) executor).getThreadPoolExecutor().getQueue().size();
+  }
+
+  private static double getActiveCount(TaskExecutor executor) {
+    if (executor instanceof VirtualThreadTaskExecutor) {
+      return ((VirtualThreadTaskExecutor) executor).getActiveCount();
+    }
+    return ((ThreadPoolTaskExecutor) executor).getActiveCount();
   }
 }
@@ -0,0 +1,318 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClient.RequestBodyUriSpec;
+import org.springframework.web.reactive.function.client.WebClient.RequestHeadersSpec;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.transport.ProxyProvider;
+import reactor.util.retry.Retry;
+
+/**
+ * Non-blocking counterpart of {@link AbstractRestClient} based on a
+ * {@link WebClient}. Single objects are returned as {@link Mono} and lists as
+ * {@link Flux} which requests the next page (via the <code>Link</code> header)
+ * only when the entities of the given number of pages ahead are consumed.
+ * <p>
+ * Failed requests are retried like by the {@link RetryHandler} (only
+ * idempotent methods with a transient error) and requests rejected with 429
+ * (Too Many Requests) after the time announced by the server. Every request is
+ * recorded with the same meters as by {@link RequestMetrics} (except the
+ * response size). All errors are logged and passed on to the subscriber.
+ */
+public abstract class AbstractReactiveRestClient implements DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AbstractReactiveRestClient.class);
+
+  private static final Set<HttpMethod> IDEMPOTENT_METHODS = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD,
+      HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE);
+  private static final Set<HttpStatus> TRANSIENT_STATUS = EnumSet.of(HttpStatus.BAD_GATEWAY,
+      HttpStatus.SERVICE_UNAVAILABLE, HttpStatus.GATEWAY_TIMEOUT);
+  private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+  private static final int MAX_IN_MEMORY_SIZE = 16 * 1024 * 1024;
+
+  protected final RestClientConfig config;
+  protected final ConnectionProvider connectionProvider;
+  protected final WebClient webClient;
+  protected final MeterRegistry meterRegistry;
+  private final String meterPrefix;
+  private final int prefetchPages;
+  private final long backoffMillis;
+  private final long maxBackoffMillis;
+  private final HttpHeaders authenticationHeaders = new HttpHeaders();
+
+  /**
+   * @param prefetchPages number of pages requested ahead of the page currently
+   *                      consumed
+   */
+  public AbstractReactiveRestClient(RestClientConfig config, WebClient.Builder webClientBuilder,
+      int prefetchPages, MeterRegistry meterRegistry, String meterPrefix) {
+    this.config = config;
+    this.meterRegistry = meterRegistry;
+    this.meterPrefix = meterPrefix;
+    this.prefetchPages = Math.max(prefetchPages, 1);
+    this.backoffMillis = Math.max(config.getRetryBackoff().toMillis(), 1);
+    this.maxBackoffMillis = Math.max(config.getMaxRetryBackoff().toMillis(), backoffMillis);
+    this.connectionProvider = createConnectionProvider(config);
+    this.webClient = webClientBuilder.clientConnector(new ReactorClientHttpConnector(createHttpClient(config)))
+        .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(MAX_IN_MEMORY_SIZE)).build();
+  }
+
+  /**
+   * Creates the connection pool. Requests waiting for a connection are queued
+   * without occupying a thread.
+   */
+  private static ConnectionProvider createConnectionProvider(RestClientConfig config) {
+    return ConnectionProvider.builder("rest-client").maxConnections(config.getMaxConnectionsPerRoute())
+        .pendingAcquireMaxCount(-1).maxIdleTime(config.getKeepAlive()).build();
+  }
+
+  private HttpClient createHttpClient(RestClientConfig config) {
+    HttpClient httpClient = HttpClient.create(connectionProvider);
+    Proxy proxy = config.getProxy();
+    if (proxy != null && proxy.address() instanceof InetSocketAddress) {
+      InetSocketAddress address = (InetSocketAddress) proxy.address();
+      httpClient = httpClient.proxy(spec -> spec.type(ProxyProvider.Proxy.HTTP).host(address.getHostString())
+          .port(address.getPort()));
+    }
+    return httpClient;
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    connectionProvider.disposeLater().block(Duration.ofSeconds(10));
+  }
+
+  protected String perPageAsString() {
+    return Integer.toString(config.getPerPage());
+  }
+
+  protected String getApiUrl(String apiCall) {
+    return config.getServerUrl() + config.getApiPath() + apiCall;
+  }
+
+  /**
+   * Returns the given API call without query parameters, e.g. for tagging
+   * metrics.
+   */
+  protected String getEndpoint(String apiCall) {
+    int index = apiCall.indexOf('?');
+    return index < 0 ? apiCall : apiCall.substring(0, index);
+  }
+
+  protected Map<String, String> createUriVariables(String... variables) {
+    if (variables.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of arguments");
+    }
+    Map<String, String> uriVariables = new HashMap<>();
+    for (int i = 0; i < variables.length; i += 2) {
+      uriVariables.put(variables[i], variables[i + 1]);
+    }
+    return uriVariables;
+  }
+
+  protected void prepareAuthenticationHeader(String headerName, String headerValue) {
+    authenticationHeaders.setContentType(MediaType.APPLICATION_JSON);
+    authenticationHeaders.set(headerName, headerValue);
+  }
+
+  protected <T> Mono<T> makeReadApiCall(String apiCall, HttpMethod method,
+      ParameterizedTypeReference<T> typeReference, Map<String, String> uriVariables) {
+    String url = getApiUrl(apiCall);
+    return exchange(method, getEndpoint(apiCall), spec -> spec.uri(url, uriVariables), typeReference)
+        .flatMap(response -> Mono.justOrEmpty(response.getBody()))
+        .doOnError(e -> logException(method, uriVariables, url, e));
+  }
+
+  /**
+   * Returns the entities of all pages. The first page is requested on
+   * subscription and every further page when the subscriber has consumed the
+   * entities of the pages requested ahead. A transient failure is retried for
+   * the failed page only.
+   */
+  protected <T> Flux<T> makeReadListApiCall(String apiCall, HttpMethod method,
+      ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables) {
+    String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
+    uriVariables.put("perPage", perPageAsString());
+    String endpoint = getEndpoint(apiCall);
+    Counter pages = Counter.builder(meterPrefix + ".api.pages")
+        .description("Pages retrieved from paginated API calls").tag("endpoint", endpoint).register(meterRegistry);
+    return exchange(method, endpoint, spec -> spec.uri(url, uriVariables), typeReference).expand(response -> {
+      URI nextPageUri = getNextPageUri(response.getHeaders());
+      return nextPageUri != null ? exchange(method, endpoint, spec -> spec.uri(nextPageUri), typeReference)
+          : Mono.empty();
+    }).doOnNext(response -> pages.increment())
+        .concatMapIterable(response -> response.getBody() != null ? response.getBody() : List.<T>of(),
+            prefetchPages)
+        .doOnError(e -> logException(method, uriVariables, url, e));
+  }
+
+  protected Mono<Void> makeWriteApiCall(String apiCall, HttpMethod method, Map<String, String> uriVariables) {
+    String url = getApiUrl(apiCall);
+    return exchange(method, getEndpoint(apiCall), spec -> spec.uri(url, uriVariables),
+        new ParameterizedTypeReference<Void>() {
+        }).then().doOnError(e -> logException(method, uriVariables, url, e));
+  }
+
+  private static URI getNextPageUri(HttpHeaders headers) {
+    LinkHeader linkHeader = LinkHeader.parse(headers);
+    if (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
+      return linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
+    }
+    return null;
+  }
+
+  /**
+   * Sends a request (on subscription) with retries and records its latency and
+   * status.
+   */
+  private <T> Mono<ResponseEntity<T>> exchange(HttpMethod method, String endpoint,
+      Function<RequestBodyUriSpec, RequestHeadersSpec<?>> uri, ParameterizedTypeReference<T> typeReference) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      return uri.apply(webClient.method(method)).headers(headers -> headers.addAll(authenticationHeaders))
+          .retrieve().toEntity(typeReference)
+          .doOnNext(response -> record(method, endpoint, start, Integer.toString(response.getStatusCodeValue())))
+          .doOnError(e -> record(method, endpoint, start,
+              e instanceof WebClientResponseException
+                  ? Integer.toString(((WebClientResponseException) e).getRawStatusCode())
+                  : "IO_ERROR"));
+    }).retryWhen(createRetry(method, endpoint));
+  }
+
+  private void record(HttpMethod method, String endpoint, long start, String status) {
+    Timer.builder(meterPrefix + ".api.requests").description("Latency of API requests").tag("method", method.name())
+        .tag("endpoint", endpoint).tag("status", status).publishPercentileHistogram().register(meterRegistry)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates the retry strategy for the given API call: requests rejected with
+   * 429 are retried after the time given by the server, transient failures of
+   * idempotent requests with an exponential backoff.
+   */
+  private Retry createRetry(HttpMethod method, String endpoint) {
+    return Retry.from(signals -> signals.concatMap(signal -> {
+      Throwable failure = signal.failure();
+      long attempt = signal.totalRetries();
+      Duration delay;
+      if (isRateLimited(failure) && attempt < config.getRateLimitRetries()) {
+        delay = getRetryAfter(((WebClientResponseException) failure).getHeaders());
+      } else if (attempt < config.getMaxRetries() && isRetryable(method, failure)) {
+        delay = getBackoff(attempt);
+      } else {
+        return Mono.error(failure);
+      }
+      LOG.debug("API call {} '{}' failed with '{}' - retrying in {} ms", method, endpoint, failure.getMessage(),
+          delay.toMillis());
+      Counter.builder(meterPrefix + ".api.retries").tag("method", method.name()).tag("endpoint", endpoint)
+          .description("Retries of failed API calls").register(meterRegistry).increment();
+      return Mono.delay(delay);
+    }));
+  }
+
+  private static boolean isRateLimited(Throwable e) {
+    return e instanceof WebClientResponseException
+        && ((WebClientResponseException) e).getRawStatusCode() == HttpStatus.TOO_MANY_REQUESTS.value();
+  }
+
+  private static boolean isRetryable(HttpMethod method, Throwable e) {
+    if (!IDEMPOTENT_METHODS.contains(method)) {
+      return false;
+    }
+    if (e instanceof WebClientResponseException) {
+      HttpStatus status = HttpStatus.resolve(((WebClientResponseException) e).getRawStatusCode());
+      return status != null && TRANSIENT_STATUS.contains(status);
+    }
+    return e instanceof WebClientRequestException;
+  }
+
+  /**
+   * Returns the exponential backoff for the given attempt with a random jitter
+   * of up to half of it.
+   */
+  private Duration getBackoff(long attempt) {
+    long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 30));
+    return Duration.ofMillis(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+  }
+
+  /**
+   * Returns the time given by the {@value RateLimitInterceptor#RETRY_AFTER_HEADER}
+   * or {@value RateLimitInterceptor#RESET_HEADER} header.
+   */
+  private static Duration getRetryAfter(HttpHeaders headers) {
+    try {
+      String retryAfter = headers.getFirst(RateLimitInterceptor.RETRY_AFTER_HEADER);
+      if (retryAfter != null) {
+        return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+      }
+      String reset = headers.getFirst(RateLimitInterceptor.RESET_HEADER);
+      if (reset != null) {
+        return Duration.ofMillis(Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim()))
+            - System.currentTimeMillis(), 0));
+      }
+    } catch (NumberFormatException e) {
+      // ignore invalid header, e.g. HTTP date in Retry-After
+    }
+    return DEFAULT_RETRY_AFTER;
+  }
+
+  private void logException(HttpMethod method, Map<String, String> uriVariables, String url, Throwable e) {
+    if (e instanceof WebClientResponseException) {
+      LOG.error("API call {} '{}' {} failed with {}: {}", method.name(), url, uriVariables, e.getMessage(),
+          ((WebClientResponseException) e).getResponseBodyAsString());
+    } else if (e instanceof WebClientRequestException) {
+      LOG.error("API call {} '{}' {} failed with {}", method.name(), url, uriVariables, e.getMessage());
+    } else {
+      LOG.error("API call {} '{}' {} failed", method.name(), url, uriVariables, e);
+    }
+  }
+}
@@ -17,13 +17,25 @@
  */
 package org.vaulttec.http.client;
 
+import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
@@ -31,32 +43,98 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 
-public abstract class AbstractRestClient {
+public abstract class AbstractRestClient implements DisposableBean {
 
   private static final Logger LOG = LoggerFactory.getLogger(AbstractRestClient.class);
 
   protected final RestClientConfig config;
+  protected final ClientHttpRequestFactory requestFactory;
   protected final RestTemplate restTemplate;
+  protected final RetryHandler retryHandler;
+  protected final RequestMetrics requestMetrics;
   protected HttpEntity<String> authenticationEntity;
 
-  public AbstractRestClient(RestClientConfig config, RestTemplateBuilder restTemplateBuilder) {
+  /**
+   * @param requestMetrics added as the last interceptor (optional)
+   */
+  public AbstractRestClient(RestClientConfig config, RestTemplateBuilder restTemplateBuilder,
+      RetryHandler retryHandler, RequestMetrics requestMetrics) {
     this.config = config;
-    this.restTemplate = createRestTemplate(restTemplateBuilder, config.getProxy());
+    this.retryHandler = retryHandler;
+    this.requestMetrics = requestMetrics;
+    this.requestFactory = createRequestFactory(config);
+    if (requestMetrics != null) {
+      restTemplateBuilder = restTemplateBuilder.additionalInterceptors(requestMetrics);
+    }
+    this.restTemplate = restTemplateBuilder.requestFactory(() -> requestFactory).build();
+  }
+
+  /**
+   * Creates the HTTP transport used by the {@link RestTemplate}. Subclasses may
+   * override this to plug in a different HTTP client.
+   */
+  protected ClientHttpRequestFactory createRequestFactory(RestClientConfig config) {
+    if (config.getTransport() == Transport.POOLED) {
+      return createPooledRequestFactory(config);
+    }
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    if (config.getProxy() != null) {
+      requestFactory.setProxy(config.getProxy());
+    }
+    return requestFactory;
   }
 
-  private RestTemplate createRestTemplate(RestTemplateBuilder restTemplateBuilder, Proxy proxy) {
-    RestTemplate restTemplate = restTemplateBuilder.build();
-    if (proxy != null) {
-      SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-      requestFactory.setProxy(proxy);
-      restTemplate.setRequestFactory(requestFactory);
+  private ClientHttpRequestFactory createPooledRequestFactory(RestClientConfig config) {
+    long keepAliveMillis = config.getKeepAlive().toMillis();
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(config.getMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+    HttpClientBuilder httpClientBuilder = HttpClients.custom().setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(createKeepAliveStrategy(keepAliveMillis))
+        .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS).evictExpiredConnections()
+        .useSystemProperties();
+    Proxy proxy = config.getProxy();
+    if (proxy != null && proxy.address() instanceof InetSocketAddress) {
+      InetSocketAddress address = (InetSocketAddress) proxy.address();
+      httpClientBuilder.setProxy(new HttpHost(address.getHostString(), address.getPort()));
+    }
+    return new HttpComponentsClientHttpRequestFactory(httpClientBuilder.build());
+  }
+
+  /**
+   * Keeps idle connections open as long as the server allows (via the
+   * <code>Keep-Alive</code> header) but not longer than the configured time.
+   */
+  private static ConnectionKeepAliveStrategy createKeepAliveStrategy(long keepAliveMillis) {
+    return (response, context) -> {
+      BasicHeaderElementIterator iterator = new BasicHeaderElementIterator(
+          response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+      while (iterator.hasNext()) {
+        HeaderElement element = iterator.nextElement();
+        if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+          try {
+            return Math.min(Long.parseLong(element.getValue()) * 1000, keepAliveMillis);
+          } catch (NumberFormatException e) {
+            // ignore invalid header
+          }
+        }
+      }
+      return keepAliveMillis;
+    };
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (requestFactory instanceof DisposableBean) {
+      ((DisposableBean) requestFactory).destroy();
     }
-    return restTemplate;
   }
 
   protected String perPageAsString() {
@@ -67,6 +145,26 @@ public abstract class AbstractRestClient {
     return config.getServerUrl() + config.getApiPath() + apiCall;
   }
 
+  /**
+   * Returns the given API call without query parameters, e.g. for tagging
+   * metrics.
+   */
+  protected String getEndpoint(String apiCall) {
+    int index = apiCall.indexOf('?');
+    return index < 0 ? apiCall : apiCall.substring(0, index);
+  }
+
+  /**
+   * Executes the given API call with retries and the endpoint bound to the
+   * request metrics.
+   */
+  protected <T> T execute(HttpMethod method, String endpoint, Supplier<T> call) {
+    if (requestMetrics == null) {
+      return retryHandler.execute(method, endpoint, call);
+    }
+    return retryHandler.execute(method, endpoint, () -> requestMetrics.record(endpoint, call));
+  }
+
   protected Map<String, String> createUriVariables(String... variables) {
     if (variables.length % 2 != 0) {
       throw new IllegalStateException("Key-value required - uneven number of arguments");
@@ -89,8 +187,8 @@ public abstract class AbstractRestClient {
       Map<String, String> uriVariables) {
     String url = getApiUrl(apiCall);
     try {
-      ResponseEntity<T> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
+      ResponseEntity<T> response = execute(method, getEndpoint(apiCall),
+          () -> restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables));
       return response.getBody();
     } catch (Exception e) {
       logException(method, uriVariables, url, e);
@@ -102,8 +200,8 @@ public abstract class AbstractRestClient {
       ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables) {
     String url = getApiUrl(apiCall);
     try {
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
+      ResponseEntity<List<T>> response = execute(method, getEndpoint(apiCall),
+          () -> restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables));
       return response.getBody();
     } catch (Exception e) {
       logException(method, uriVariables, url, e);
@@ -114,7 +212,8 @@ public abstract class AbstractRestClient {
   protected boolean makeWriteApiCall(String apiCall, HttpMethod method, Map<String, String> uriVariables) {
     String url = getApiUrl(apiCall);
     try {
-      restTemplate.exchange(url, method, authenticationEntity, Void.class, uriVariables);
+      execute(method, getEndpoint(apiCall),
+          () -> restTemplate.exchange(url, method, authenticationEntity, Void.class, uriVariables));
       return true;
     } catch (Exception e) {
       logException(method, uriVariables, url, e);
@@ -0,0 +1,405 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Caches the responses of GET requests carrying an <code>ETag</code> header
+ * and revalidates them via <code>If-None-Match</code>. If the server responds
+ * with 304 (Not Modified) then the cached response is returned instead.
+ * <p>
+ * The cached responses are bounded by the total size of their bodies and
+ * evicted in least-recently-used order. If a spill directory is given then
+ * evicted responses are moved there (bounded by their own total size) instead
+ * of being dropped. Spilled responses are written, read and deleted outside of
+ * the cache's lock.
+ */
+public class ETagCacheInterceptor implements ClientHttpRequestInterceptor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ETagCacheInterceptor.class);
+
+  private final long maxSize;
+  private final Path spillDirectory;
+  private final long maxSpillSize;
+  private final Counter hitCounter;
+  private final Counter missCounter;
+  private final Counter savedBytesCounter;
+
+  private final AtomicLong spillSequence = new AtomicLong();
+
+  // Guarded by this - files are written and deleted outside of the lock
+  private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<String, SpillFile> spilledResponses = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+  private long spillSize;
+
+  /**
+   * @param maxSize        maximum total size of cached response bodies (bytes)
+   * @param spillDirectory directory for evicted responses or <code>null</code>
+   * @param maxSpillSize   maximum total size of spilled response bodies (bytes)
+   */
+  public ETagCacheInterceptor(long maxSize, Path spillDirectory, long maxSpillSize, MeterRegistry meterRegistry,
+      String meterPrefix) {
+    this.maxSize = maxSize;
+    this.spillDirectory = spillDirectory;
+    this.maxSpillSize = maxSpillSize;
+    if (spillDirectory != null) {
+      try {
+        Files.createDirectories(spillDirectory);
+      } catch (IOException e) {
+        throw new IllegalStateException("Creating spill directory '" + spillDirectory + "' failed", e);
+      }
+    }
+    this.hitCounter = Counter.builder(meterPrefix + ".http.cache").tag("result", "hit")
+        .description("Responses revalidated with 304 (Not Modified)").register(meterRegistry);
+    this.missCounter = Counter.builder(meterPrefix + ".http.cache").tag("result", "miss")
+        .description("Responses not served from the cache").register(meterRegistry);
+    this.savedBytesCounter = Counter.builder(meterPrefix + ".http.cache.saved").baseUnit("bytes")
+        .description("Response bytes served from the cache instead of transferred").register(meterRegistry);
+    Gauge.builder(meterPrefix + ".http.cache.size", this, ETagCacheInterceptor::getSize).baseUnit("bytes")
+        .description("Total size of cached response bodies in memory").register(meterRegistry);
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+      throws IOException {
+    if (request.getMethod() != HttpMethod.GET) {
+      return execution.execute(request, body);
+    }
+    String key = request.getURI().toString();
+    CachedResponse cached = get(key);
+    if (cached != null) {
+      request.getHeaders().setIfNoneMatch(cached.etag);
+    }
+    ClientHttpResponse response = execution.execute(request, body);
+    if (cached != null && response.getRawStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+      response.close();
+      hitCounter.increment();
+      savedBytesCounter.increment(cached.body.length);
+      return cached.toResponse();
+    }
+    missCounter.increment();
+    String etag = response.getHeaders().getETag();
+    if (response.getRawStatusCode() != HttpStatus.OK.value() || etag == null) {
+      if (cached != null) {
+        remove(key);
+      }
+      return response;
+    }
+    CachedResponse fresh;
+    try {
+      fresh = new CachedResponse(etag, response.getRawStatusCode(), response.getStatusText(),
+          response.getHeaders(), StreamUtils.copyToByteArray(response.getBody()));
+    } finally {
+      response.close();
+    }
+    put(key, fresh);
+    return fresh.toResponse();
+  }
+
+  private CachedResponse get(String key) {
+    SpillFile spilled;
+    synchronized (this) {
+      CachedResponse cached = responses.get(key);
+      spilled = cached == null ? spilledResponses.remove(key) : null;
+      if (spilled == null) {
+        return cached;
+      }
+      spillSize -= spilled.size;
+    }
+    CachedResponse cached = spilled.read();
+    if (cached != null) {
+      put(key, cached);
+    }
+    return cached;
+  }
+
+  /**
+   * Adds the given response to the in-memory cache. The responses evicted
+   * hereby are spilled to disk after releasing the lock.
+   */
+  private void put(String key, CachedResponse response) {
+    List<SpillFile> spills = new ArrayList<>();
+    List<SpillFile> deletes = new ArrayList<>();
+    synchronized (this) {
+      remove(key, deletes);
+      if (response.body.length <= maxSize) {
+        responses.put(key, response);
+        size += response.body.length;
+        Iterator<Map.Entry<String, CachedResponse>> iterator = responses.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+          Map.Entry<String, CachedResponse> eldest = iterator.next();
+          iterator.remove();
+          size -= eldest.getValue().body.length;
+          spill(eldest.getKey(), eldest.getValue(), spills, deletes);
+        }
+      }
+    }
+    spills.forEach(this::write);
+    deletes.forEach(SpillFile::delete);
+  }
+
+  private void remove(String key) {
+    List<SpillFile> deletes = new ArrayList<>();
+    synchronized (this) {
+      remove(key, deletes);
+    }
+    deletes.forEach(SpillFile::delete);
+  }
+
+  private void remove(String key, List<SpillFile> deletes) {
+    CachedResponse removed = responses.remove(key);
+    if (removed != null) {
+      size -= removed.body.length;
+    }
+    SpillFile spilled = spilledResponses.remove(key);
+    if (spilled != null) {
+      spillSize -= spilled.size;
+      deletes.add(spilled);
+    }
+  }
+
+  /**
+   * Registers the given evicted response as spilled and evicts the eldest
+   * spilled responses exceeding the maximum spill size. The files are written
+   * and deleted by the caller after releasing the lock.
+   */
+  private void spill(String key, CachedResponse response, List<SpillFile> spills, List<SpillFile> deletes) {
+    if (spillDirectory == null || response.body.length > maxSpillSize) {
+      return;
+    }
+    SpillFile spilled = new SpillFile(key, getSpillFile(key), response);
+    spilledResponses.put(key, spilled);
+    spillSize += spilled.size;
+    spills.add(spilled);
+    Iterator<Map.Entry<String, SpillFile>> iterator = spilledResponses.entrySet().iterator();
+    while (spillSize > maxSpillSize && iterator.hasNext()) {
+      Map.Entry<String, SpillFile> eldest = iterator.next();
+      iterator.remove();
+      spillSize -= eldest.getValue().size;
+      deletes.add(eldest.getValue());
+    }
+  }
+
+  /**
+   * Writes the given spilled response. If writing failed then the spilled
+   * response is discarded.
+   */
+  private void write(SpillFile spilled) {
+    if (!spilled.write()) {
+      synchronized (this) {
+        if (spilledResponses.remove(spilled.key, spilled)) {
+          spillSize -= spilled.size;
+        }
+      }
+    }
+  }
+
+  private Path getSpillFile(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+        name.append(String.format("%02x", b));
+      }
+      name.append('-').append(spillSequence.incrementAndGet());
+      return spillDirectory.resolve(name.append(".response").toString());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Evicted response stored on disk. Every spilled response uses its own file,
+   * so writing and deleting files for the same key never interfere. Until
+   * written the response is kept in memory.
+   */
+  private static class SpillFile {
+    private final String key;
+    private final Path file;
+    private final long size;
+    // Guarded by this
+    private CachedResponse response;
+    private boolean deleted;
+
+    private SpillFile(String key, Path file, CachedResponse response) {
+      this.key = key;
+      this.file = file;
+      this.size = response.body.length;
+      this.response = response;
+    }
+
+    private synchronized boolean write() {
+      if (deleted) {
+        return true;
+      }
+      try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+        response.write(out);
+      } catch (IOException e) {
+        LOG.warn("Spilling cached response of '{}' failed", key, e);
+        delete();
+        return false;
+      }
+      response = null;
+      return true;
+    }
+
+    private synchronized CachedResponse read() {
+      if (response != null || deleted) {
+        CachedResponse unwritten = response;
+        delete();
+        return unwritten;
+      }
+      try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+        return CachedResponse.read(in);
+      } catch (IOException e) {
+        LOG.warn("Reading spilled response of '{}' failed", key, e);
+        return null;
+      } finally {
+        delete();
+      }
+    }
+
+    private synchronized void delete() {
+      deleted = true;
+      response = null;
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        LOG.debug("Deleting spilled response of '{}' failed", key, e);
+      }
+    }
+  }
+
+  private static class CachedResponse {
+    private final String etag;
+    private final int status;
+    private final String statusText;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    private CachedResponse(String etag, int status, String statusText, HttpHeaders headers, byte[] body) {
+      this.etag = etag;
+      this.status = status;
+      this.statusText = statusText;
+      this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+      this.body = body;
+    }
+
+    private ClientHttpResponse toResponse() {
+      return new ClientHttpResponse() {
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+          return HttpStatus.valueOf(status);
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+          return status;
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+          return statusText;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+          return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+          return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+      out.writeUTF(etag);
+      out.writeInt(status);
+      out.writeUTF(statusText);
+      out.writeInt(headers.size());
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        out.writeUTF(header.getKey());
+        out.writeInt(header.getValue().size());
+        for (String value : header.getValue()) {
+          out.writeUTF(value);
+        }
+      }
+      out.writeInt(body.length);
+      out.write(body);
+    }
+
+    private static CachedResponse read(DataInputStream in) throws IOException {
+      String etag = in.readUTF();
+      int status = in.readInt();
+      String statusText = in.readUTF();
+      HttpHeaders headers = new HttpHeaders();
+      for (int i = in.readInt(); i > 0; i--) {
+        String name = in.readUTF();
+        for (int j = in.readInt(); j > 0; j--) {
+          headers.add(name, in.readUTF());
+        }
+      }
+      byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      return new CachedResponse(etag, status, statusText, headers, body);
+    }
+  }
+}
@@ -28,6 +28,8 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.util.StringUtils;
 
 public class LinkHeader {
+  private static final Pattern LINK_SEPARATOR_PATTERN = Pattern.compile(",\\s*(?=<)");
+
   private final Map<Rel, Link> links;
 
   public LinkHeader(Map<Rel, Link> links) {
@@ -45,7 +47,8 @@ public class LinkHeader {
   public static final LinkHeader parse(HttpHeaders headers) {
     String linkValue = headers.getFirst(HttpHeaders.LINK);
     if (StringUtils.hasText(linkValue)) {
-      String[] linkValues = linkValue.split(",");
+      // Split only at commas followed by the next link - keyset cursors may contain commas
+      String[] linkValues = LINK_SEPARATOR_PATTERN.split(linkValue);
       if (linkValues.length > 0) {
         Map<Rel, Link> links = new HashMap<>();
         for (int i = 0; i < linkValues.length; i++) {
@@ -83,6 +86,7 @@ public class LinkHeader {
     private URI resourceUri;
     private int page;
     private int perPage;
+    private boolean keyset;
     private Rel rel;
 
     public URI getResourceUri() {
@@ -97,14 +101,27 @@ public class LinkHeader {
       return perPage;
     }
 
+    /**
+     * Returns <code>true</code> if this link points to a page of a keyset
+     * pagination. These links carry a cursor instead of a page number.
+     */
+    public boolean isKeyset() {
+      return keyset;
+    }
+
     public Rel getRel() {
       return rel;
     }
 
     public Link(URI resourceUri, int page, int perPage, Rel rel) {
+      this(resourceUri, page, perPage, false, rel);
+    }
+
+    public Link(URI resourceUri, int page, int perPage, boolean keyset, Rel rel) {
       this.resourceUri = resourceUri;
       this.page = page;
       this.perPage = perPage;
+      this.keyset = keyset;
       this.rel = rel;
     }
 
@@ -115,8 +132,9 @@ public class LinkHeader {
       URI resourceUri = getResourceUri(source);
       int page = getPage(resourceUri);
       int perPage = getPerPage(resourceUri);
+      boolean keyset = "keyset".equals(getQueryParameter(resourceUri, "pagination"));
       Rel rel = Rel.fromSource(source);
-      return new Link(resourceUri, page, perPage, rel);
+      return new Link(resourceUri, page, perPage, keyset, rel);
     }
 
     private static URI getResourceUri(String source) {
@@ -143,25 +161,28 @@ public class LinkHeader {
     }
 
     private static int getQueryParameterValue(URI resourceUri, String paramName) {
-      if (resourceUri == null) {
+      String value = getQueryParameter(resourceUri, paramName);
+      if (StringUtils.isEmpty(value)) {
         return -1;
       }
+      return Integer.valueOf(value);
+    }
+
+    private static String getQueryParameter(URI resourceUri, String paramName) {
+      if (resourceUri == null) {
+        return null;
+      }
       String query = resourceUri.getQuery();
       if (query == null)
-        return -1;
+        return null;
       Matcher matcher = QUERY_PATTERN.matcher(query);
       while (matcher.find()) {
         String name = matcher.group(1);
-        String value = matcher.group(2);
         if (name.equals(paramName)) {
-          if (StringUtils.isEmpty(value)) {
-            return -1;
-          } else {
-            return Integer.valueOf(value);
-          }
+          return matcher.group(2);
         }
       }
-      return -1;
+      return null;
     }
   }
 }
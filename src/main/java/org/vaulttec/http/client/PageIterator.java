@@ -0,0 +1,159 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Iterates lazily over the pages of a paginated API call by following the
+ * {@link LinkHeader.Rel#NEXT} link of each response.
+ * <p>
+ * Without an executor a page is only requested when the previous one has been
+ * consumed. With an executor the following pages are requested in the
+ * background while the current page is consumed. If the total number of pages
+ * is known (via {@link LinkHeader.Rel#LAST} or the {@value #TOTAL_PAGES_HEADER}
+ * header) then up to <code>prefetchPages</code> pages are requested in
+ * parallel, otherwise only the next page is requested ahead.
+ */
+public class PageIterator<T> implements Iterator<List<T>> {
+  public static final String TOTAL_PAGES_HEADER = "X-Total-Pages";
+
+  private final Supplier<ResponseEntity<List<T>>> firstPageLoader;
+  private final Function<URI, ResponseEntity<List<T>>> nextPageLoader;
+  private final Executor executor;
+  private final int prefetchPages;
+  private final Deque<CompletableFuture<ResponseEntity<List<T>>>> prefetchedPages = new ArrayDeque<>();
+  private URI nextPageUri;
+  private int lastRequestedPage;
+  private List<T> page;
+  private boolean started;
+
+  public PageIterator(Supplier<ResponseEntity<List<T>>> firstPageLoader,
+      Function<URI, ResponseEntity<List<T>>> nextPageLoader) {
+    this(firstPageLoader, nextPageLoader, null, 0);
+  }
+
+  public PageIterator(Supplier<ResponseEntity<List<T>>> firstPageLoader,
+      Function<URI, ResponseEntity<List<T>>> nextPageLoader, Executor executor, int prefetchPages) {
+    this.firstPageLoader = firstPageLoader;
+    this.nextPageLoader = nextPageLoader;
+    this.executor = executor;
+    this.prefetchPages = executor != null ? prefetchPages : 0;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (page == null) {
+      if (!started) {
+        started = true;
+        loadPage(firstPageLoader.get());
+      } else if (!prefetchedPages.isEmpty()) {
+        loadPage(join(prefetchedPages.poll()));
+      } else if (nextPageUri != null) {
+        loadPage(nextPageLoader.apply(nextPageUri));
+      }
+    }
+    return page != null;
+  }
+
+  @Override
+  public List<T> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    List<T> result = page;
+    page = null;
+    return result;
+  }
+
+  private void loadPage(ResponseEntity<List<T>> response) {
+    LinkHeader linkHeader = LinkHeader.parse(response.getHeaders());
+    LinkHeader.Link nextLink = linkHeader != null ? linkHeader.getLink(LinkHeader.Rel.NEXT) : null;
+    nextPageUri = nextLink != null ? nextLink.getResourceUri() : null;
+    if (prefetchPages > 0 && nextLink != null) {
+      int totalPages = getTotalPages(response.getHeaders(), linkHeader);
+      if (totalPages > 0 && nextLink.getPage() > 0 && !nextLink.isKeyset()) {
+        // Offset pagination with known number of pages - request the following
+        // pages in parallel
+        int lastPage = Math.min(nextLink.getPage() - 1 + prefetchPages, totalPages);
+        for (int pageNumber = Math.max(lastRequestedPage + 1, nextLink.getPage()); pageNumber <= lastPage;
+            pageNumber++) {
+          prefetch(UriComponentsBuilder.fromUri(nextPageUri).replaceQueryParam("page", pageNumber).build(true)
+              .toUri());
+          lastRequestedPage = pageNumber;
+        }
+        nextPageUri = null;
+      } else {
+        // Unknown number of pages (e.g. keyset pagination) - only the next page
+        // can be requested ahead (if not already requested)
+        if (prefetchedPages.isEmpty()) {
+          prefetch(nextPageUri);
+        }
+        nextPageUri = null;
+      }
+    }
+    page = response.getBody() != null ? response.getBody() : Collections.emptyList();
+  }
+
+  private void prefetch(URI uri) {
+    prefetchedPages.add(CompletableFuture.supplyAsync(() -> nextPageLoader.apply(uri), executor));
+  }
+
+  private ResponseEntity<List<T>> join(CompletableFuture<ResponseEntity<List<T>>> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static int getTotalPages(HttpHeaders headers, LinkHeader linkHeader) {
+    LinkHeader.Link lastLink = linkHeader.getLink(LinkHeader.Rel.LAST);
+    if (lastLink != null && lastLink.getPage() > 0) {
+      return lastLink.getPage();
+    }
+    String totalPages = headers.getFirst(TOTAL_PAGES_HEADER);
+    if (StringUtils.hasText(totalPages)) {
+      try {
+        return Integer.parseInt(totalPages.trim());
+      } catch (NumberFormatException e) {
+        // ignore invalid header
+      }
+    }
+    return -1;
+  }
+}
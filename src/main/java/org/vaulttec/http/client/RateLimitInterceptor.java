@@ -0,0 +1,258 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Throttles the requests of all callers of a {@link org.springframework.web.client.RestTemplate}
+ * to stay within the server's rate limit.
+ * <ul>
+ * <li>A token bucket limits the request rate to the configured rate. If the
+ * server reports its rate limit (via the {@value #REMAINING_HEADER} and
+ * {@value #RESET_HEADER} headers) then the rate is reduced to spread the
+ * remaining requests until the reset. With no remaining requests all requests
+ * wait for the reset.</li>
+ * <li>The number of concurrent requests is adapted AIMD-style: it's increased
+ * by one after a window of successful requests and halved if the server
+ * responds with 429 (Too Many Requests).</li>
+ * <li>Requests rejected with 429 are returned to the caller (to be retried by
+ * the {@link RetryHandler}), and all requests wait for the time given by the
+ * {@value #RETRY_AFTER_HEADER} header.</li>
+ * </ul>
+ * Retries must not be done within an interceptor - they would bypass the
+ * interceptors following this one, e.g. the {@link RequestMetrics}.
+ */
+public class RateLimitInterceptor implements ClientHttpRequestInterceptor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RateLimitInterceptor.class);
+
+  public static final String REMAINING_HEADER = "RateLimit-Remaining";
+  public static final String RESET_HEADER = "RateLimit-Reset";
+  public static final String RETRY_AFTER_HEADER = HttpHeaders.RETRY_AFTER;
+
+  private static final long DEFAULT_RETRY_AFTER_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double maxRate;
+  private final int maxConcurrency;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitReleased = lock.newCondition();
+  private final Timer throttledTimer;
+  private final Counter rejectedCounter;
+
+  // Guarded by lock
+  private double tokens;
+  private long lastRefillNanos = System.nanoTime();
+  private double serverRate = Double.POSITIVE_INFINITY;
+  private long serverRateUntilNanos;
+  private long blockedUntilNanos;
+  private double concurrencyLimit;
+  private int inFlight;
+
+  /**
+   * @param maxRate        requests per second (<code>0</code> for no limit)
+   * @param maxConcurrency maximum number of concurrent requests
+   */
+  public RateLimitInterceptor(double maxRate, int maxConcurrency, MeterRegistry meterRegistry, String meterPrefix) {
+    this.maxRate = maxRate > 0 ? maxRate : Double.POSITIVE_INFINITY;
+    this.maxConcurrency = Math.max(maxConcurrency, 1);
+    this.tokens = Math.max(maxRate, 1);
+    this.concurrencyLimit = this.maxConcurrency;
+    this.throttledTimer = Timer.builder(meterPrefix + ".ratelimit.throttled")
+        .description("Time requests waited for the rate limit").register(meterRegistry);
+    this.rejectedCounter = Counter.builder(meterPrefix + ".ratelimit.rejected")
+        .description("Requests rejected by the server with 429 (Too Many Requests)").register(meterRegistry);
+    Gauge.builder(meterPrefix + ".ratelimit.permits", this, RateLimitInterceptor::getConcurrencyLimit)
+        .description("Current limit of concurrent requests").register(meterRegistry);
+  }
+
+  public int getConcurrencyLimit() {
+    lock.lock();
+    try {
+      return (int) concurrencyLimit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+      throws IOException {
+    acquire();
+    ClientHttpResponse response;
+    try {
+      response = execution.execute(request, body);
+    } catch (IOException | RuntimeException e) {
+      release();
+      throw e;
+    }
+    boolean rejected = response.getRawStatusCode() == HttpStatus.TOO_MANY_REQUESTS.value();
+    update(response.getHeaders(), rejected);
+    release();
+    if (rejected) {
+      LOG.debug("{} '{}' rejected by rate limit", request.getMethod(), request.getURI());
+      rejectedCounter.increment();
+    }
+    return response;
+  }
+
+  /**
+   * Waits until a token and a concurrency permit are available.
+   */
+  private void acquire() throws IOException {
+    long start = System.nanoTime();
+    lock.lock();
+    try {
+      while (true) {
+        if (inFlight >= (int) concurrencyLimit) {
+          permitReleased.await();
+          continue;
+        }
+        long now = System.nanoTime();
+        long waitNanos = blockedUntilNanos - now;
+        if (waitNanos <= 0) {
+          waitNanos = takeToken(now);
+        }
+        if (waitNanos <= 0) {
+          inFlight++;
+          break;
+        }
+        permitReleased.awaitNanos(waitNanos);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for rate limit", e);
+    } finally {
+      lock.unlock();
+      long throttledNanos = System.nanoTime() - start;
+      if (throttledNanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+        throttledTimer.record(throttledNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Takes a token from the bucket (if available) and returns <code>0</code>,
+   * otherwise returns the time until the next token is available.
+   */
+  private long takeToken(long now) {
+    double rate = now < serverRateUntilNanos ? Math.min(maxRate, serverRate) : maxRate;
+    if (Double.isInfinite(rate)) {
+      return 0;
+    }
+    tokens = Math.min(Math.max(rate, 1), tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+    lastRefillNanos = now;
+    if (tokens >= 1) {
+      tokens -= 1;
+      return 0;
+    }
+    return Math.max((long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1)), 1);
+  }
+
+  private void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void update(HttpHeaders headers, boolean rejected) {
+    long now = System.nanoTime();
+    long resetNanos = getResetNanos(headers);
+    long remaining = getLongHeader(headers, REMAINING_HEADER, -1);
+    lock.lock();
+    try {
+      if (rejected) {
+        concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+        blockedUntilNanos = Math.max(blockedUntilNanos, now + getRetryAfterNanos(headers));
+      } else {
+        concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+        if (remaining >= 0 && resetNanos > 0) {
+          if (remaining == 0) {
+            blockedUntilNanos = Math.max(blockedUntilNanos, now + resetNanos);
+          } else {
+            // Spread the remaining requests until the reset
+            serverRate = remaining / Math.max(resetNanos / (double) TimeUnit.SECONDS.toNanos(1), 1);
+            serverRateUntilNanos = now + resetNanos;
+          }
+        }
+      }
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the time to wait before retrying a request rejected with 429 given
+   * by the {@value #RETRY_AFTER_HEADER} or {@value #RESET_HEADER} header
+   * (defaults to one second).
+   */
+  static long getRetryAfterNanos(HttpHeaders headers) {
+    long retryAfter = getLongHeader(headers, RETRY_AFTER_HEADER, -1);
+    if (retryAfter >= 0) {
+      return TimeUnit.SECONDS.toNanos(retryAfter);
+    }
+    long resetNanos = getResetNanos(headers);
+    return resetNanos > 0 ? resetNanos : DEFAULT_RETRY_AFTER_NANOS;
+  }
+
+  /**
+   * Returns the time until the reset given as UNIX timestamp by the
+   * {@value #RESET_HEADER} header or <code>0</code>.
+   */
+  private static long getResetNanos(HttpHeaders headers) {
+    long reset = getLongHeader(headers, RESET_HEADER, -1);
+    if (reset < 0) {
+      return 0;
+    }
+    return Math.max(TimeUnit.MILLISECONDS.toNanos(TimeUnit.SECONDS.toMillis(reset) - System.currentTimeMillis()), 0);
+  }
+
+  private static long getLongHeader(HttpHeaders headers, String name, long defaultValue) {
+    String value = headers.getFirst(name);
+    if (value != null) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        // ignore invalid header, e.g. HTTP date in Retry-After
+      }
+    }
+    return defaultValue;
+  }
+}
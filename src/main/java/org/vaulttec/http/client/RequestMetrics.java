@@ -0,0 +1,166 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records the latency (until the response headers are received) and the status
+ * of every request as well as the size of every response body. Should be the
+ * last interceptor, so only requests actually sent to the server are measured.
+ * The meters are tagged with the endpoint bound via
+ * {@link #record(String, Supplier)} by the calling thread, because the request
+ * itself only provides the expanded URI.
+ */
+public class RequestMetrics implements ClientHttpRequestInterceptor {
+
+  private static final ThreadLocal<String> ENDPOINT = new ThreadLocal<>();
+  private static final String UNKNOWN_ENDPOINT = "unknown";
+
+  private final MeterRegistry meterRegistry;
+  private final String requestsMeterName;
+  private final String responseSizeMeterName;
+
+  public RequestMetrics(MeterRegistry meterRegistry, String meterPrefix) {
+    this.meterRegistry = meterRegistry;
+    this.requestsMeterName = meterPrefix + ".api.requests";
+    this.responseSizeMeterName = meterPrefix + ".api.response.size";
+  }
+
+  /**
+   * Runs the given API call with the given endpoint bound to the meters of its
+   * requests.
+   */
+  public <T> T record(String endpoint, Supplier<T> call) {
+    String previousEndpoint = ENDPOINT.get();
+    ENDPOINT.set(endpoint);
+    try {
+      return call.get();
+    } finally {
+      if (previousEndpoint != null) {
+        ENDPOINT.set(previousEndpoint);
+      } else {
+        ENDPOINT.remove();
+      }
+    }
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+      throws IOException {
+    String method = request.getMethodValue();
+    String endpoint = ENDPOINT.get() != null ? ENDPOINT.get() : UNKNOWN_ENDPOINT;
+    String status = "IO_ERROR";
+    long start = System.nanoTime();
+    try {
+      ClientHttpResponse response = execution.execute(request, body);
+      status = Integer.toString(response.getRawStatusCode());
+      return new CountingResponse(response, DistributionSummary.builder(responseSizeMeterName)
+          .description("Size of API response bodies").baseUnit("bytes").tag("method", method)
+          .tag("endpoint", endpoint).register(meterRegistry));
+    } finally {
+      Timer.builder(requestsMeterName).description("Latency of API requests").tag("method", method)
+          .tag("endpoint", endpoint).tag("status", status).publishPercentileHistogram().register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Counts the bytes read from the response body and records them when the
+   * response is closed.
+   */
+  private static class CountingResponse implements ClientHttpResponse {
+    private final ClientHttpResponse response;
+    private final DistributionSummary responseSize;
+    private long bytes;
+    private InputStream body;
+
+    CountingResponse(ClientHttpResponse response, DistributionSummary responseSize) {
+      this.response = response;
+      this.responseSize = responseSize;
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (body == null) {
+        body = new FilterInputStream(response.getBody()) {
+
+          @Override
+          public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+              bytes++;
+            }
+            return b;
+          }
+
+          @Override
+          public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+              bytes += count;
+            }
+            return count;
+          }
+        };
+      }
+      return body;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return response.getHeaders();
+    }
+
+    @Override
+    public HttpStatus getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public int getRawStatusCode() throws IOException {
+      return response.getRawStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return response.getStatusText();
+    }
+
+    @Override
+    public void close() {
+      responseSize.record(bytes);
+      response.close();
+    }
+  }
+}
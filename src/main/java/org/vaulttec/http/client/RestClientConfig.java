@@ -18,6 +18,7 @@
 package org.vaulttec.http.client;
 
 import java.net.Proxy;
+import java.time.Duration;
 
 public interface RestClientConfig {
   String getServerUrl();
@@ -27,4 +28,24 @@ public interface RestClientConfig {
   int getPerPage();
 
   Proxy getProxy();
+
+  Transport getTransport();
+
+  int getMaxConnections();
+
+  int getMaxConnectionsPerRoute();
+
+  Duration getKeepAlive();
+
+  double getRequestsPerSecond();
+
+  int getMaxConcurrentRequests();
+
+  int getRateLimitRetries();
+
+  int getMaxRetries();
+
+  Duration getRetryBackoff();
+
+  Duration getMaxRetryBackoff();
 }
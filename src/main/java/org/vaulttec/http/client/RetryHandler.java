@@ -0,0 +1,141 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retries API calls failing with a transient error (I/O error or 502, 503 and
+ * 504 status) with exponential backoff plus jitter. Only safe and idempotent
+ * HTTP methods are retried - a failed POST may have been processed by the
+ * server already.
+ * <p>
+ * API calls rejected by the server's rate limit (429 status) are retried
+ * regardless of their HTTP method after the time given by the server.
+ */
+public class RetryHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RetryHandler.class);
+
+  private static final Set<HttpMethod> IDEMPOTENT_METHODS = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD,
+      HttpMethod.OPTIONS, HttpMethod.PUT, HttpMethod.DELETE);
+  private static final Set<HttpStatus> TRANSIENT_STATUS = EnumSet.of(HttpStatus.BAD_GATEWAY,
+      HttpStatus.SERVICE_UNAVAILABLE, HttpStatus.GATEWAY_TIMEOUT);
+
+  private final int maxRetries;
+  private final int rateLimitRetries;
+  private final long backoffMillis;
+  private final long maxBackoffMillis;
+  private final MeterRegistry meterRegistry;
+  private final String meterName;
+
+  /**
+   * @param maxRetries       number of retries of transient errors
+   * @param rateLimitRetries number of retries of API calls rejected with 429
+   */
+  public RetryHandler(int maxRetries, int rateLimitRetries, Duration backoff, Duration maxBackoff,
+      MeterRegistry meterRegistry, String meterPrefix) {
+    this.maxRetries = Math.max(maxRetries, 0);
+    this.rateLimitRetries = Math.max(rateLimitRetries, 0);
+    this.backoffMillis = Math.max(backoff.toMillis(), 1);
+    this.maxBackoffMillis = Math.max(maxBackoff.toMillis(), backoffMillis);
+    this.meterRegistry = meterRegistry;
+    this.meterName = meterPrefix + ".api.retries";
+  }
+
+  /**
+   * Executes the given API call and retries it if it's retryable.
+   *
+   * @param endpoint the API call's URI template - used to tag the retry counter
+   */
+  public <T> T execute(HttpMethod method, String endpoint, Supplier<T> call) {
+    int attempt = 0;
+    int rateLimitAttempt = 0;
+    while (true) {
+      try {
+        return call.get();
+      } catch (RestClientException e) {
+        long delay;
+        if (isRateLimited(e)) {
+          if (rateLimitAttempt++ >= rateLimitRetries) {
+            LOG.warn("API call {} '{}' rejected by rate limit - giving up after {} retries", method, endpoint,
+                rateLimitRetries);
+            throw e;
+          }
+          delay = TimeUnit.NANOSECONDS
+              .toMillis(RateLimitInterceptor.getRetryAfterNanos(((HttpClientErrorException) e).getResponseHeaders()));
+        } else if (attempt >= maxRetries || !isRetryable(method, e)) {
+          throw e;
+        } else {
+          delay = getDelay(attempt++);
+        }
+        LOG.debug("API call {} '{}' failed with '{}' - retrying in {} ms", method, endpoint, e.getMessage(), delay);
+        Counter.builder(meterName).tag("method", method.name()).tag("endpoint", endpoint)
+            .description("Retries of failed API calls").register(meterRegistry).increment();
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private static boolean isRateLimited(RestClientException e) {
+    return e instanceof HttpClientErrorException
+        && ((HttpClientErrorException) e).getRawStatusCode() == HttpStatus.TOO_MANY_REQUESTS.value();
+  }
+
+  private boolean isRetryable(HttpMethod method, RestClientException e) {
+    if (!IDEMPOTENT_METHODS.contains(method)) {
+      return false;
+    }
+    if (e instanceof HttpServerErrorException) {
+      return TRANSIENT_STATUS.contains(((HttpServerErrorException) e).getStatusCode());
+    }
+    return e instanceof ResourceAccessException;
+  }
+
+  /**
+   * Returns the exponential backoff for the given attempt with a random jitter
+   * of up to half of it, so clients failing at the same time don't retry in
+   * lockstep.
+   */
+  private long getDelay(int attempt) {
+    long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 30));
+    return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+public enum Transport {
+  /**
+   * Plain <code>HttpURLConnection</code> without connection pooling.
+   */
+  SIMPLE,
+
+  /**
+   * Apache HttpClient with a pool of keep-alive connections.
+   */
+  POOLED;
+
+  public static Transport fromName(String name) {
+    return valueOf(name.toUpperCase());
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.client.RestClientException;
+import org.vaulttec.gitlab.enforcer.client.GitLabClient;
+import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace.Kind;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.rule.Rule;
+import org.vaulttec.gitlab.enforcer.rule.Rule.Outcome;
+import org.vaulttec.gitlab.enforcer.rule.Rule.Resource;
+import org.vaulttec.gitlab.enforcer.state.InMemoryStateStore;
+import org.vaulttec.gitlab.enforcer.state.StateStore;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEventBuilder;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEventName;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EnforcerClientTest {
+
+  private GitLabClient client;
+  private EnforcerConfig config;
+  private StateStore stateStore;
+  private ThreadPoolTaskExecutor executor;
+  private ThreadPoolTaskExecutor groupExecutor;
+  private ThreadPoolTaskExecutor prefetchExecutor;
+  private ConcurrentLinkedQueue<SystemEvent> handledEvents;
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setUp() {
+    client = mock(GitLabClient.class);
+    config = new EnforcerConfig();
+    config.setSweepWorkers(4);
+    stateStore = new InMemoryStateStore();
+    executor = (ThreadPoolTaskExecutor) config.sweepTaskExecutor();
+    executor.initialize();
+    groupExecutor = (ThreadPoolTaskExecutor) config.groupSweepTaskExecutor();
+    groupExecutor.initialize();
+    prefetchExecutor = config.entityPrefetchTaskExecutor();
+    prefetchExecutor.initialize();
+    handledEvents = new ConcurrentLinkedQueue<>();
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdown();
+    groupExecutor.shutdown();
+    prefetchExecutor.shutdown();
+  }
+
+  @Test
+  public void testEnforceHandlesGroupsBeforeProjects() {
+    when(client.streamGroups(null, null))
+        .thenReturn(IntStream.range(0, 50).mapToObj(i -> new Group(Integer.toString(i))));
+    when(client.streamProjects(null, null, null)).thenReturn(IntStream.range(100, 200)
+        .mapToObj(i -> new Project(Integer.toString(i), null, new Namespace("1", "ns1", Kind.GROUP))));
+
+    EnforcerClient enforcer = createEnforcerClient(new RecordingRule());
+    enforcer.enforce(EnforcerExecution.COMMAND);
+
+    assertThat(handledEvents).hasSize(150);
+    List<Integer> ids = handledEvents.stream().map(event -> Integer.valueOf(event.getId()))
+        .collect(Collectors.toList());
+    assertThat(ids.subList(0, 50)).allMatch(id -> id < 100);
+    assertThat(ids.subList(50, 150)).allMatch(id -> id >= 100);
+    assertThat(enforcer.getLastEnforceTime()).isNotNull();
+    assertThat(meterRegistry.get("enforcer.sweep.objects").tag("kind", "group").counter().count()).isEqualTo(50);
+    assertThat(meterRegistry.get("enforcer.sweep.objects").tag("kind", "project").counter().count()).isEqualTo(100);
+    assertThat(meterRegistry.get("enforcer.sweep").tag("result", "completed").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("enforcer.sweep.throughput").gauge().value()).isPositive();
+  }
+
+  @Test
+  public void testEnforceContinuesAfterFailingRule() {
+    when(client.streamProjects(null, null, null)).thenReturn(IntStream.range(0, 10)
+        .mapToObj(i -> new Project(Integer.toString(i), null, new Namespace("1", "ns1", Kind.GROUP))));
+    Rule failingRule = new RecordingRule() {
+      @Override
+      public Outcome handle(EnforcerExecution execution, SystemEvent event) {
+        super.handle(execution, event);
+        throw new IllegalStateException("Failing rule");
+      }
+    };
+
+    EnforcerClient enforcer = createEnforcerClient(failingRule);
+    enforcer.enforce(EnforcerExecution.COMMAND);
+
+    assertThat(handledEvents).hasSize(10);
+    assertThat(enforcer.getLastResult(handledEvents.peek()).getOutcome()).isEqualTo(Outcome.FAILED);
+  }
+
+  @Test
+  public void testEnforceRecordsResults() {
+    Rule enforcingRule = new RecordingRule() {
+      @Override
+      public Outcome handle(EnforcerExecution execution, SystemEvent event) {
+        super.handle(execution, event);
+        return "1".equals(event.getId()) ? Outcome.ENFORCED : Outcome.SKIPPED;
+      }
+    };
+    EnforcerClient enforcer = createEnforcerClient(new RecordingRule(), enforcingRule);
+    SystemEvent event1 = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("1").build();
+    SystemEvent event2 = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("2").build();
+    SystemEvent groupEvent = new SystemEventBuilder().eventName(SystemEventName.GROUP_CREATE).id("1").build();
+    assertThat(enforcer.getLastResult(event1)).isNull();
+
+    enforcer.enforce(EnforcerExecution.COMMAND, event1);
+    enforcer.enforce(EnforcerExecution.COMMAND, event2);
+
+    assertThat(enforcer.getLastResult(event1).getOutcome()).isEqualTo(Outcome.ENFORCED);
+    assertThat(enforcer.getLastResult(event1).getTime()).isNotNull();
+    assertThat(enforcer.getLastResult(event2).getOutcome()).isEqualTo(Outcome.COMPLIANT);
+    assertThat(enforcer.getLastResult(groupEvent)).isNull();
+  }
+
+  @Test
+  public void testIncrementalSweep() {
+    config.setIncrementalSweep(true);
+    when(client.streamGroups(null, null)).thenAnswer(invocation -> Stream.empty());
+    when(client.streamProjects(eq(null), any(), eq(null))).thenAnswer(invocation -> Stream.empty());
+    EnforcerClient enforcer = createEnforcerClient(new RecordingRule());
+
+    // First sweep is always a full one
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    verify(client).streamProjects(null, null, null);
+    Instant lastSweep = Instant.parse(stateStore.get(EnforcerClient.LAST_SWEEP_CHECKPOINT));
+    assertThat(stateStore.get(EnforcerClient.LAST_FULL_SWEEP_CHECKPOINT)).isEqualTo(lastSweep.toString());
+
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    verify(client).streamProjects(null, lastSweep, null);
+    assertThat(stateStore.get(EnforcerClient.LAST_FULL_SWEEP_CHECKPOINT)).isEqualTo(lastSweep.toString());
+
+    // Commands and overdue full sweeps ignore the checkpoint
+    enforcer.enforce(EnforcerExecution.COMMAND);
+    stateStore.put(EnforcerClient.LAST_FULL_SWEEP_CHECKPOINT, Instant.now().minus(Duration.ofDays(2)).toString());
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    verify(client, times(3)).streamProjects(null, null, null);
+  }
+
+  @Test
+  public void testFailedSweepKeepsCheckpoint() {
+    when(client.streamGroups(null, null)).thenReturn(Stream.generate(() -> {
+      throw new RestClientException("Failed");
+    }));
+    when(client.streamProjects(null, null, null)).thenReturn(Stream.of(new Project("1", null, null)));
+    EnforcerClient enforcer = createEnforcerClient(new RecordingRule());
+
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+
+    assertThat(handledEvents).hasSize(1);
+    assertThat(stateStore.get(EnforcerClient.LAST_SWEEP_CHECKPOINT)).isNull();
+  }
+
+  @Test
+  public void testResumeInterruptedSweep() {
+    when(client.streamGroups(null, null)).thenReturn(Stream.of(new Group("1")));
+    when(client.streamProjects(null, null, null)).thenReturn(Stream.concat(
+        IntStream.rangeClosed(1, 10)
+            .mapToObj(i -> new Project(Integer.toString(i), null, new Namespace("1", "ns1", Kind.GROUP))),
+        Stream.generate(() -> {
+          throw new RestClientException("Failed");
+        })));
+    EnforcerClient enforcer = createEnforcerClient(new RecordingRule());
+
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    assertThat(handledEvents).hasSize(11);
+    assertThat(stateStore.get(EnforcerClient.LAST_SWEEP_CHECKPOINT)).isNull();
+    assertThat(stateStore.get(EnforcerClient.SWEEP_CURSOR)).startsWith("PROJECTS 10 ");
+
+    // The groups are done, so the sweep resumes with the projects after the last one
+    when(client.streamProjects(null, null, 10L)).thenReturn(Stream.of(new Project("11", null, null)));
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    verify(client, times(1)).streamGroups(null, null);
+    assertThat(handledEvents).hasSize(12);
+    assertThat(stateStore.get(EnforcerClient.LAST_SWEEP_CHECKPOINT)).isNotNull();
+    assertThat(stateStore.get(EnforcerClient.SWEEP_CURSOR)).isNull();
+  }
+
+  @Test
+  public void testGroupTreeSweep() {
+    config.setSweepStrategy(EnforcerClient.SweepStrategy.GROUP_TREE);
+    config.setSweepUserProjects(false);
+    when(client.streamGroups(null, null))
+        .thenReturn(Stream.of(new Group("1"), new Group("2"), new Group("3")));
+    when(client.streamTopLevelGroups(null)).thenReturn(Stream.of(new Group("1"), new Group("2")));
+    when(client.streamProjectsForGroupTree("1", null)).thenReturn(IntStream.range(10, 15)
+        .mapToObj(i -> new Project(Integer.toString(i), null, new Namespace("1", "ns1", Kind.GROUP))));
+    when(client.streamProjectsForGroupTree("2", null)).thenReturn(Stream.concat(
+        IntStream.range(20, 22)
+            .mapToObj(i -> new Project(Integer.toString(i), null, new Namespace("2", "ns2", Kind.GROUP))),
+        Stream.generate(() -> {
+          throw new RestClientException("Failed");
+        })));
+    EnforcerClient enforcer = createEnforcerClient(new RecordingRule());
+
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    assertThat(handledEvents).hasSize(10);
+    assertThat(stateStore.get(EnforcerClient.LAST_SWEEP_CHECKPOINT)).isNull();
+    assertThat(stateStore.get(EnforcerClient.SWEEP_CURSOR)).startsWith("GROUP_PROJECTS 1 ");
+    verify(client, never()).streamProjects(any(), any(), any());
+
+    // The sweep resumes with the incomplete group tree
+    when(client.streamTopLevelGroups(1L)).thenReturn(Stream.of(new Group("2")));
+    when(client.streamProjectsForGroupTree("2", null))
+        .thenReturn(Stream.of(new Project("22", null, new Namespace("2", "ns2", Kind.GROUP))));
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    verify(client, times(1)).streamGroups(null, null);
+    verify(client, never()).streamProjects(any(), any(), any());
+    assertThat(handledEvents).hasSize(11);
+    assertThat(handledEvents).extracting(SystemEvent::getId).endsWith("22");
+    assertThat(stateStore.get(EnforcerClient.LAST_SWEEP_CHECKPOINT)).isNotNull();
+    assertThat(stateStore.get(EnforcerClient.SWEEP_CURSOR)).isNull();
+  }
+
+  @Test
+  public void testGroupTreeSweepRequiresSkippedUserProjects() {
+    config.setSweepStrategy(EnforcerClient.SweepStrategy.GROUP_TREE);
+    assertThatIllegalStateException().isThrownBy(config::validate);
+    config.setSweepUserProjects(false);
+    assertThatNoException().isThrownBy(config::validate);
+  }
+
+  @Test
+  public void testPrefetchRequiredResources() {
+    Rule protectedBranchRule = new ResourceRule(Resource.PROTECTED_BRANCHES);
+    Rule pushRulesRule = new ResourceRule(Resource.PUSH_RULES);
+    SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("1").build();
+
+    EnforcerClient enforcer = createEnforcerClient(protectedBranchRule, new ResourceRule(Resource.PROTECTED_BRANCHES),
+        pushRulesRule);
+    enforcer.enforce(EnforcerExecution.HOOK, event);
+
+    verify(client).getProtectedBranchesForProject("1");
+    verify(client).getPushRules("1");
+    assertThat(handledEvents).hasSize(3);
+  }
+
+  @Test
+  public void testSingleRequiredResourceIsNotPrefetched() {
+    SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("1").build();
+
+    EnforcerClient enforcer = createEnforcerClient(new ResourceRule(Resource.PUSH_RULES));
+    enforcer.enforce(EnforcerExecution.HOOK, event);
+
+    verify(client, never()).getPushRules("1");
+    assertThat(handledEvents).hasSize(1);
+  }
+
+  private EnforcerClient createEnforcerClient(Rule... rules) {
+    return new EnforcerClient(client, List.of(rules), executor, groupExecutor, prefetchExecutor,
+        new SyncTaskExecutor(), config, stateStore, meterRegistry);
+  }
+
+  private class ResourceRule extends RecordingRule {
+    private final Resource resource;
+
+    private ResourceRule(Resource resource) {
+      this.resource = resource;
+    }
+
+    @Override
+    public Set<Resource> getRequiredResources(EnforcerExecution execution, SystemEvent event) {
+      return EnumSet.of(resource);
+    }
+  }
+
+  private class RecordingRule implements Rule {
+
+    @Override
+    public String getInfo() {
+      return "Recording Rule";
+    }
+
+    @Override
+    public boolean supports(SystemEvent event) {
+      return true;
+    }
+
+    @Override
+    public void init(Use use, EnforcerEventPublisher eventPublisher, GitLabClient client,
+        Map<String, String> config) {
+    }
+
+    @Override
+    public Outcome handle(EnforcerExecution execution, SystemEvent event) {
+      handledEvents.add(event);
+      return Outcome.COMPLIANT;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.boot.actuate.audit.InMemoryAuditEventRepository;
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher.OverflowPolicy;
+import org.vaulttec.gitlab.enforcer.audit.BinaryAuditLogReader;
+import org.vaulttec.gitlab.enforcer.audit.BinaryAuditLogWriter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class EnforcerEventPublisherTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void testConcurrentPublishing() throws Exception {
+    InMemoryAuditEventRepository repository = new InMemoryAuditEventRepository(10000);
+    EnforcerEventPublisher publisher = new EnforcerEventPublisher(repository, objectMapper, null, 16, 4,
+        Duration.ofMillis(10), OverflowPolicy.BLOCK, meterRegistry);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int i = 0; i < 1000; i++) {
+      String principal = "user" + i;
+      executor.execute(() -> publisher.publishEvent(new AuditEvent(principal, "TEST")));
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    publisher.flush();
+    assertThat(repository.find(null, null, "TEST")).hasSize(1000);
+    publisher.destroy();
+  }
+
+  @Test
+  public void testDropOnOverflow() throws Exception {
+    AuditEventRepository repository = mock(AuditEventRepository.class);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch writing = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      writing.countDown();
+      return release.await(10, TimeUnit.SECONDS);
+    }).when(repository).add(any());
+    EnforcerEventPublisher publisher = new EnforcerEventPublisher(repository, objectMapper, null, 4, 1,
+        Duration.ofMillis(10), OverflowPolicy.DROP, meterRegistry);
+
+    // The writer thread is blocked by the first event, so only the buffer is
+    // available
+    publisher.publishEvent(new AuditEvent("user", "TEST"));
+    assertThat(writing.await(10, TimeUnit.SECONDS)).isTrue();
+    for (int i = 0; i < 10; i++) {
+      publisher.publishEvent(new AuditEvent("user", "TEST"));
+    }
+    assertThat(meterRegistry.counter("enforcer.audit.dropped").count()).isEqualTo(6);
+
+    release.countDown();
+    publisher.destroy();
+  }
+
+  @Test
+  public void testSpillOnOverflow() throws Exception {
+    InMemoryAuditEventRepository repository = new InMemoryAuditEventRepository(100);
+    CountDownLatch release = new CountDownLatch(1);
+    AuditEventRepository blockingRepository = new AuditEventRepository() {
+
+      @Override
+      public void add(AuditEvent event) {
+        if ("enforcer-audit".equals(Thread.currentThread().getName())) {
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        repository.add(event);
+      }
+
+      @Override
+      public List<AuditEvent> find(String principal, Instant after, String type) {
+        return repository.find(principal, after, type);
+      }
+    };
+    EnforcerEventPublisher publisher = new EnforcerEventPublisher(blockingRepository, objectMapper, null, 2, 1,
+        Duration.ofMillis(10), OverflowPolicy.SPILL, meterRegistry);
+    for (int i = 0; i < 10; i++) {
+      publisher.publishEvent(new AuditEvent("user", "TEST"));
+    }
+    // Events exceeding the buffer are written by the publishing thread
+    assertThat(repository.find(null, null, "TEST").size()).isGreaterThanOrEqualTo(7);
+
+    release.countDown();
+    publisher.flush();
+    assertThat(repository.find(null, null, "TEST")).hasSize(10);
+    publisher.destroy();
+  }
+
+  @Test
+  public void testDestroyWritesRemainingEvents() throws Exception {
+    InMemoryAuditEventRepository repository = new InMemoryAuditEventRepository(100);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch writing = new CountDownLatch(1);
+    AuditEventRepository blockingRepository = new AuditEventRepository() {
+
+      @Override
+      public void add(AuditEvent event) {
+        if ("enforcer-audit".equals(Thread.currentThread().getName())) {
+          writing.countDown();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        repository.add(event);
+      }
+
+      @Override
+      public List<AuditEvent> find(String principal, Instant after, String type) {
+        return repository.find(principal, after, type);
+      }
+    };
+    Path file = tempDir.resolve("audit.bin");
+    EnforcerEventPublisher publisher = new EnforcerEventPublisher(blockingRepository, objectMapper,
+        new BinaryAuditLogWriter(file, Long.MAX_VALUE), 16, 1, Duration.ofMillis(10), OverflowPolicy.BLOCK,
+        meterRegistry);
+
+    // The writer thread is blocked by the first event while the others are
+    // buffered
+    publisher.publishEvent(new AuditEvent("user", "TEST"));
+    assertThat(writing.await(10, TimeUnit.SECONDS)).isTrue();
+    for (int i = 0; i < 5; i++) {
+      publisher.publishEvent(new AuditEvent("user", "TEST"));
+    }
+    Thread destroyer = new Thread(() -> {
+      try {
+        publisher.destroy();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    destroyer.start();
+    release.countDown();
+    destroyer.join(TimeUnit.SECONDS.toMillis(10));
+    assertThat(repository.find(null, null, "TEST")).hasSize(6);
+    assertThat(readEvents(file)).isEqualTo(6);
+
+    // Events published after the binary audit log is closed are still added
+    // to the repository
+    publisher.publishEvent(new AuditEvent("user", "TEST"));
+    assertThat(repository.find(null, null, "TEST")).hasSize(7);
+    assertThat(readEvents(file)).isEqualTo(6);
+  }
+
+  private static int readEvents(Path file) throws Exception {
+    int count = 0;
+    try (BinaryAuditLogReader reader = new BinaryAuditLogReader(Files.newInputStream(file))) {
+      while (reader.read() != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
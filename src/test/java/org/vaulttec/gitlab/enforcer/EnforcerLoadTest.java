@@ -0,0 +1,193 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.vaulttec.gitlab.enforcer.client.MockGitLabServer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Measures the throughput of sweeps and system hook bursts against a
+ * {@link MockGitLabServer}. The size and behavior of the GitLab instance are
+ * configured via the system properties <code>load.groups</code>,
+ * <code>load.projectsPerGroup</code>, <code>load.userProjects</code>,
+ * <code>load.latency</code> (milliseconds), <code>load.errorRate</code>,
+ * <code>load.requestsPerSecond</code> and <code>load.hookEvents</code>. The
+ * enforcer itself is configured as usual, e.g.
+ * <code>-Denforcer.virtualThreads=true</code>. Events aren't coalesced with
+ * recent enforcements of the same object, so every sweep and hook burst is
+ * enforced completely.
+ */
+@ActiveProfiles("test")
+@EnabledIfSystemProperty(named = "run.load.tests", matches = "true")
+@SpringBootTest(classes = Application.class, webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    "logging.level.org.vaulttec=warn", "logging.level.org.vaulttec.gitlab.enforcer.EnforcerLoadTest=info",
+    "enforcer.coalesceWindow=0" })
+@TestMethodOrder(OrderAnnotation.class)
+public class EnforcerLoadTest {
+  private static final Logger LOG = LoggerFactory.getLogger(EnforcerLoadTest.class);
+
+  private static MockGitLabServer server;
+
+  @Autowired
+  private EnforcerClient enforcer;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Autowired
+  private TestRestTemplate restTemplate;
+
+  @DynamicPropertySource
+  static void gitLabProperties(DynamicPropertyRegistry registry) throws IOException {
+    server = new MockGitLabServer(Integer.getInteger("load.groups", 50), Integer.getInteger("load.projectsPerGroup", 40),
+        Integer.getInteger("load.userProjects", 200)).latency(Duration.ofMillis(Long.getLong("load.latency", 20)))
+            .errorRate(Double.parseDouble(System.getProperty("load.errorRate", "0")))
+            .requestsPerSecond(Integer.getInteger("load.requestsPerSecond", 0)).workers(64).start();
+    registry.add("gitlab.serverUrl", server::getServerUrl);
+    registry.add("gitlab.personalAccessToken", server::getToken);
+  }
+
+  @AfterAll
+  static void tearDown() {
+    server.close();
+  }
+
+  @Test
+  @Order(1)
+  public void testSweep() {
+    int objects = server.getGroupCount() + server.getProjectCount();
+
+    assertThat(sweep("Initial sweep")).isEqualTo(objects);
+    if (server.getFailedRequestCount() == 0) {
+      for (Map<String, Object> project : server.getProjects()) {
+        if ("group".equals(((Map<?, ?>) project.get("namespace")).get("kind"))) {
+          long projectId = ((Number) project.get("id")).longValue();
+          assertThat(server.getProtectedBranch(projectId, "master")).isNotNull();
+          assertThat(server.getPushRules(projectId)).containsEntry("member_check", true);
+        }
+      }
+    }
+    assertThat(sweep("Steady state sweep")).isEqualTo(objects);
+  }
+
+  @Test
+  @Order(2)
+  public void testHookBurst() throws Exception {
+    int events = Integer.getInteger("load.hookEvents", 500);
+    int projects = server.getProjectCount();
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.set("X-Gitlab-Event", "System Hook");
+    headers.set("X-Gitlab-Token", "");
+    server.resetCounts();
+    long start = System.nanoTime();
+
+    ExecutorService senders = Executors.newFixedThreadPool(16);
+    List<Future<HttpStatus>> statuses = new ArrayList<>();
+    for (int i = 0; i < events; i++) {
+      long projectId = ThreadLocalRandom.current().nextLong(projects) + 1;
+      String event = "{\"event_name\":\"project_create\",\"project_id\":" + projectId + ",\"name\":\"project-"
+          + projectId + "\",\"path\":\"project-" + projectId + "\"}";
+      statuses.add(senders.submit(
+          () -> restTemplate.postForEntity("/systemhooks", new HttpEntity<>(event, headers), Void.class)
+              .getStatusCode()));
+    }
+    int accepted = 0;
+    for (Future<HttpStatus> status : statuses) {
+      if (status.get() == HttpStatus.ACCEPTED) {
+        accepted++;
+      }
+    }
+    senders.shutdown();
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(10);
+    while ((meterRegistry.get("enforcer.hooks.active").gauge().value() > 0
+        || meterRegistry.get("enforcer.hooks.queued").gauge().value() > 0) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    Timer latency = meterRegistry.get("enforcer.hooks.latency").timer();
+    LOG.info(
+        "Hook burst: {} events ({} accepted, {} rejected) in {} s ({} events/s), {} API calls ({} per event), "
+            + "queue latency mean {} ms max {} ms",
+        events, accepted, events - accepted, format(seconds), format(accepted / seconds),
+        server.getRequestCount(), format((double) server.getRequestCount() / Math.max(accepted, 1)),
+        format(latency.mean(TimeUnit.MILLISECONDS)), format(latency.max(TimeUnit.MILLISECONDS)));
+    assertThat(accepted).isPositive();
+    assertThat(server.getRequestCount()).isPositive();
+  }
+
+  /**
+   * Runs a sweep and returns the number of processed objects.
+   */
+  private long sweep(String name) {
+    server.resetCounts();
+    double processed = processedObjects();
+    long start = System.nanoTime();
+    enforcer.enforce(EnforcerExecution.SCHEDULED);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long objects = (long) (processedObjects() - processed);
+    LOG.info("{}: {} objects in {} s ({} objects/s), {} API calls ({} per object, {} writes, {} rate limited, "
+        + "{} failed)", name, objects, format(seconds), format(objects / seconds), server.getRequestCount(),
+        format((double) server.getRequestCount() / Math.max(objects, 1)), server.getWriteRequestCount(),
+        server.getRateLimitedRequestCount(), server.getFailedRequestCount());
+    assertThat(server.getRequestCount()).isPositive();
+    return objects;
+  }
+
+  private double processedObjects() {
+    return meterRegistry.find("enforcer.sweep.objects").counters().stream().mapToDouble(Counter::count).sum();
+  }
+
+  private static String format(double value) {
+    return String.format("%.2f", value);
+  }
+}
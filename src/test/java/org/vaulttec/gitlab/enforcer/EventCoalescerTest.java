@@ -0,0 +1,146 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEventBuilder;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEventName;
+
+public class EventCoalescerTest {
+
+  private final List<SystemEvent> handledEvents = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void testRecentEventsAreCollapsed() {
+    EventCoalescer coalescer = new EventCoalescer(Duration.ofMinutes(1), Runnable::run);
+    SystemEvent event = createEvent(SystemEventName.PROJECT_CREATE, "1");
+
+    assertThat(coalescer.process(EnforcerExecution.HOOK, event, this::handle)).isTrue();
+    assertThat(coalescer.process(EnforcerExecution.SCHEDULED, event, this::handle)).isFalse();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, createEvent(SystemEventName.PROJECT_CREATE, "2"),
+        this::handle)).isTrue();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, createEvent(SystemEventName.GROUP_CREATE, "1"),
+        this::handle)).isTrue();
+    // Commands are never collapsed with finished events
+    assertThat(coalescer.process(EnforcerExecution.COMMAND, event, this::handle)).isTrue();
+
+    assertThat(handledEvents).hasSize(4);
+  }
+
+  @Test
+  public void testEventAfterCompletionWithinWindowIsDeferred() throws Exception {
+    EventCoalescer coalescer = new EventCoalescer(Duration.ofMillis(200), Runnable::run);
+    CountDownLatch deferred = new CountDownLatch(1);
+    BiConsumer<EnforcerExecution, SystemEvent> handler = (execution, event) -> {
+      handle(execution, event);
+      if (handledEvents.size() > 1) {
+        deferred.countDown();
+      }
+    };
+    SystemEvent first = createEvent(SystemEventName.PROJECT_CREATE, "1");
+    SystemEvent second = createEvent(SystemEventName.PROJECT_CREATE, "1");
+    SystemEvent last = createEvent(SystemEventName.PROJECT_CREATE, "1");
+
+    assertThat(coalescer.process(EnforcerExecution.HOOK, first, handler)).isTrue();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, second, handler)).isFalse();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, last, handler)).isFalse();
+    // Sweep duplicates are still dropped
+    assertThat(coalescer.process(EnforcerExecution.SCHEDULED, first, handler)).isFalse();
+    assertThat(handledEvents).containsExactly(first);
+
+    // The deferred events are collapsed to the latest one
+    assertThat(deferred.await(5, TimeUnit.SECONDS)).isTrue();
+    Thread.sleep(300);
+    assertThat(handledEvents).containsExactly(first, last);
+  }
+
+  @Test
+  public void testWithoutWindow() {
+    EventCoalescer coalescer = new EventCoalescer(Duration.ZERO, Runnable::run);
+    SystemEvent event = createEvent(SystemEventName.PROJECT_CREATE, "1");
+
+    assertThat(coalescer.process(EnforcerExecution.HOOK, event, this::handle)).isTrue();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, event, this::handle)).isTrue();
+
+    assertThat(handledEvents).hasSize(2);
+  }
+
+  @Test
+  public void testInFlightEventsAreCollapsedIntoSingleRerun() throws Exception {
+    EventCoalescer coalescer = new EventCoalescer(Duration.ofMinutes(1), Runnable::run);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch blocked = new CountDownLatch(1);
+    SystemEvent first = createEvent(SystemEventName.PROJECT_CREATE, "1");
+    SystemEvent last = createEvent(SystemEventName.PROJECT_CREATE, "1");
+
+    CompletableFuture<Boolean> inFlight = CompletableFuture
+        .supplyAsync(() -> coalescer.process(EnforcerExecution.HOOK, first, (execution, event) -> {
+          handle(execution, event);
+          if (event == first) {
+            started.countDown();
+            try {
+              blocked.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }));
+    started.await();
+    assertThat(coalescer.process(EnforcerExecution.SCHEDULED, first, this::handle)).isFalse();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, first, this::handle)).isFalse();
+    assertThat(coalescer.process(EnforcerExecution.HOOK, last, this::handle)).isFalse();
+    blocked.countDown();
+
+    assertThat(inFlight.get()).isTrue();
+    assertThat(handledEvents).containsExactly(first, last);
+  }
+
+  @Test
+  public void testFailedEventIsNotCollapsedForever() {
+    EventCoalescer coalescer = new EventCoalescer(Duration.ZERO, Runnable::run);
+    SystemEvent event = createEvent(SystemEventName.PROJECT_CREATE, "1");
+
+    try {
+      coalescer.process(EnforcerExecution.HOOK, event, (execution, e) -> {
+        throw new IllegalStateException("Failing handler");
+      });
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertThat(coalescer.process(EnforcerExecution.HOOK, event, this::handle)).isTrue();
+  }
+
+  private void handle(EnforcerExecution execution, SystemEvent event) {
+    handledEvents.add(event);
+  }
+
+  private SystemEvent createEvent(SystemEventName eventName, String id) {
+    return new SystemEventBuilder().eventName(eventName).id(id).build();
+  }
+}
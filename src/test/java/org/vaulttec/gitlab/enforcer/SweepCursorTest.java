@@ -0,0 +1,71 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.enforcer.SweepCursor.Phase;
+
+public class SweepCursorTest {
+
+  @Test
+  public void testLowWatermark() {
+    SweepCursor cursor = new SweepCursor(Instant.now(), null);
+    assertThat(cursor.getIdAfter()).isNull();
+
+    cursor.submitted("3");
+    cursor.submitted("5");
+    cursor.submitted("8");
+    assertThat(cursor.getIdAfter()).isEqualTo(2);
+
+    cursor.completed("5");
+    assertThat(cursor.getIdAfter()).isEqualTo(2);
+
+    cursor.completed("3");
+    assertThat(cursor.getIdAfter()).isEqualTo(7);
+
+    cursor.completed("8");
+    assertThat(cursor.getIdAfter()).isEqualTo(8);
+
+    cursor.startPhase(Phase.PROJECTS);
+    assertThat(cursor.getPhase()).isEqualTo(Phase.PROJECTS);
+    assertThat(cursor.getIdAfter()).isNull();
+  }
+
+  @Test
+  public void testParse() {
+    Instant sweepStart = Instant.parse("2019-01-01T00:00:00Z");
+    Instant lastActivityAfter = Instant.parse("2018-12-31T00:00:00Z");
+    SweepCursor cursor = new SweepCursor(sweepStart, lastActivityAfter);
+    cursor.submitted("42");
+    cursor.completed("42");
+
+    SweepCursor parsedCursor = SweepCursor.parse(cursor.toString());
+    assertThat(parsedCursor.getPhase()).isEqualTo(Phase.GROUPS);
+    assertThat(parsedCursor.getIdAfter()).isEqualTo(42);
+    assertThat(parsedCursor.getSweepStart()).isEqualTo(sweepStart);
+    assertThat(parsedCursor.getLastActivityAfter()).isEqualTo(lastActivityAfter);
+    assertThat(SweepCursor.parse(new SweepCursor(sweepStart, null).toString()).getLastActivityAfter()).isNull();
+
+    assertThat(SweepCursor.parse(null)).isNull();
+    assertThat(SweepCursor.parse("GROUPS x 2019-01-01T00:00:00Z -")).isNull();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+public class VirtualThreadTaskExecutorTest {
+
+  @Test
+  public void testSupported() {
+    assertThat(VirtualThreadTaskExecutor.isSupported()).isEqualTo(Runtime.version().feature() >= 21);
+    if (!VirtualThreadTaskExecutor.isSupported()) {
+      assertThatThrownBy(() -> new VirtualThreadTaskExecutor("test-", new Semaphore(1), 1, true))
+          .isInstanceOf(IllegalStateException.class);
+    }
+  }
+
+  @Test
+  public void testConcurrencyIsLimitedByPermits() throws Exception {
+    Semaphore permits = new Semaphore(3);
+    // Platform threads behave the same as virtual threads here
+    VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(Thread::new, permits, 5, true);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    AtomicInteger completed = new AtomicInteger();
+
+    for (int i = 0; i < 50; i++) {
+      executor.execute(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        sleep(5);
+        running.decrementAndGet();
+        completed.incrementAndGet();
+      });
+      assertThat(executor.getQueueSize()).isLessThanOrEqualTo(5);
+    }
+    executor.destroy();
+
+    assertThat(completed.get()).isEqualTo(50);
+    assertThat(maxRunning.get()).isEqualTo(3);
+    assertThat(permits.availablePermits()).isEqualTo(3);
+    assertThat(executor.getActiveCount()).isZero();
+    assertThat(executor.getQueueSize()).isZero();
+  }
+
+  @Test
+  public void testRejectWhenQueueIsFull() throws Exception {
+    VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(Thread::new, new Semaphore(1), 2, false);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      await(release);
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    executor.execute(() -> await(release));
+    executor.execute(() -> await(release));
+
+    assertThatThrownBy(() -> executor.execute(() -> {
+    })).isInstanceOf(TaskRejectedException.class);
+    assertThat(executor.getActiveCount()).isEqualTo(1);
+
+    release.countDown();
+    executor.destroy();
+    assertThatThrownBy(() -> executor.execute(() -> {
+    })).isInstanceOf(TaskRejectedException.class);
+  }
+
+  @Test
+  public void testCallerRunsAfterShutdown() throws Exception {
+    VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(Thread::new, new Semaphore(1), 1, true);
+    executor.destroy();
+    Thread[] thread = new Thread[1];
+
+    executor.execute(() -> thread[0] = Thread.currentThread());
+
+    assertThat(thread[0]).isSameAs(Thread.currentThread());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.vaulttec.gitlab.enforcer.EnforcerEvents;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BinaryAuditLogWriterTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    Path file = tempDir.resolve("audit.bin");
+    List<AuditEvent> events = createEvents(1000);
+    try (BinaryAuditLogWriter writer = new BinaryAuditLogWriter(file, Long.MAX_VALUE)) {
+      for (AuditEvent event : events) {
+        writer.write(event);
+      }
+    }
+
+    List<AuditEvent> readEvents = readEvents(file);
+    assertThat(readEvents).hasSize(1000);
+    for (int i = 0; i < events.size(); i++) {
+      assertThat(readEvents.get(i).getTimestamp()).isEqualTo(events.get(i).getTimestamp());
+      assertThat(readEvents.get(i).getPrincipal()).isEqualTo(events.get(i).getPrincipal());
+      assertThat(readEvents.get(i).getType()).isEqualTo(events.get(i).getType());
+      assertThat(readEvents.get(i).getData()).containsEntry("execution", "SCHEDULED")
+          .containsEntry("rule", events.get(i).getData().get("rule"))
+          .containsEntry("project", events.get(i).getData().get("project")).containsEntry("flag", null);
+    }
+
+    // Much smaller than the JSON lines
+    StringWriter json = new StringWriter();
+    try (InputStream in = Files.newInputStream(file)) {
+      assertThat(BinaryAuditLogReader.toJsonLines(in, json, objectMapper)).isEqualTo(1000);
+    }
+    String[] lines = json.toString().split("\n");
+    assertThat(lines).hasSize(1000);
+    JsonNode line = objectMapper.readTree(lines[1]);
+    assertThat(line.path("timestamp").asText()).isEqualTo(events.get(1).getTimestamp().toString());
+    assertThat(line.path("data").path("rule").asText()).isEqualTo("PROTECTED_BRANCH");
+    assertThat(Files.size(file)).isLessThan(json.toString().length() / 3);
+  }
+
+  @Test
+  public void testIncompleteRecordIsIgnored() throws Exception {
+    Path file = tempDir.resolve("audit.bin");
+    try (BinaryAuditLogWriter writer = new BinaryAuditLogWriter(file, Long.MAX_VALUE)) {
+      for (AuditEvent event : createEvents(10)) {
+        writer.write(event);
+      }
+    }
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 2), StandardOpenOption.TRUNCATE_EXISTING);
+
+    assertThat(readEvents(file)).hasSize(9);
+  }
+
+  @Test
+  public void testRollover() throws Exception {
+    Path file = tempDir.resolve("audit.bin");
+    try (BinaryAuditLogWriter writer = new BinaryAuditLogWriter(file, 1000)) {
+      for (AuditEvent event : createEvents(100)) {
+        writer.write(event);
+      }
+    }
+    // Reopening rolls over the existing file
+    new BinaryAuditLogWriter(file, 1000).close();
+
+    List<Path> files;
+    try (Stream<Path> list = Files.list(tempDir)) {
+      files = list.filter(f -> !f.equals(file)).collect(Collectors.toList());
+    }
+    assertThat(files).hasSizeGreaterThan(1);
+    int count = 0;
+    for (Path rolledFile : files) {
+      count += readEvents(rolledFile).size();
+    }
+    assertThat(count).isEqualTo(100);
+    assertThat(readEvents(file)).isEmpty();
+  }
+
+  private List<AuditEvent> createEvents(int count) {
+    Instant start = Instant.parse("2019-01-01T00:00:00.123456Z");
+    List<AuditEvent> events = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      AuditEvent event = EnforcerEvents.createProjectEvent(EnforcerExecution.SCHEDULED,
+          i % 2 == 0 ? "PUSH_RULES" : "PROTECTED_BRANCH", "project=group/project" + i, "flag");
+      events.add(new AuditEvent(start.plusMillis(i * 7), event.getPrincipal(), event.getType(), event.getData()));
+    }
+    return events;
+  }
+
+  private List<AuditEvent> readEvents(Path file) throws Exception {
+    List<AuditEvent> events = new ArrayList<>();
+    try (BinaryAuditLogReader reader = new BinaryAuditLogReader(Files.newInputStream(file))) {
+      AuditEvent event;
+      while ((event = reader.read()) != null) {
+        events.add(event);
+      }
+    }
+    return events;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.audit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.vaulttec.gitlab.enforcer.EnforcerEvents;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SegmentedAuditEventRepositoryTest {
+
+  private static final Instant START = Instant.parse("2019-01-01T00:00:00Z");
+
+  @TempDir
+  Path tempDir;
+
+  private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+  @Test
+  public void testFindAcrossSegments() throws Exception {
+    SegmentedAuditEventRepository repository = createRepository();
+    for (int i = 0; i < 1000; i++) {
+      repository.add(createEvent(i));
+    }
+
+    assertThat(listSegments()).hasSizeGreaterThan(1);
+    assertThat(repository.find(null, null, null)).hasSize(1000);
+    assertThat(repository.find(null, null, EnforcerEvents.GROUP_UPDATED)).hasSize(100);
+    assertThat(repository.find(EnforcerEvents.PRINCIPAL, START.plusSeconds(899), null)).hasSize(100);
+    List<AuditEvent> events = repository.find(null, START.plusSeconds(499), EnforcerEvents.PROJECT_UPDATED,
+        "PUSH_RULES");
+    assertThat(events).hasSize(200).allMatch(event -> event.getTimestamp().isAfter(START.plusSeconds(499)));
+    assertThat(events.get(0).getData()).containsEntry("rule", "PUSH_RULES").containsEntry("execution", "SCHEDULED")
+        .containsEntry("project", "project502");
+    assertThat(repository.find("unknown", null, null)).isEmpty();
+    repository.destroy();
+  }
+
+  @Test
+  public void testFindReturnsLatestEvents() throws Exception {
+    SegmentedAuditEventRepository repository = new SegmentedAuditEventRepository(tempDir, 50_000,
+        Duration.ofDays(100_000), 10, objectMapper);
+    for (int i = 0; i < 500; i++) {
+      repository.add(createEvent(i));
+    }
+
+    List<AuditEvent> events = repository.find(null, null, null);
+    assertThat(events).hasSize(10);
+    assertThat(events.get(0).getTimestamp()).isEqualTo(START.plusSeconds(490));
+    assertThat(events.get(9).getTimestamp()).isEqualTo(START.plusSeconds(499));
+    repository.destroy();
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    SegmentedAuditEventRepository repository = createRepository();
+    for (int i = 0; i < 500; i++) {
+      repository.add(createEvent(i));
+    }
+    repository.destroy();
+    assertThat(listFiles(SegmentedAuditEventRepository.INDEX_SUFFIX)).hasSameSizeAs(listSegments());
+
+    // Simulate a crash while writing the last event
+    Path lastSegment = listSegments().get(listSegments().size() - 1);
+    Files.write(lastSegment, "{\"timestamp\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    repository = createRepository();
+    assertThat(repository.find(null, null, null)).hasSize(500);
+    repository.add(createEvent(500));
+    assertThat(repository.find(null, START.plusSeconds(499), null)).hasSize(1);
+    repository.destroy();
+  }
+
+  @Test
+  public void testRetention() throws Exception {
+    SegmentedAuditEventRepository repository = new SegmentedAuditEventRepository(tempDir, 10_000,
+        Duration.ofDays(1), 0, objectMapper);
+    for (int i = 0; i < 200; i++) {
+      repository.add(createEvent(i));
+    }
+    for (int i = 0; i < 200; i++) {
+      repository.add(new AuditEvent(Instant.now(), EnforcerEvents.PRINCIPAL, EnforcerEvents.GROUP_UPDATED,
+          Map.of()));
+    }
+
+    // Segments with old events only are deleted when a new segment is started
+    List<AuditEvent> events = repository.find(null, null, null);
+    assertThat(events).hasSizeLessThan(400);
+    assertThat(events).filteredOn(event -> event.getTimestamp().isAfter(START.plusSeconds(199))).hasSize(200);
+    repository.destroy();
+  }
+
+  @Test
+  public void testRetentionWithoutNewSegment() throws Exception {
+    SegmentedAuditEventRepository repository = new SegmentedAuditEventRepository(tempDir, 10_000,
+        Duration.ofSeconds(1), 0, objectMapper);
+    Instant time = Instant.now().minusMillis(500);
+    while (listSegments().size() < 3) {
+      repository.add(new AuditEvent(time, EnforcerEvents.PRINCIPAL, EnforcerEvents.GROUP_UPDATED, Map.of()));
+    }
+
+    // Expired segments are deleted when an event is added to the active one
+    Thread.sleep(1000);
+    repository.add(new AuditEvent(Instant.now(), EnforcerEvents.PRINCIPAL, EnforcerEvents.GROUP_UPDATED, Map.of()));
+    assertThat(listSegments()).hasSize(1);
+    assertThat(repository.find(null, null, null)).last().extracting(AuditEvent::getTimestamp)
+        .matches(timestamp -> timestamp.isAfter(time));
+    repository.destroy();
+
+    // Expired segments are deleted on startup
+    Thread.sleep(10);
+    repository = new SegmentedAuditEventRepository(tempDir, 10_000, Duration.ofMillis(1), 0, objectMapper);
+    assertThat(listSegments()).isEmpty();
+    assertThat(listFiles(SegmentedAuditEventRepository.INDEX_SUFFIX)).isEmpty();
+    assertThat(repository.find(null, null, null)).isEmpty();
+    repository.destroy();
+  }
+
+  private SegmentedAuditEventRepository createRepository() {
+    return new SegmentedAuditEventRepository(tempDir, 50_000, Duration.ofDays(100_000), 1000, objectMapper);
+  }
+
+  private AuditEvent createEvent(int i) {
+    AuditEvent event = i % 10 == 0
+        ? EnforcerEvents.createGroupEvent(EnforcerExecution.SCHEDULED,
+            "GROUP_SETTINGS", "group=group" + i)
+        : EnforcerEvents.createProjectEvent(EnforcerExecution.SCHEDULED,
+            i % 2 == 0 ? "PUSH_RULES" : "PROTECTED_BRANCH", "project=project" + i);
+    return new AuditEvent(START.plusSeconds(i), event.getPrincipal(), event.getType(), event.getData());
+  }
+
+  private List<Path> listSegments() throws Exception {
+    return listFiles(SegmentedAuditEventRepository.SEGMENT_SUFFIX);
+  }
+
+  private List<Path> listFiles(String suffix) throws Exception {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return files.filter(file -> file.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.web.client.MockServerRestTemplateCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.http.client.RateLimitInterceptor;
+import org.vaulttec.http.client.Transport;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class GitLabClientTest {
+
+  private static final String API_URL = "http://gitlab.local/api/v4";
+
+  private MockRestServiceServer server;
+  private MeterRegistry meterRegistry;
+  private GitLabClient client;
+
+  @BeforeEach
+  public void setUp() {
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl("http://gitlab.local");
+    config.setPersonalAccessToken("token");
+    config.setTransport(Transport.SIMPLE);
+    config.setRetryBackoff(Duration.ofMillis(1));
+    MockServerRestTemplateCustomizer customizer = new MockServerRestTemplateCustomizer();
+    meterRegistry = new SimpleMeterRegistry();
+    client = new RestGitLabClient(config, new RestTemplateBuilder(customizer), new SyncTaskExecutor(), meterRegistry);
+    server = customizer.getServer();
+  }
+
+  @Test
+  public void testEntityCache() {
+    server.expect(ExpectedCount.once(), requestTo(API_URL + "/projects/1")).andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("{\"id\":\"1\",\"path\":\"p1\"}", MediaType.APPLICATION_JSON));
+    server.expect(ExpectedCount.once(), requestTo(API_URL + "/projects/1/push_rule"))
+        .andExpect(method(HttpMethod.GET)).andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+    server.expect(ExpectedCount.once(), requestTo(API_URL + "/projects/1/push_rule?member_check=true"))
+        .andExpect(method(HttpMethod.PUT)).andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+    server.expect(ExpectedCount.once(), requestTo(API_URL + "/projects/1/push_rule"))
+        .andExpect(method(HttpMethod.GET)).andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+    new EntityCache().run(() -> {
+      Project project = client.getProject("1");
+      assertThat(project).isNotNull();
+      assertThat(client.getProject("1")).isSameAs(project);
+      assertThat(client.getPushRules("1")).isNotNull();
+      client.writePushRules(HttpMethod.PUT, "1", "member_check", "true");
+      // Modified entities are evicted
+      assertThat(client.getPushRules("1")).isNotNull();
+    });
+
+    server.verify();
+    assertThat(meterRegistry.get("gitlab.entity.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("gitlab.entity.cache").tag("result", "miss").counter().count()).isEqualTo(3);
+  }
+
+  @Test
+  public void testEntityCacheWithFailedRequest() {
+    server.expect(ExpectedCount.once(), requestTo(API_URL + "/projects/1")).andExpect(method(HttpMethod.GET))
+        .andRespond(withStatus(HttpStatus.NOT_FOUND));
+    server.expect(ExpectedCount.once(), requestTo(API_URL + "/projects/1")).andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("{\"id\":\"1\",\"path\":\"p1\"}", MediaType.APPLICATION_JSON));
+
+    new EntityCache().run(() -> {
+      assertThat(client.getProject("1")).isNull();
+      // Failed requests are not cached
+      assertThat(client.getProject("1")).isNotNull();
+      assertThat(client.getProject("1")).isNotNull();
+    });
+
+    server.verify();
+  }
+
+  @Test
+  public void testResumePaginationAfterTransientFailure() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.LINK, "<" + API_URL + "/groups?page=2&per_page=100>; rel=\"next\"");
+    server.expect(requestTo(API_URL + "/groups?per_page=100"))
+        .andRespond(withSuccess("[{\"id\":\"1\"}]", MediaType.APPLICATION_JSON).headers(headers));
+    server.expect(requestTo(API_URL + "/groups?page=2&per_page=100")).andRespond(withStatus(HttpStatus.BAD_GATEWAY));
+    server.expect(requestTo(API_URL + "/groups?page=2&per_page=100"))
+        .andRespond(withSuccess("[{\"id\":\"2\"}]", MediaType.APPLICATION_JSON));
+
+    List<Group> groups = client.getGroups(null);
+
+    server.verify();
+    assertThat(groups).extracting(Group::getId).containsExactly("1", "2");
+    assertThat(meterRegistry.get("gitlab.api.retries").tag("endpoint", "/groups").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("gitlab.api.pages").tag("endpoint", "/groups").counter().count()).isEqualTo(2);
+    assertThat(meterRegistry.get("gitlab.api.requests").tag("endpoint", "/groups").tag("status", "200").timer()
+        .count()).isEqualTo(2);
+    assertThat(meterRegistry.get("gitlab.api.requests").tag("endpoint", "/groups").tag("status", "502").timer()
+        .count()).isEqualTo(1);
+    assertThat(meterRegistry.get("gitlab.api.response.size").tag("endpoint", "/groups").summary().count())
+        .isEqualTo(3);
+  }
+
+  @Test
+  public void testRateLimitedRequestIsRecorded() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(RateLimitInterceptor.RETRY_AFTER_HEADER, "0");
+    server.expect(requestTo(API_URL + "/projects/1"))
+        .andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+    server.expect(requestTo(API_URL + "/projects/1"))
+        .andRespond(withSuccess("{\"id\":\"1\",\"path\":\"p1\"}", MediaType.APPLICATION_JSON));
+
+    assertThat(client.getProject("1")).isNotNull();
+
+    server.verify();
+    assertThat(meterRegistry.get("gitlab.api.requests").tag("endpoint", "/projects/{projectId}").timers())
+        .hasSize(2).allMatch(timer -> timer.count() == 1);
+    assertThat(meterRegistry.get("gitlab.api.requests").tag("status", "429").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("gitlab.api.requests").tag("status", "200").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testWithoutEntityCache() {
+    server.expect(ExpectedCount.twice(), requestTo(API_URL + "/projects/1")).andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("{\"id\":\"1\",\"path\":\"p1\"}", MediaType.APPLICATION_JSON));
+
+    assertThat(client.getProject("1")).isNotNull();
+    assertThat(client.getProject("1")).isNotNull();
+
+    server.verify();
+  }
+
+  @Test
+  public void testSeededEntityCache() {
+    Project project = new Project("1", "p1", null);
+    EntityCache cache = new EntityCache();
+    cache.putProject(project);
+
+    cache.run(() -> assertThat(client.getProject("1")).isSameAs(project));
+
+    server.verify();
+  }
+}
@@ -0,0 +1,621 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.vaulttec.http.client.RateLimitInterceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embeddable fake of the parts of the GitLab API used by the enforcer (groups,
+ * projects, protected branches, push rules, namespaces and sharing) for
+ * offline end-to-end tests. The instance size, the latency and error rate of
+ * every request and the rate limit are configurable. Lists support offset and
+ * keyset pagination like GitLab.
+ * <p>
+ * Every second project belongs to a group with a protected
+ * <code>master</code> branch and push rules, so sweeps find compliant as well
+ * as non-compliant projects. User projects are shared with their group.
+ */
+public class MockGitLabServer implements AutoCloseable {
+
+  public static final String API_PATH = "/api/v4";
+  private static final int MAX_PER_PAGE = 100;
+  private static final Instant NOW = Instant.parse("2023-11-01T00:00:00Z");
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final NavigableMap<Long, Map<String, Object>> groups = new ConcurrentSkipListMap<>();
+  private final NavigableMap<Long, Map<String, Object>> projects = new ConcurrentSkipListMap<>();
+  private final Map<Long, Map<String, Map<String, Object>>> protectedBranches = new ConcurrentHashMap<>();
+  private final Map<Long, Map<String, Object>> pushRules = new ConcurrentHashMap<>();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong writeRequests = new AtomicLong();
+  private final AtomicLong rateLimitedRequests = new AtomicLong();
+  private final AtomicLong failedRequests = new AtomicLong();
+  private final AtomicLong rateLimitWindow = new AtomicLong();
+  private final AtomicLong rateLimitCount = new AtomicLong();
+
+  private String token = "token";
+  private int workers = 32;
+  private Duration latency = Duration.ZERO;
+  private double errorRate;
+  private int requestsPerSecond;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * Creates the given number of groups with the given number of projects each
+   * and the given number of user projects.
+   */
+  public MockGitLabServer(int groupCount, int projectsPerGroup, int userProjectCount) {
+    long projectId = 1;
+    for (long groupId = 1; groupId <= groupCount; groupId++) {
+      groups.put(groupId, createGroup(groupId));
+      for (int i = 0; i < projectsPerGroup; i++) {
+        addProject(projectId++, createNamespace(groupId, "group-" + groupId, "group"), null);
+      }
+    }
+    for (int i = 0; i < userProjectCount; i++) {
+      long userId = 1000 + i;
+      Long sharedWithGroupId = groupCount > 0 ? (long) (i % groupCount) + 1 : null;
+      addProject(projectId++, createNamespace(userId, "user-" + userId, "user"), sharedWithGroupId);
+    }
+  }
+
+  public MockGitLabServer token(String token) {
+    this.token = token;
+    return this;
+  }
+
+  /**
+   * Number of requests processed concurrently.
+   */
+  public MockGitLabServer workers(int workers) {
+    this.workers = workers;
+    return this;
+  }
+
+  /**
+   * Latency added to every request (with a random jitter of up to 20%).
+   */
+  public MockGitLabServer latency(Duration latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /**
+   * Rate of requests failing with status 502.
+   */
+  public MockGitLabServer errorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * Requests per second before requests are rejected with status 429 (0 is
+   * unlimited).
+   */
+  public MockGitLabServer requestsPerSecond(int requestsPerSecond) {
+    this.requestsPerSecond = requestsPerSecond;
+    return this;
+  }
+
+  public MockGitLabServer start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    executor = Executors.newFixedThreadPool(workers);
+    server.setExecutor(executor);
+    server.createContext(API_PATH, this::handle);
+    server.start();
+    return this;
+  }
+
+  @Override
+  public void close() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  public String getServerUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public int getGroupCount() {
+    return groups.size();
+  }
+
+  public int getProjectCount() {
+    return projects.size();
+  }
+
+  public Collection<Map<String, Object>> getProjects() {
+    return projects.values();
+  }
+
+  public Map<String, Object> getProtectedBranch(long projectId, String name) {
+    return protectedBranches.getOrDefault(projectId, Map.of()).get(name);
+  }
+
+  public Map<String, Object> getPushRules(long projectId) {
+    return pushRules.get(projectId);
+  }
+
+  /**
+   * Returns the number of all requests (including rejected and failed ones).
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  public long getWriteRequestCount() {
+    return writeRequests.get();
+  }
+
+  public long getRateLimitedRequestCount() {
+    return rateLimitedRequests.get();
+  }
+
+  public long getFailedRequestCount() {
+    return failedRequests.get();
+  }
+
+  public void resetCounts() {
+    requests.set(0);
+    writeRequests.set(0);
+    rateLimitedRequests.set(0);
+    failedRequests.set(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      requests.incrementAndGet();
+      String method = exchange.getRequestMethod();
+      if (!"GET".equals(method)) {
+        writeRequests.incrementAndGet();
+      }
+      try (InputStream body = exchange.getRequestBody()) {
+        body.readAllBytes();
+      }
+      if (token != null && !token.equals(exchange.getRequestHeaders().getFirst("PRIVATE-TOKEN"))) {
+        sendMessage(exchange, 401, "401 Unauthorized");
+        return;
+      }
+      if (isRateLimited(exchange)) {
+        rateLimitedRequests.incrementAndGet();
+        sendMessage(exchange, 429, "Retry later");
+        return;
+      }
+      delay();
+      if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+        failedRequests.incrementAndGet();
+        sendMessage(exchange, 502, "502 Bad Gateway");
+        return;
+      }
+      route(exchange, method, getSegments(exchange), getParameters(exchange));
+    } catch (RuntimeException e) {
+      sendMessage(exchange, 500, e.toString());
+    }
+  }
+
+  private boolean isRateLimited(HttpExchange exchange) {
+    if (requestsPerSecond <= 0) {
+      return false;
+    }
+    long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    long window = rateLimitWindow.get();
+    if (window != second && rateLimitWindow.compareAndSet(window, second)) {
+      rateLimitCount.set(0);
+    }
+    long remaining = requestsPerSecond - rateLimitCount.incrementAndGet();
+    exchange.getResponseHeaders().set("RateLimit-Limit", Integer.toString(requestsPerSecond));
+    exchange.getResponseHeaders().set(RateLimitInterceptor.REMAINING_HEADER, Long.toString(Math.max(remaining, 0)));
+    exchange.getResponseHeaders().set(RateLimitInterceptor.RESET_HEADER, Long.toString(second + 1));
+    if (remaining < 0) {
+      exchange.getResponseHeaders().set("Retry-After", "1");
+      return true;
+    }
+    return false;
+  }
+
+  private void delay() {
+    if (!latency.isZero()) {
+      long nanos = latency.toNanos();
+      long jitter = ThreadLocalRandom.current().nextLong(nanos / 5 + 1);
+      try {
+        TimeUnit.NANOSECONDS.sleep(nanos + jitter);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void route(HttpExchange exchange, String method, List<String> path, Map<String, String> parameters)
+      throws IOException {
+    String resource = path.isEmpty() ? "" : path.get(0);
+    Long id = path.size() > 1 ? parseId(path.get(1)) : null;
+    if ("groups".equals(resource)) {
+      if (path.size() == 1 && "GET".equals(method)) {
+        sendPage(exchange, parameters, filter(groups.values(), parameters), false);
+        return;
+      } else if (path.size() == 2 && id != null && groups.containsKey(id)) {
+        if ("PUT".equals(method)) {
+          Map<String, Object> group = groups.get(id);
+          synchronized (group) {
+            parameters.forEach((key, value) -> group.put(key, convert(value)));
+          }
+        }
+        send(exchange, 200, groups.get(id));
+        return;
+      } else if (path.size() == 3 && "projects".equals(path.get(2)) && id != null && groups.containsKey(id)) {
+        List<Map<String, Object>> groupProjects = projects.values().stream()
+            .filter(project -> id.equals(((Map<?, ?>) project.get("namespace")).get("id"))
+                && "group".equals(((Map<?, ?>) project.get("namespace")).get("kind")))
+            .collect(Collectors.toList());
+        sendPage(exchange, parameters, filter(groupProjects, parameters), false);
+        return;
+      }
+    } else if ("projects".equals(resource)) {
+      if (path.size() == 1 && "GET".equals(method)) {
+        sendPage(exchange, parameters, filterProjects(parameters), "keyset".equals(parameters.get("pagination")));
+        return;
+      } else if (id != null && projects.containsKey(id)) {
+        routeProject(exchange, method, id, path.subList(2, path.size()), parameters);
+        return;
+      }
+    } else if ("namespaces".equals(resource) && path.size() == 1) {
+      List<Object> namespaces = new ArrayList<>();
+      groups.values().forEach(group -> namespaces
+          .add(createNamespace(((Number) group.get("id")).longValue(), (String) group.get("path"), "group")));
+      sendPage(exchange, parameters, namespaces, false);
+      return;
+    }
+    sendMessage(exchange, 404, "404 Not Found");
+  }
+
+  private void routeProject(HttpExchange exchange, String method, long id, List<String> path,
+      Map<String, String> parameters) throws IOException {
+    String resource = path.isEmpty() ? "" : path.get(0);
+    if (path.isEmpty() && "GET".equals(method)) {
+      send(exchange, 200, projects.get(id));
+    } else if ("repository".equals(resource) && path.size() == 2 && "branches".equals(path.get(1))) {
+      send(exchange, 200, List.of(createBranch("master"), createBranch("develop")));
+    } else if ("protected_branches".equals(resource)) {
+      Map<String, Map<String, Object>> branches = protectedBranches.computeIfAbsent(id,
+          key -> new ConcurrentHashMap<>());
+      // Branch names with slashes are not encoded by the client
+      String name = path.size() > 1 ? String.join("/", path.subList(1, path.size())) : parameters.get("name");
+      if (path.size() == 1 && "GET".equals(method)) {
+        sendPage(exchange, parameters, new ArrayList<>(branches.values()), false);
+      } else if (path.size() == 1 && "POST".equals(method) && name != null) {
+        Map<String, Object> branch = createProtectedBranch(name, parameters);
+        if (branches.putIfAbsent(name, branch) != null) {
+          sendMessage(exchange, 409, "Protected branch '" + name + "' already exists");
+        } else {
+          send(exchange, 201, branch);
+        }
+      } else if (path.size() > 1 && branches.containsKey(name)) {
+        if ("DELETE".equals(method)) {
+          branches.remove(name);
+          send(exchange, 204, null);
+        } else {
+          send(exchange, 200, branches.get(name));
+        }
+      } else {
+        sendMessage(exchange, 404, "404 Not Found");
+      }
+    } else if ("push_rule".equals(resource)) {
+      if ("GET".equals(method)) {
+        send(exchange, 200, pushRules.get(id));
+      } else {
+        Map<String, Object> rules = "POST".equals(method) ? createPushRules(id) : pushRules.get(id);
+        if (rules == null) {
+          sendMessage(exchange, 404, "404 Not Found");
+        } else {
+          parameters.forEach((key, value) -> rules.put(key, convert(value)));
+          pushRules.put(id, rules);
+          send(exchange, "POST".equals(method) ? 201 : 200, rules);
+        }
+      }
+    } else if ("share".equals(resource) && path.size() == 2 && "DELETE".equals(method)) {
+      Map<String, Object> project = projects.get(id);
+      synchronized (project) {
+        List<?> sharedWithGroups = (List<?>) project.get("shared_with_groups");
+        project.put("shared_with_groups", sharedWithGroups.stream()
+            .filter(group -> !path.get(1).equals(String.valueOf(((Map<?, ?>) group).get("group_id"))))
+            .collect(Collectors.toList()));
+      }
+      send(exchange, 204, null);
+    } else {
+      sendMessage(exchange, 404, "404 Not Found");
+    }
+  }
+
+  private List<Object> filterProjects(Map<String, String> parameters) {
+    Long idAfter = parameters.containsKey("id_after") ? Long.parseLong(parameters.get("id_after")) : null;
+    Instant lastActivityAfter = parameters.containsKey("last_activity_after")
+        ? Instant.parse(parameters.get("last_activity_after"))
+        : null;
+    Collection<Map<String, Object>> candidates = idAfter != null ? projects.tailMap(idAfter, false).values()
+        : projects.values();
+    return filter(candidates.stream()
+        .filter(project -> lastActivityAfter == null
+            || Instant.parse((String) project.get("last_activity_at")).isAfter(lastActivityAfter))
+        .collect(Collectors.toList()), parameters);
+  }
+
+  private List<Object> filter(Collection<Map<String, Object>> entities, Map<String, String> parameters) {
+    String search = parameters.get("search");
+    return entities.stream().filter(entity -> search == null || ((String) entity.get("path")).contains(search))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Sends the requested page of the given entities. Keyset pagination only
+   * provides a link to the next page, offset pagination the links and headers
+   * of all pages.
+   */
+  private void sendPage(HttpExchange exchange, Map<String, String> parameters, List<Object> entities,
+      boolean keyset) throws IOException {
+    int perPage = Math.min(Integer.parseInt(parameters.getOrDefault("per_page", "20")), MAX_PER_PAGE);
+    if (keyset) {
+      List<Object> page = entities.subList(0, Math.min(perPage, entities.size()));
+      if (entities.size() > perPage) {
+        Object lastId = ((Map<?, ?>) page.get(page.size() - 1)).get("id");
+        Map<String, String> next = new LinkedHashMap<>(parameters);
+        next.put("id_after", lastId.toString());
+        exchange.getResponseHeaders().set("Link", "<" + createUrl(exchange, next) + ">; rel=\"next\"");
+      }
+      send(exchange, 200, page);
+      return;
+    }
+    int pageCount = Math.max((entities.size() + perPage - 1) / perPage, 1);
+    int pageNumber = Math.max(Integer.parseInt(parameters.getOrDefault("page", "1")), 1);
+    List<String> links = new ArrayList<>();
+    if (pageNumber < pageCount) {
+      links.add(createPageLink(exchange, parameters, pageNumber + 1, "next"));
+      exchange.getResponseHeaders().set("X-Next-Page", Integer.toString(pageNumber + 1));
+    }
+    if (pageNumber > 1) {
+      links.add(createPageLink(exchange, parameters, pageNumber - 1, "prev"));
+    }
+    links.add(createPageLink(exchange, parameters, 1, "first"));
+    links.add(createPageLink(exchange, parameters, pageCount, "last"));
+    exchange.getResponseHeaders().set("Link", String.join(", ", links));
+    exchange.getResponseHeaders().set("X-Page", Integer.toString(pageNumber));
+    exchange.getResponseHeaders().set("X-Per-Page", Integer.toString(perPage));
+    exchange.getResponseHeaders().set("X-Total", Integer.toString(entities.size()));
+    exchange.getResponseHeaders().set("X-Total-Pages", Integer.toString(pageCount));
+    int from = Math.min((pageNumber - 1) * perPage, entities.size());
+    send(exchange, 200, entities.subList(from, Math.min(from + perPage, entities.size())));
+  }
+
+  private String createPageLink(HttpExchange exchange, Map<String, String> parameters, int page, String rel) {
+    Map<String, String> pageParameters = new LinkedHashMap<>(parameters);
+    pageParameters.put("page", Integer.toString(page));
+    return "<" + createUrl(exchange, pageParameters) + ">; rel=\"" + rel + "\"";
+  }
+
+  private String createUrl(HttpExchange exchange, Map<String, String> parameters) {
+    return getServerUrl() + exchange.getRequestURI().getRawPath() + "?"
+        + parameters.entrySet().stream().map(e -> encode(e.getKey()) + "=" + encode(e.getValue()))
+            .collect(Collectors.joining("&"));
+  }
+
+  private void send(HttpExchange exchange, int status, Object body) throws IOException {
+    if (status == 204) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    byte[] json = objectMapper.writeValueAsBytes(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, json.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(json);
+    }
+  }
+
+  private void sendMessage(HttpExchange exchange, int status, String message) throws IOException {
+    send(exchange, status, Map.of("message", message));
+  }
+
+  private void addProject(long id, Map<String, Object> namespace, Long sharedWithGroupId) {
+    String path = "project-" + id;
+    Map<String, Object> project = new LinkedHashMap<>();
+    project.put("id", id);
+    project.put("name", path);
+    project.put("path", path);
+    project.put("path_with_namespace", namespace.get("full_path") + "/" + path);
+    project.put("description", "Project " + id);
+    project.put("default_branch", "master");
+    project.put("visibility", "private");
+    project.put("web_url", "https://gitlab.example.com/" + namespace.get("full_path") + "/" + path);
+    project.put("created_at", NOW.minus(Duration.ofDays(365)).toString());
+    // Spread the activity over the last 30 days
+    project.put("last_activity_at", NOW.minus(Duration.ofMinutes(id * 7919 % 43200)).toString());
+    project.put("namespace", namespace);
+    project.put("repository_access_level", "enabled");
+    project.put("merge_requests_access_level", "enabled");
+    project.put("archived", false);
+    List<Map<String, Object>> sharedWithGroups = new ArrayList<>();
+    if (sharedWithGroupId != null) {
+      Map<String, Object> share = new LinkedHashMap<>();
+      share.put("group_id", sharedWithGroupId);
+      share.put("group_name", "Group " + sharedWithGroupId);
+      share.put("group_full_path", "group-" + sharedWithGroupId);
+      share.put("group_access_level", 30);
+      sharedWithGroups.add(share);
+    }
+    project.put("shared_with_groups", sharedWithGroups);
+    projects.put(id, project);
+    if (id % 2 == 0 && "group".equals(namespace.get("kind"))) {
+      Map<String, Map<String, Object>> branches = new ConcurrentHashMap<>();
+      branches.put("master", createProtectedBranch("master",
+          Map.of("push_access_level", "40", "merge_access_level", "40", "unprotect_access_level", "60")));
+      protectedBranches.put(id, branches);
+      Map<String, Object> rules = createPushRules(id);
+      rules.put("member_check", true);
+      pushRules.put(id, rules);
+    }
+  }
+
+  private static Map<String, Object> createGroup(long id) {
+    Map<String, Object> group = new LinkedHashMap<>();
+    group.put("id", id);
+    group.put("name", "Group " + id);
+    group.put("path", "group-" + id);
+    group.put("full_path", "group-" + id);
+    group.put("description", "Group " + id);
+    group.put("visibility", "private");
+    group.put("web_url", "https://gitlab.example.com/groups/group-" + id);
+    group.put("membership_lock", false);
+    group.put("share_with_group_lock", false);
+    group.put("auto_devops_enabled", null);
+    group.put("project_creation_level", "developer");
+    group.put("subgroup_creation_level", "maintainer");
+    group.put("parent_id", null);
+    return group;
+  }
+
+  private static Map<String, Object> createNamespace(long id, String path, String kind) {
+    Map<String, Object> namespace = new LinkedHashMap<>();
+    namespace.put("id", id);
+    namespace.put("name", path);
+    namespace.put("path", path);
+    namespace.put("kind", kind);
+    namespace.put("full_path", path);
+    return namespace;
+  }
+
+  private static Map<String, Object> createBranch(String name) {
+    Map<String, Object> branch = new LinkedHashMap<>();
+    branch.put("name", name);
+    branch.put("merged", false);
+    branch.put("protected", false);
+    branch.put("default", "master".equals(name));
+    branch.put("developers_can_push", false);
+    branch.put("developers_can_merge", false);
+    branch.put("can_push", true);
+    return branch;
+  }
+
+  private static Map<String, Object> createProtectedBranch(String name, Map<String, String> parameters) {
+    Map<String, Object> branch = new LinkedHashMap<>();
+    branch.put("id", Math.abs(name.hashCode()));
+    branch.put("name", name);
+    for (String level : List.of("push_access_level", "merge_access_level", "unprotect_access_level")) {
+      Map<String, Object> accessLevel = new LinkedHashMap<>();
+      accessLevel.put("access_level", Integer.parseInt(parameters.getOrDefault(level, "40")));
+      accessLevel.put("access_level_description", "Maintainers");
+      accessLevel.put("user_id", null);
+      accessLevel.put("group_id", null);
+      branch.put(level + "s", List.of(accessLevel));
+    }
+    branch.put("allow_force_push", false);
+    branch.put("code_owner_approval_required", false);
+    return branch;
+  }
+
+  private static Map<String, Object> createPushRules(long projectId) {
+    Map<String, Object> rules = new ConcurrentHashMap<>();
+    rules.put("id", projectId);
+    rules.put("project_id", projectId);
+    rules.put("created_at", NOW.toString());
+    rules.put("deny_delete_tag", false);
+    rules.put("member_check", false);
+    rules.put("prevent_secrets", false);
+    rules.put("commit_committer_check", false);
+    rules.put("reject_unsigned_commits", false);
+    return rules;
+  }
+
+  private static Object convert(String value) {
+    if ("true".equals(value) || "false".equals(value)) {
+      return Boolean.valueOf(value);
+    }
+    return value.matches("\\d{1,9}") ? Integer.valueOf(value) : value;
+  }
+
+  private static Long parseId(String id) {
+    try {
+      return Long.valueOf(id);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static List<String> getSegments(HttpExchange exchange) {
+    String path = exchange.getRequestURI().getRawPath().substring(API_PATH.length());
+    List<String> segments = new ArrayList<>();
+    for (String segment : path.split("/")) {
+      if (!segment.isEmpty()) {
+        segments.add(URLDecoder.decode(segment, StandardCharsets.UTF_8));
+      }
+    }
+    return segments;
+  }
+
+  private static Map<String, String> getParameters(HttpExchange exchange) {
+    Map<String, String> parameters = new LinkedHashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query != null) {
+      for (String parameter : query.split("&")) {
+        int index = parameter.indexOf('=');
+        if (index > 0) {
+          parameters.put(URLDecoder.decode(parameter.substring(0, index), StandardCharsets.UTF_8),
+              URLDecoder.decode(parameter.substring(index + 1), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return parameters;
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+}
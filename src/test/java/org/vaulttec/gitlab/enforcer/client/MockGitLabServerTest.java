@@ -0,0 +1,126 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.env.MockEnvironment;
+import org.vaulttec.gitlab.enforcer.client.model.Group;
+import org.vaulttec.gitlab.enforcer.client.model.Permission;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
+import org.vaulttec.http.client.Transport;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MockGitLabServerTest {
+
+  private MockGitLabServer server;
+
+  @AfterEach
+  public void tearDown() {
+    server.close();
+  }
+
+  @Test
+  public void testPagination() throws IOException {
+    server = new MockGitLabServer(3, 250, 10).start();
+    GitLabClient client = createClient(true);
+
+    List<Long> ids = client.streamProjects(null).map(project -> Long.valueOf(project.getId()))
+        .collect(Collectors.toList());
+    assertThat(ids).hasSize(760).isSorted();
+    assertThat(client.streamProjects(null, null, 700L).count()).isEqualTo(60);
+    Instant lastActivityAfter = Instant.parse("2023-10-20T00:00:00Z");
+    assertThat(client.streamProjects(null, lastActivityAfter).map(Project::getLastActivityAt))
+        .isNotEmpty().allMatch(time -> time.isAfter(lastActivityAfter));
+
+    assertThat(client.getGroups(null)).extracting(Group::getId).containsExactly("1", "2", "3");
+    assertThat(createClient(false).getProjects(null)).hasSize(760);
+    assertThat(client.getProjectsForGroup("2", null)).hasSize(250).allMatch(project -> project.getKind() != null);
+    assertThat(client.streamTopLevelGroups(1L).map(Group::getId)).containsExactly("2", "3");
+    assertThat(client.streamProjectsForGroupTree("2", lastActivityAfter))
+        .allMatch(project -> project.getLastActivityAt().isAfter(lastActivityAfter));
+  }
+
+  @Test
+  public void testWrites() throws IOException {
+    server = new MockGitLabServer(1, 2, 1).start();
+    GitLabClient client = createClient(true);
+
+    assertThat(client.getProtectedBranchesForProject("1")).isEmpty();
+    assertThat(client.protectBranchForProject("1", "release/*", "push_access_level", "40")).isNotNull();
+    assertThat(client.getProtectedBranchesForProject("1")).extracting(ProtectedBranch::getName)
+        .containsExactly("release/*");
+    assertThat(client.getProtectedBranchesForProject("2").get(0).hasAccessLevel("push_access_level",
+        Permission.MAINTAINER)).isTrue();
+    assertThat(client.unprotectBranchForProject("1", "release/*")).isTrue();
+    assertThat(client.getProtectedBranchesForProject("1")).isEmpty();
+
+    assertThat(client.getPushRules("1")).isNull();
+    assertThat(client.writePushRules(HttpMethod.POST, "1", "member_check", "true").getMemberCheck()).isTrue();
+    assertThat(client.getPushRules("1").isActiveSettings(new String[] { "member_check", "true" })).isTrue();
+
+    assertThat(client.getProject("3").getSharedWithGroups()).hasSize(1);
+    assertThat(client.unshareWithGroup("3", "1")).isTrue();
+    assertThat(client.getProject("3").getSharedWithGroups()).isEmpty();
+
+    assertThat(client.updateGroup("1", "membership_lock", "true")).isNotNull();
+    assertThat(server.getWriteRequestCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void testErrorsAndRateLimit() throws IOException {
+    server = new MockGitLabServer(1, 10, 0).errorRate(0.3).requestsPerSecond(20).start();
+    GitLabClient client = createClient(true);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 50; i++) {
+      assertThat(client.getProject(Integer.toString(i % 10 + 1))).isNotNull();
+    }
+
+    // The client waits for the reset announced by the rate limit headers
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofSeconds(2));
+    assertThat(server.getFailedRequestCount()).isPositive();
+    assertThat(server.getRequestCount())
+        .isEqualTo(50 + server.getFailedRequestCount() + server.getRateLimitedRequestCount());
+  }
+
+  private GitLabClient createClient(boolean keysetPagination) {
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl(server.getServerUrl());
+    config.setPersonalAccessToken(server.getToken());
+    config.setTransport(Transport.SIMPLE);
+    config.setKeysetPagination(keysetPagination);
+    config.setMaxRetries(10);
+    config.setRateLimitRetries(10);
+    config.setRetryBackoff(Duration.ofMillis(1));
+    return new RestGitLabClient(config, new RestTemplateBuilder(), new SyncTaskExecutor(), new SimpleMeterRegistry());
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.client.model.ProtectedBranch;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+public class ReactiveGitLabClientTest {
+
+  private MockGitLabServer server;
+  private ReactiveGitLabClient client;
+  private MeterRegistry meterRegistry;
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    client.destroy();
+    server.close();
+  }
+
+  @Test
+  public void testPagination() throws IOException {
+    server = new MockGitLabServer(3, 250, 10).start();
+    client = createClient(100);
+
+    List<Long> ids = client.getProjects(null, null, null).map(project -> Long.valueOf(project.getId()))
+        .collectList().block();
+    assertThat(ids).hasSize(760).isSorted();
+    assertThat(meterRegistry.get("gitlab.api.pages").counter().count()).isEqualTo(8);
+    assertThat(client.getProjects(null, null, 700L).count().block()).isEqualTo(60);
+    assertThat(client.getGroups(null, 1L).map(group -> group.getId()).collectList().block())
+        .containsExactly("2", "3");
+
+    // Only the first page and the prefetched one are requested
+    server.resetCounts();
+    assertThat(client.getProjects(null, null, null).take(5).collectList().block()).hasSize(5);
+    assertThat(server.getRequestCount()).isLessThanOrEqualTo(2);
+  }
+
+  @Test
+  public void testConcurrentRequestsWithRetries() throws IOException {
+    server = new MockGitLabServer(1, 10, 0).latency(Duration.ofMillis(50)).errorRate(0.3).requestsPerSecond(100)
+        .start();
+    client = createClient(100);
+
+    List<Project> projects = Flux.range(0, 200).flatMap(i -> client.getProject(Integer.toString(i % 10 + 1)), 200)
+        .collectList().block();
+
+    assertThat(projects).hasSize(200).allMatch(project -> project.getId() != null);
+    assertThat(server.getFailedRequestCount()).isPositive();
+    assertThat(server.getRequestCount())
+        .isEqualTo(200 + server.getFailedRequestCount() + server.getRateLimitedRequestCount());
+    assertThat(meterRegistry.get("gitlab.api.requests").tag("status", "502").timer().count())
+        .isEqualTo(server.getFailedRequestCount());
+  }
+
+  @Test
+  public void testAdapter() throws IOException {
+    server = new MockGitLabServer(1, 2, 1).start();
+    client = createClient(1);
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setPerPage(1);
+    GitLabClient adapter = new ReactiveGitLabClientAdapter(config, meterRegistry, client);
+
+    assertThat(adapter.streamProjects(null).map(Project::getId).collect(Collectors.toList())).containsExactly("1",
+        "2", "3");
+    assertThat(adapter.getProtectedBranchForProject("1", "master")).isNull();
+    assertThat(adapter.protectBranchForProject("1", "release/*", "push_access_level", "40")).isNotNull();
+    assertThat(adapter.getProtectedBranchesForProject("1")).extracting(ProtectedBranch::getName)
+        .containsExactly("release/*");
+    assertThat(adapter.unprotectBranchForProject("1", "release/*")).isTrue();
+    assertThat(adapter.unprotectBranchForProject("1", "release/*")).isFalse();
+
+    assertThat(adapter.getPushRules("1")).isNull();
+    assertThat(adapter.writePushRules(HttpMethod.POST, "1", "member_check", "true").getMemberCheck()).isTrue();
+    assertThat(adapter.unshareWithGroup("3", "1")).isTrue();
+    assertThat(adapter.updateGroup("1", "membership_lock", "true")).isNotNull();
+
+    // Entities are cached by the current entity cache
+    server.resetCounts();
+    new EntityCache().run(() -> {
+      assertThat(adapter.getProject("3").getSharedWithGroups()).isEmpty();
+      assertThat(adapter.getProject("3")).isNotNull();
+    });
+    assertThat(server.getRequestCount()).isEqualTo(1);
+  }
+
+  private ReactiveGitLabClient createClient(int perPage) {
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl(server.getServerUrl());
+    config.setPersonalAccessToken(server.getToken());
+    config.setPerPage(perPage);
+    config.setPrefetchPages(1);
+    config.setMaxRetries(10);
+    config.setRateLimitRetries(10);
+    config.setRetryBackoff(Duration.ofMillis(1));
+    meterRegistry = new SimpleMeterRegistry();
+    return new ReactiveGitLabClient(config, WebClient.builder(), meterRegistry);
+  }
+}
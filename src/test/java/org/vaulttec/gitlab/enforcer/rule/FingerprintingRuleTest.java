@@ -0,0 +1,138 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.rule;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.http.HttpMethod;
+import org.vaulttec.gitlab.enforcer.EnforcerEventPublisher;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+import org.vaulttec.gitlab.enforcer.client.GitLabClient;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace;
+import org.vaulttec.gitlab.enforcer.client.model.Namespace.Kind;
+import org.vaulttec.gitlab.enforcer.client.model.Project;
+import org.vaulttec.gitlab.enforcer.client.model.PushRules;
+import org.vaulttec.gitlab.enforcer.rule.Rule.Outcome;
+import org.vaulttec.gitlab.enforcer.state.InMemoryStateStore;
+import org.vaulttec.gitlab.enforcer.state.StateStore;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEvent;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEventBuilder;
+import org.vaulttec.gitlab.enforcer.systemhook.SystemEventName;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class FingerprintingRuleTest {
+
+  private static final String PROJECT_ID = "42";
+  private static final Instant ACTIVITY = Instant.parse("2020-01-01T00:00:00Z");
+
+  private GitLabClient client;
+  private EnforcerEventPublisher eventPublisher;
+  private StateStore stateStore;
+  private Map<String, String> config;
+  private PushRules compliantRules;
+
+  @BeforeEach
+  public void setUp() {
+    client = mock(GitLabClient.class);
+    eventPublisher = new EnforcerEventPublisher(mock(AuditEventRepository.class), mock(ObjectMapper.class));
+    stateStore = new InMemoryStateStore();
+    config = new LinkedHashMap<>();
+    config.put("member_check", "true");
+    compliantRules = new PushRules();
+    compliantRules.setMemberCheck(true);
+  }
+
+  @Test
+  public void testSkipUnchangedProject() {
+    when(client.getPushRules(PROJECT_ID)).thenReturn(compliantRules);
+    Rule rule = createRule(Duration.ofDays(1));
+
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEqualTo(Outcome.COMPLIANT);
+    verify(client, times(2)).getPushRules(PROJECT_ID);
+
+    // Unchanged activity - neither evaluated nor prefetched
+    assertThat(rule.getRequiredResources(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEmpty();
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEqualTo(Outcome.COMPLIANT);
+    verify(client, times(2)).getPushRules(PROJECT_ID);
+
+    // Changed activity, hooks and commands are always evaluated
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY.plusSeconds(1))))
+        .isEqualTo(Outcome.COMPLIANT);
+    verify(client, times(4)).getPushRules(PROJECT_ID);
+    rule.handle(EnforcerExecution.HOOK, createEvent(ACTIVITY.plusSeconds(1)));
+    verify(client, times(5)).getPushRules(PROJECT_ID);
+  }
+
+  @Test
+  public void testVerifyFingerprintAfterMaxAge() {
+    when(client.getPushRules(PROJECT_ID)).thenReturn(compliantRules);
+    Rule rule = createRule(Duration.ZERO);
+
+    rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY));
+    verify(client, times(2)).getPushRules(PROJECT_ID);
+
+    // Unchanged fingerprint - only the fingerprint is recalculated
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEqualTo(Outcome.COMPLIANT);
+    verify(client, times(3)).getPushRules(PROJECT_ID);
+    verify(client, never()).writePushRules(any(), any(), any());
+
+    // Changed fingerprint - the rule is enforced
+    when(client.getPushRules(PROJECT_ID)).thenReturn(new PushRules());
+    when(client.writePushRules(eq(HttpMethod.PUT), eq(PROJECT_ID), any())).thenReturn(compliantRules);
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEqualTo(Outcome.ENFORCED);
+    verify(client).writePushRules(eq(HttpMethod.PUT), eq(PROJECT_ID), any());
+  }
+
+  @Test
+  public void testFailedRuleIsNotSkipped() {
+    when(client.getPushRules(PROJECT_ID)).thenReturn(new PushRules());
+    Rule rule = createRule(Duration.ofDays(1));
+
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEqualTo(Outcome.FAILED);
+    assertThat(rule.handle(EnforcerExecution.SCHEDULED, createEvent(ACTIVITY))).isEqualTo(Outcome.FAILED);
+    verify(client, times(2)).writePushRules(eq(HttpMethod.PUT), eq(PROJECT_ID), any());
+  }
+
+  private Rule createRule(Duration maxAge) {
+    Rule rule = new FingerprintingRule(new PushRulesRule(), stateStore, maxAge);
+    rule.init(Rule.Use.ALWAYS, eventPublisher, client, config);
+    return rule;
+  }
+
+  private SystemEvent createEvent(Instant lastActivityAt) {
+    Project project = new Project(PROJECT_ID, null, new Namespace("1", "ns1", Kind.GROUP));
+    project.setLastActivityAt(lastActivityAt);
+    return new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id(PROJECT_ID).object(project).build();
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.state;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileStateStoreTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testFlushAndLoad() {
+    Path file = tempDir.resolve("state/state.properties");
+    StateStore store = new FileStateStore(file);
+    store.put("sweep.last", "2019-01-01T00:00:00Z");
+    store.put("other", "value");
+    assertThat(file).doesNotExist();
+
+    store.flush();
+    assertThat(file).exists();
+
+    store.remove("other");
+    store.flush();
+
+    StateStore reloadedStore = new FileStateStore(file);
+    assertThat(reloadedStore.get("sweep.last")).isEqualTo("2019-01-01T00:00:00Z");
+    assertThat(reloadedStore.get("other")).isNull();
+  }
+
+  @Test
+  public void testFlushWithoutChanges() throws Exception {
+    Path file = tempDir.resolve("state.properties");
+    new FileStateStore(file).flush();
+    assertThat(Files.exists(file)).isFalse();
+  }
+}
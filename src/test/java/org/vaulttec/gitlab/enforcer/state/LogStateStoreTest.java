@@ -0,0 +1,102 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.state;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LogStateStoreTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testReplayWithoutSnapshot() {
+    LogStateStore store = new LogStateStore(tempDir, 1024);
+    store.put("sweep.last", "2019-01-01T00:00:00Z");
+    store.put("other", "value");
+    store.put("other", "änderung");
+    store.put("removed", "value");
+    store.remove("removed");
+    store.flush();
+    store.put("unflushed", "value");
+
+    // Simulates a crash - the log is replayed without a snapshot and the
+    // buffered changes are lost
+    LogStateStore reloadedStore = new LogStateStore(tempDir, 1024);
+    assertThat(reloadedStore.get("sweep.last")).isEqualTo("2019-01-01T00:00:00Z");
+    assertThat(reloadedStore.get("other")).isEqualTo("änderung");
+    assertThat(reloadedStore.get("removed")).isNull();
+    assertThat(reloadedStore.get("unflushed")).isNull();
+    assertThat(tempDir.resolve(LogStateStore.SNAPSHOT_FILE)).doesNotExist();
+    store.close();
+    reloadedStore.close();
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    LogStateStore store = new LogStateStore(tempDir, 100);
+    for (int i = 0; i < 20; i++) {
+      store.put("key", "value" + i);
+    }
+    store.put("other", "value");
+    store.flush();
+    assertThat(tempDir.resolve(LogStateStore.SNAPSHOT_FILE)).exists();
+    assertThat(Files.size(tempDir.resolve(LogStateStore.LOG_FILE))).isZero();
+
+    store.remove("other");
+    store.close();
+
+    LogStateStore reloadedStore = new LogStateStore(tempDir, 100);
+    assertThat(reloadedStore.get("key")).isEqualTo("value19");
+    assertThat(reloadedStore.get("other")).isNull();
+    reloadedStore.close();
+  }
+
+  @Test
+  public void testIncompleteRecordIsDiscarded() throws Exception {
+    LogStateStore store = new LogStateStore(tempDir, 1024);
+    store.put("first", "value");
+    store.put("second", "value");
+    store.close();
+
+    // Cut off the last record
+    Path logFile = tempDir.resolve(LogStateStore.LOG_FILE);
+    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    LogStateStore reloadedStore = new LogStateStore(tempDir, 1024);
+    assertThat(reloadedStore.get("first")).isEqualTo("value");
+    assertThat(reloadedStore.get("second")).isNull();
+    reloadedStore.put("third", "value");
+    reloadedStore.close();
+
+    LogStateStore finalStore = new LogStateStore(tempDir, 1024);
+    assertThat(finalStore.get("first")).isEqualTo("value");
+    assertThat(finalStore.get("third")).isEqualTo("value");
+    finalStore.close();
+  }
+}
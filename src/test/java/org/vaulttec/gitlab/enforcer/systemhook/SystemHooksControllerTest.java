@@ -0,0 +1,106 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.enforcer.systemhook;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.vaulttec.gitlab.enforcer.EnforcerClient;
+import org.vaulttec.gitlab.enforcer.EnforcerConfig;
+import org.vaulttec.gitlab.enforcer.EnforcerExecution;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SystemHooksControllerTest {
+
+  private static final String TOKEN = "secret";
+
+  private EnforcerClient client;
+  private ThreadPoolTaskExecutor executor;
+  private MeterRegistry meterRegistry;
+  private SystemHooksController controller;
+
+  @BeforeEach
+  public void setUp() {
+    client = mock(EnforcerClient.class);
+    EnforcerConfig config = new EnforcerConfig();
+    config.setSystemHookToken(TOKEN);
+    config.setHookWorkers(1);
+    config.setHookQueueCapacity(1);
+    executor = (ThreadPoolTaskExecutor) config.hookTaskExecutor();
+    executor.initialize();
+    meterRegistry = new SimpleMeterRegistry();
+    controller = new SystemHooksController(client, config, executor, meterRegistry);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testProcessAsync() {
+    SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("42").build();
+
+    assertThat(controller.process("System Hook", TOKEN, event).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    verify(client, timeout(1000)).enforce(EnforcerExecution.HOOK, event);
+  }
+
+  @Test
+  public void testProcessWithInvalidToken() {
+    SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("42").build();
+
+    assertThat(controller.process("System Hook", "invalid", event).getStatusCode()).isEqualTo(HttpStatus.OK);
+    verify(client, never()).enforce(any(), any());
+  }
+
+  @Test
+  public void testProcessWithFullQueue() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch blocked = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      started.countDown();
+      blocked.await();
+      return null;
+    }).when(client).enforce(any(), any());
+    SystemEvent event = new SystemEventBuilder().eventName(SystemEventName.PROJECT_CREATE).id("42").build();
+
+    // First event is processed by the single worker, second one is queued
+    assertThat(controller.process("System Hook", TOKEN, event).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    started.await();
+    assertThat(controller.process("System Hook", TOKEN, event).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    assertThat(meterRegistry.get("enforcer.hooks.queued").gauge().value()).isEqualTo(1);
+    assertThat(controller.process("System Hook", TOKEN, event).getStatusCode())
+        .isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    assertThat(meterRegistry.get("enforcer.hooks.rejected").counter().count()).isEqualTo(1);
+    blocked.countDown();
+  }
+}
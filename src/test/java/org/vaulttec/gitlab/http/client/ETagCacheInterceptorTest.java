@@ -0,0 +1,115 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.headerDoesNotExist;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import org.vaulttec.http.client.ETagCacheInterceptor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ETagCacheInterceptorTest {
+
+  private static final String URL1 = "http://localhost/resource/1";
+  private static final String URL2 = "http://localhost/resource/2";
+
+  @TempDir
+  Path spillDirectory;
+
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @Test
+  public void testRevalidateCachedResponse() {
+    RestTemplate restTemplate = createRestTemplate(new ETagCacheInterceptor(1024, null, 0, meterRegistry, "test"));
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    server.expect(requestTo(URL1)).andExpect(headerDoesNotExist(HttpHeaders.IF_NONE_MATCH))
+        .andRespond(withSuccess("[\"first\"]", MediaType.APPLICATION_JSON).headers(etag("\"v1\"")));
+    server.expect(requestTo(URL1)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+        .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+    server.expect(requestTo(URL1)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+        .andRespond(withSuccess("[\"second\"]", MediaType.APPLICATION_JSON).headers(etag("\"v2\"")));
+
+    assertThat(restTemplate.getForObject(URL1, String[].class)).containsExactly("first");
+    assertThat(restTemplate.getForObject(URL1, String[].class)).containsExactly("first");
+    assertThat(restTemplate.getForObject(URL1, String[].class)).containsExactly("second");
+
+    server.verify();
+    assertThat(meterRegistry.get("test.http.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("test.http.cache").tag("result", "miss").counter().count()).isEqualTo(2);
+    assertThat(meterRegistry.get("test.http.cache.saved").counter().count()).isEqualTo(9);
+    assertThat(meterRegistry.get("test.http.cache.size").gauge().value()).isEqualTo(10);
+  }
+
+  @Test
+  public void testSpillEvictedResponse() throws Exception {
+    ETagCacheInterceptor interceptor = new ETagCacheInterceptor(12, spillDirectory, 1024, meterRegistry, "test");
+    RestTemplate restTemplate = createRestTemplate(interceptor);
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    server.expect(requestTo(URL1)).andRespond(withSuccess("[\"first\"]", MediaType.APPLICATION_JSON)
+        .headers(etag("\"v1\"")));
+    server.expect(requestTo(URL2)).andRespond(withSuccess("[\"other\"]", MediaType.APPLICATION_JSON)
+        .headers(etag("\"v2\"")));
+    server.expect(requestTo(URL1)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+        .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+    restTemplate.getForObject(URL1, String[].class);
+    restTemplate.getForObject(URL2, String[].class);
+    try (var files = Files.list(spillDirectory)) {
+      assertThat(files.count()).isEqualTo(1);
+    }
+    assertThat(interceptor.getSize()).isEqualTo(9);
+    assertThat(restTemplate.getForObject(URL1, String[].class)).containsExactly("first");
+
+    server.verify();
+    assertThat(meterRegistry.get("test.http.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+  }
+
+  private HttpHeaders etag(String etag) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setETag(etag);
+    return headers;
+  }
+
+  private RestTemplate createRestTemplate(ETagCacheInterceptor interceptor) {
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.getInterceptors().add(interceptor);
+    return restTemplate;
+  }
+}
@@ -18,7 +18,9 @@
 package org.vaulttec.gitlab.http.client;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpHeaders;
@@ -63,4 +65,39 @@ public class LinkHeaderTest {
     assertEquals(50, link.getPage());
     assertEquals(100, link.getPerPage());
   }
+
+  @Test
+  public void testParseKeyset() {
+    String linkValue = "<https://gitlab.example.com/api/v4/projects?id_after=42&order_by=id&pagination=keyset"
+        + "&per_page=100&sort=asc>; rel=\"next\"";
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(HttpHeaders.LINK, linkValue);
+
+    LinkHeader linkHeader = LinkHeader.parse(headers);
+
+    assertNotNull(linkHeader);
+    assertFalse(linkHeader.hasLink(LinkHeader.Rel.LAST));
+    Link link = linkHeader.getLink(LinkHeader.Rel.NEXT);
+    assertNotNull(link);
+    assertEquals("https://gitlab.example.com/api/v4/projects?id_after=42&order_by=id&pagination=keyset"
+        + "&per_page=100&sort=asc", link.getResourceUri().toString());
+    assertTrue(link.isKeyset());
+    assertEquals(-1, link.getPage());
+    assertEquals(100, link.getPerPage());
+  }
+
+  @Test
+  public void testParseWithCommaInLink() {
+    String linkValue = "</resource?cursor=a,b&pagination=keyset>; rel=\"next\", "
+        + "</resource?cursor=c>; rel=\"first\"";
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(HttpHeaders.LINK, linkValue);
+
+    LinkHeader linkHeader = LinkHeader.parse(headers);
+
+    assertNotNull(linkHeader);
+    assertEquals("/resource?cursor=a,b&pagination=keyset",
+        linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri().toString());
+    assertFalse(linkHeader.getLink(LinkHeader.Rel.FIRST).isKeyset());
+  }
 }
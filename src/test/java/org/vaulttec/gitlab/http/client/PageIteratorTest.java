@@ -0,0 +1,124 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.vaulttec.http.client.PageIterator;
+
+public class PageIteratorTest {
+
+  @Test
+  public void testIterateLazily() {
+    List<URI> requestedUris = new ArrayList<>();
+    PageIterator<String> pages = new PageIterator<>(() -> createPage(2, "a", "b"), uri -> {
+      requestedUris.add(uri);
+      return uri.toString().contains("page=2") ? createPage(3, "c", "d") : createPage(-1, "e");
+    });
+
+    assertThat(pages.hasNext()).isTrue();
+    assertThat(pages.next()).containsExactly("a", "b");
+    assertThat(requestedUris).isEmpty();
+    assertThat(pages.next()).containsExactly("c", "d");
+    assertThat(requestedUris).hasSize(1);
+    assertThat(pages.next()).containsExactly("e");
+    assertThat(pages.hasNext()).isFalse();
+    assertThat(requestedUris).hasSize(2);
+  }
+
+  @Test
+  public void testSinglePage() {
+    PageIterator<String> pages = new PageIterator<>(() -> createPage(-1, "a"), uri -> {
+      throw new IllegalStateException("Unexpected request for next page");
+    });
+
+    assertThat(pages.next()).containsExactly("a");
+    assertThat(pages.hasNext()).isFalse();
+  }
+
+  @Test
+  public void testPrefetchWithKnownNumberOfPages() {
+    List<URI> requestedUris = Collections.synchronizedList(new ArrayList<>());
+    PageIterator<String> pages = new PageIterator<>(() -> createPage(2, 5, "1"), uri -> {
+      requestedUris.add(uri);
+      int page = Integer.parseInt(UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst("page"));
+      return createPage(page < 5 ? page + 1 : -1, 5, Integer.toString(page));
+    }, Runnable::run, 2);
+
+    assertThat(pages.next()).containsExactly("1");
+    assertThat(requestedUris).extracting(URI::toString).containsExactly("/resource?per_page=10&page=2",
+        "/resource?per_page=10&page=3");
+    List<String> entities = new ArrayList<>();
+    pages.forEachRemaining(entities::addAll);
+    assertThat(entities).containsExactly("2", "3", "4", "5");
+    assertThat(requestedUris).hasSize(4);
+  }
+
+  @Test
+  public void testPrefetchWithUnknownNumberOfPages() {
+    List<URI> requestedUris = Collections.synchronizedList(new ArrayList<>());
+    PageIterator<String> pages = new PageIterator<>(() -> createPage(2, "a"), uri -> {
+      requestedUris.add(uri);
+      return uri.toString().contains("page=2&") ? createPage(3, "b") : createPage(-1, "c");
+    }, Runnable::run, 2);
+
+    assertThat(pages.next()).containsExactly("a");
+    assertThat(requestedUris).hasSize(1);
+    assertThat(pages.next()).containsExactly("b");
+    assertThat(requestedUris).hasSize(2);
+    assertThat(pages.next()).containsExactly("c");
+    assertThat(pages.hasNext()).isFalse();
+  }
+
+  @Test
+  public void testPrefetchFailure() {
+    PageIterator<String> pages = new PageIterator<>(() -> createPage(2, "a"), uri -> {
+      throw new RestClientException("Failed");
+    }, Runnable::run, 2);
+
+    assertThat(pages.next()).containsExactly("a");
+    assertThatThrownBy(pages::hasNext).isInstanceOf(RestClientException.class);
+  }
+
+  private ResponseEntity<List<String>> createPage(int nextPage, String... entities) {
+    return createPage(nextPage, -1, entities);
+  }
+
+  private ResponseEntity<List<String>> createPage(int nextPage, int totalPages, String... entities) {
+    HttpHeaders headers = new HttpHeaders();
+    if (nextPage > 0) {
+      headers.add(HttpHeaders.LINK, "</resource?page=" + nextPage + "&per_page=10>; rel=\"next\"");
+    }
+    if (totalPages > 0) {
+      headers.add(PageIterator.TOTAL_PAGES_HEADER, Integer.toString(totalPages));
+    }
+    return new ResponseEntity<>(List.of(entities), headers, HttpStatus.OK);
+  }
+}
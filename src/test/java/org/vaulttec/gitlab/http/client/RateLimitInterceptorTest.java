@@ -0,0 +1,120 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.vaulttec.http.client.RateLimitInterceptor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class RateLimitInterceptorTest {
+
+  private static final String URL = "http://localhost/resource";
+
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @Test
+  public void testRejectedRequest() {
+    RateLimitInterceptor interceptor = new RateLimitInterceptor(0, 8, meterRegistry, "test");
+    RestTemplate restTemplate = createRestTemplate(interceptor);
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(RateLimitInterceptor.RETRY_AFTER_HEADER, "1");
+    server.expect(requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+    server.expect(requestTo(URL)).andRespond(withSuccess());
+
+    // Rejected requests are not retried by the interceptor
+    assertThatThrownBy(() -> restTemplate.getForEntity(URL, String.class))
+        .isInstanceOfSatisfying(HttpClientErrorException.class,
+            e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS));
+    assertThat(interceptor.getConcurrencyLimit()).isEqualTo(4);
+    assertThat(meterRegistry.get("test.ratelimit.rejected").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("test.ratelimit.permits").gauge().value()).isEqualTo(4);
+
+    // The next request waits for the time given by the server
+    long start = System.nanoTime();
+    assertThat(restTemplate.getForEntity(URL, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(900_000_000L);
+    server.verify();
+  }
+
+  @Test
+  public void testConcurrencyLimitIncreasesAgain() {
+    RateLimitInterceptor interceptor = new RateLimitInterceptor(0, 4, meterRegistry, "test");
+    RestTemplate restTemplate = createRestTemplate(interceptor);
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(RateLimitInterceptor.RETRY_AFTER_HEADER, "0");
+    server.expect(requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+    server.expect(ExpectedCount.times(3), requestTo(URL)).andRespond(withSuccess());
+
+    // Halved by the rejected request, increased by 1/limit per successful one
+    assertThatThrownBy(() -> restTemplate.getForEntity(URL, String.class))
+        .isInstanceOf(HttpClientErrorException.class);
+    assertThat(interceptor.getConcurrencyLimit()).isEqualTo(2);
+    restTemplate.getForEntity(URL, String.class);
+    restTemplate.getForEntity(URL, String.class);
+    restTemplate.getForEntity(URL, String.class);
+    assertThat(interceptor.getConcurrencyLimit()).isEqualTo(3);
+
+    server.verify();
+  }
+
+  @Test
+  public void testRequestRate() {
+    RateLimitInterceptor interceptor = new RateLimitInterceptor(20, 8, meterRegistry, "test");
+    RestTemplate restTemplate = createRestTemplate(interceptor);
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    server.expect(ExpectedCount.times(30), requestTo(URL)).andRespond(withSuccess());
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 30; i++) {
+      restTemplate.getForEntity(URL, String.class);
+    }
+
+    // 20 requests are available immediately, the remaining 10 take 0.5 secs
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(400_000_000L);
+    assertThat(meterRegistry.get("test.ratelimit.throttled").timer().count()).isGreaterThan(0);
+    server.verify();
+  }
+
+  private RestTemplate createRestTemplate(RateLimitInterceptor interceptor) {
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.getInterceptors().add(interceptor);
+    return restTemplate;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * GitLab Enforcer
+ * Copyright (c) 2019 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.vaulttec.http.client.RateLimitInterceptor;
+import org.vaulttec.http.client.RetryHandler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class RetryHandlerTest {
+
+  private MeterRegistry meterRegistry;
+  private RetryHandler retryHandler;
+
+  @BeforeEach
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    retryHandler = new RetryHandler(2, 3, Duration.ofMillis(1), Duration.ofMillis(5), meterRegistry, "test");
+  }
+
+  @Test
+  public void testRetryTransientFailure() {
+    AtomicInteger calls = new AtomicInteger();
+
+    String result = retryHandler.execute(HttpMethod.GET, "/projects/{projectId}", () -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+      } else if (calls.get() == 2) {
+        throw new ResourceAccessException("Connection reset");
+      }
+      return "ok";
+    });
+
+    assertThat(result).isEqualTo("ok");
+    assertThat(calls).hasValue(3);
+    assertThat(meterRegistry.get("test.api.retries").tag("method", "GET").tag("endpoint", "/projects/{projectId}")
+        .counter().count()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGiveUpAfterMaxRetries() {
+    AtomicInteger calls = new AtomicInteger();
+
+    assertThatThrownBy(() -> retryHandler.execute(HttpMethod.DELETE, "/projects/{projectId}", () -> {
+      calls.incrementAndGet();
+      throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+    })).isInstanceOf(HttpServerErrorException.class);
+    assertThat(calls).hasValue(3);
+  }
+
+  @Test
+  public void testNoRetryOfNonIdempotentMethod() {
+    AtomicInteger calls = new AtomicInteger();
+
+    assertThatThrownBy(() -> retryHandler.execute(HttpMethod.POST, "/projects/{projectId}/push_rule", () -> {
+      calls.incrementAndGet();
+      throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+    })).isInstanceOf(HttpServerErrorException.class);
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  public void testNoRetryOfPermanentFailure() {
+    AtomicInteger calls = new AtomicInteger();
+
+    assertThatThrownBy(() -> retryHandler.execute(HttpMethod.GET, "/projects/{projectId}", () -> {
+      calls.incrementAndGet();
+      throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+    })).isInstanceOf(HttpClientErrorException.class);
+    assertThat(calls).hasValue(1);
+    assertThat(meterRegistry.find("test.api.retries").counter()).isNull();
+  }
+
+  @Test
+  public void testRetryRateLimitedCall() {
+    AtomicInteger calls = new AtomicInteger();
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(RateLimitInterceptor.RETRY_AFTER_HEADER, "0");
+
+    // Rejected calls are retried regardless of their HTTP method
+    String result = retryHandler.execute(HttpMethod.POST, "/projects/{projectId}/push_rule", () -> {
+      if (calls.incrementAndGet() <= 3) {
+        throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null,
+            null);
+      }
+      return "ok";
+    });
+
+    assertThat(result).isEqualTo("ok");
+    assertThat(calls).hasValue(4);
+  }
+
+  @Test
+  public void testGiveUpAfterRateLimitRetries() {
+    AtomicInteger calls = new AtomicInteger();
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(RateLimitInterceptor.RETRY_AFTER_HEADER, "0");
+
+    assertThatThrownBy(() -> retryHandler.execute(HttpMethod.GET, "/projects/{projectId}", () -> {
+      calls.incrementAndGet();
+      throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null, null);
+    })).isInstanceOf(HttpClientErrorException.class);
+    assertThat(calls).hasValue(4);
+  }
+}